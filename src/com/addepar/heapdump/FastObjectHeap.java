@@ -2,15 +2,18 @@ package com.addepar.heapdump;
 
 import java.lang.reflect.Field;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Set;
 
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
 import sun.jvm.hotspot.debugger.Address;
+import sun.jvm.hotspot.debugger.Debugger;
+import sun.jvm.hotspot.debugger.FastDebuggerReads;
 import sun.jvm.hotspot.debugger.OopHandle;
+import sun.jvm.hotspot.debugger.UnalignedAddressException;
 import sun.jvm.hotspot.debugger.UnmappedAddressException;
 import sun.jvm.hotspot.gc_implementation.g1.G1CollectedHeap;
 import sun.jvm.hotspot.gc_implementation.parallelScavenge.PSOldGen;
@@ -23,19 +26,20 @@ import sun.jvm.hotspot.memory.MemRegion;
 import sun.jvm.hotspot.memory.Space;
 import sun.jvm.hotspot.memory.SpaceClosure;
 import sun.jvm.hotspot.memory.SymbolTable;
+import sun.jvm.hotspot.memory.Universe;
 import sun.jvm.hotspot.oops.FastInstance;
 import sun.jvm.hotspot.oops.FastInstanceKlass;
 import sun.jvm.hotspot.oops.FastInstanceMirrorKlass;
 import sun.jvm.hotspot.oops.FastObjArray;
 import sun.jvm.hotspot.oops.FastObjArrayKlass;
 import sun.jvm.hotspot.oops.FastTypeArray;
+import sun.jvm.hotspot.oops.InstanceKlass;
 import sun.jvm.hotspot.oops.IntField;
 import sun.jvm.hotspot.oops.Klass;
 import sun.jvm.hotspot.oops.MetadataField;
 import sun.jvm.hotspot.oops.NarrowKlassField;
 import sun.jvm.hotspot.oops.ObjectHeap;
 import sun.jvm.hotspot.oops.Oop;
-import sun.jvm.hotspot.oops.Symbol;
 import sun.jvm.hotspot.oops.TypeArrayKlass;
 import sun.jvm.hotspot.runtime.JavaThread;
 import sun.jvm.hotspot.runtime.ThreadLocalAllocBuffer;
@@ -62,11 +66,28 @@ public class FastObjectHeap extends ObjectHeap {
   private final long oopKlassOffset;
   private final long oopArrayKlassOffset;
 
-  private final Symbol javaLangClass;
+  private final Long2ObjectOpenHashMap<CachedKlass> klassCache = new Long2ObjectOpenHashMap<>();
+
+  private final Debugger dbg;
+  private final int addressSize;
+  private final boolean bigEndian;
+  private final int objectAlignment;
+  private final boolean compressedKlassPointers;
+  private final long narrowKlassBase;
+  private final int narrowKlassShift;
+  private final long klassWordOffset;
+  private final int klassWordSize;
+  private final long heapStart;
+  private final long heapEnd;
 
   private final VtblAccess vtblAccess;
-  private final Set<Address> klassVtbls;
-  private final Address instanceMirrorKlassVtbl;
+  private final long[] klassVtbls; // sorted, for binary search
+  private final long instanceMirrorKlassVtbl;
+
+  // The backward walk reads header words in windows that start small, since most objects are small, and grow up to a
+  // page for walking back through large arrays
+  private static final int MIN_WINDOW_SIZE = 256;
+  private static final int MAX_WINDOW_SIZE = 4096;
 
   private static final String[] KLASS_TYPES = {"InstanceKlass", "TypeArrayKlass", "ObjArrayKlass",
       "InstanceMirrorKlass", "InstanceClassLoaderKlass", "InstanceRefKlass"};
@@ -85,60 +106,79 @@ public class FastObjectHeap extends ObjectHeap {
     oopKlass = new MetadataField(oopType.getAddressField("_metadata._klass"), 0L);
     oopCompressedKlass = new NarrowKlassField(oopType.getAddressField("_metadata._compressed_klass"), 0L);
 
+    VM vm = VM.getVM();
+    dbg = vm.getDebugger();
+    addressSize = (int) vm.getAddressSize();
+    bigEndian = dbg.getMachineDescription().isBigEndian();
+    objectAlignment = vm.getMinObjAlignmentInBytes();
+    compressedKlassPointers = vm.isCompressedKlassPointersEnabled();
+    narrowKlassBase = Universe.getNarrowKlassBase();
+    narrowKlassShift = Universe.getNarrowKlassShift();
+    klassWordOffset = compressedKlassPointers ? oopCompressedKlass.getOffset() : oopKlass.getOffset();
+    klassWordSize = compressedKlassPointers ? 4 : addressSize;
+    MemRegion reserved = vm.getUniverse().heap().reservedRegion();
+    heapStart = reserved.start().minus(null);
+    heapEnd = reserved.end().minus(null);
+
     Type jlc = db.lookupType("java_lang_Class");
     oopKlassOffset = jlc.getCIntegerField("_klass_offset").getValue();
     oopArrayKlassOffset = jlc.getCIntegerField("_array_klass_offset").getValue();
 
-    javaLangClass = symTbl.probe("java/lang/Class");
-
     try {
       Field f = db.getClass().getSuperclass().getDeclaredField("vtblAccess");
       f.setAccessible(true);
       vtblAccess = (VtblAccess) f.get(db);
-      klassVtbls = new HashSet<Address>();
-      for (String type : KLASS_TYPES) {
-        Address a = vtblAccess.getVtblForType(db.lookupType(type));
+      klassVtbls = new long[KLASS_TYPES.length];
+      for (int i = 0; i < KLASS_TYPES.length; i++) {
+        Address a = vtblAccess.getVtblForType(db.lookupType(KLASS_TYPES[i]));
         if (a == null) {
           throw new IllegalStateException();
         }
-        klassVtbls.add(a);
+        klassVtbls[i] = a.minus(null);
       }
-      instanceMirrorKlassVtbl = vtblAccess.getVtblForType(db.lookupType("InstanceMirrorKlass"));
+      Arrays.sort(klassVtbls);
+      instanceMirrorKlassVtbl = vtblAccess.getVtblForType(db.lookupType("InstanceMirrorKlass")).minus(null);
     } catch (Exception e) {
       throw new RuntimeException(e);
     }
   }
 
-  // The address points to a Klass*, but is it an internal pointer inside of a java.lang.Class, or
-  // an actual klass word in an object header?
-  private boolean isInternalKlassPointer(Address address, Address bottom, long offset) {
-    OopHandle classOop = address.addOffsetToAsOopHandle(-offset);
-    if (VM.getVM().isCompressedKlassPointersEnabled()) {
-      classOop = classOop.addOffsetToAsOopHandle(oopCompressedKlass.getOffset());
-    } else {
-      classOop = classOop.addOffsetToAsOopHandle(oopKlass.getOffset());
-    }
-
-    if (classOop.greaterThanOrEqual(bottom)) {
-      Address classKlass;
-      if (VM.getVM().isCompressedKlassPointersEnabled()) {
-        classKlass = classOop.getCompKlassAddressAt(oopCompressedKlass.getOffset());
-      } else {
-        classKlass = classOop.getAddressAt(oopKlass.getOffset());
-      }
-
-      if (classKlass == null) {
-        return false;
-      }
-
+  /**
+   * Walk backwards from probeAddress to the nearest address that looks like the start of an object, but don't walk
+   * past bottom. The klass words of the candidates are read a window at a time, and only the ones that pass the cheap
+   * range and alignment checks go on to the memory reads that validate the Klass.
+   *
+   * @return the object, or null if nothing that looks like an object header was found
+   */
+  public Oop findObjectAtOrBelow(Address probeAddress, Address bottom) {
+    long floor = bottom.minus(null);
+    long cur = probeAddress.minus(null) & ~(objectAlignment - 1);
+    int windowSize = MIN_WINDOW_SIZE;
+    while (cur >= floor) {
+      long windowStart = Math.max(floor, cur - windowSize + objectAlignment);
+      byte[] data;
       try {
-        Address vtbl = classKlass.getAddressAt(0);
-        return instanceMirrorKlassVtbl.equals(vtbl);
+        data = FastDebuggerReads.readBytes(dbg, windowStart + klassWordOffset, cur - windowStart + klassWordSize);
       } catch (UnmappedAddressException e) {
-        return false;
+        data = null;
+      }
+      for (long candidate = cur; candidate >= windowStart; candidate -= objectAlignment) {
+        Oop oop;
+        if (data != null) {
+          int index = (int) (candidate - windowStart);
+          oop = newOopIfPossible(candidate, readKlassWord(data, index), bottom, floor);
+        } else {
+          // Part of the window isn't readable, so fall back to reading one word at a time
+          oop = newOopIfPossible(bottom.addOffsetToAsOopHandle(candidate - floor), bottom);
+        }
+        if (oop != null) {
+          return oop;
+        }
       }
+      cur = windowStart - objectAlignment;
+      windowSize = Math.min(windowSize * 2, MAX_WINDOW_SIZE);
     }
-    return false;
+    return null;
   }
 
   public Oop newOopIfPossible(OopHandle handle, Address bottom) {
@@ -146,53 +186,126 @@ public class FastObjectHeap extends ObjectHeap {
       return null;
     }
 
-    Address klassAddress;
-    if (VM.getVM().isCompressedKlassPointersEnabled()) {
-      klassAddress = handle.getCompKlassAddressAt(oopCompressedKlass.getOffset());
-    } else {
-      klassAddress = handle.getAddressAt(oopKlass.getOffset());
-    }
-
-    if (klassAddress == null) {
+    long klassWord;
+    try {
+      if (compressedKlassPointers) {
+        klassWord = handle.getJIntAt(klassWordOffset) & 0xFFFFFFFFL;
+      } else {
+        klassWord = handle.getJLongAt(klassWordOffset);
+      }
+    } catch (UnmappedAddressException | UnalignedAddressException e) {
       return null;
     }
+    return newOopIfPossible(handle.minus(null), klassWord, bottom, bottom.minus(null));
+  }
 
-    // Validate that the address actually points at a Klass
-    try {
-      Address vtbl = klassAddress.getAddressAt(0);
-      if (!klassVtbls.contains(vtbl)) {
-        return null;
-      }
-    } catch (UnmappedAddressException e) {
+  /**
+   * Validate a candidate object at the given raw address, whose header holds klassWord. Addresses are passed around as
+   * raw values and only turned into an OopHandle once the candidate has passed.
+   */
+  private Oop newOopIfPossible(long address, long klassWord, Address bottom, long floor) {
+    long klass = decodeKlass(klassWord);
+    if (klass == 0 || !isKlass(klass, bottom, floor)) {
       return null;
     }
 
     // Check if we hit the Class.klass or Class.array_klass fields
-    if (isInternalKlassPointer(handle, bottom, oopKlassOffset) ||
-        isInternalKlassPointer(handle, bottom, oopArrayKlassOffset)) {
+    if (isInternalKlassPointer(address, bottom, floor, oopKlassOffset) ||
+        isInternalKlassPointer(address, bottom, floor, oopArrayKlassOffset)) {
       return null;
     }
 
-    int layoutHelper = klassAddress.getJIntAt(klassLayoutHelper.getOffset());
-    int tag = layoutHelper >> Klass.LH_ARRAY_TAG_SHIFT;
+    CachedKlass cached = klassCache.get(klass);
+    if (cached == null) {
+      cached = getCachedKlass(bottom.addOffsetTo(klass - floor));
+    }
+    return newOop(bottom.addOffsetToAsOopHandle(address - floor), cached);
+  }
 
-    if (tag == Klass.LH_ARRAY_TAG_OBJ_VALUE) {
-      // object array
-      Klass bottomKlass = getKlassAtAddress(objArrayBottomKlass.getValue(klassAddress));
-      return new FastObjArray(handle, this, new FastObjArrayKlass(klassAddress, bottomKlass));
-    } else if (tag == Klass.LH_ARRAY_TAG_TYPE_VALUE) {
-      // primitive array
-      return new FastTypeArray(handle, this, new TypeArrayKlass(klassAddress));
+  private long readKlassWord(byte[] data, int index) {
+    if (compressedKlassPointers) {
+      return readRaw(data, index, 4);
     } else {
-      Symbol name = Symbol.create(klassAddress.getAddressAt(klassName.getOffset()));
-      if (javaLangClass.equals(name)) {
-        // instance of java.lang.Class, which has special handling for static members
-        return new FastInstance(handle, this, new FastInstanceMirrorKlass(klassAddress));
+      return readRaw(data, index, addressSize);
+    }
+  }
+
+  private long readRaw(byte[] data, int index, int size) {
+    long value = 0;
+    for (int i = 0; i < size; i++) {
+      int b = data[index + (bigEndian ? i : size - 1 - i)] & 0xFF;
+      value = (value << 8) | b;
+    }
+    return value;
+  }
+
+  /**
+   * Turn the contents of a klass word into a Klass address, or 0 if it can't possibly be one. This doesn't read any
+   * memory: a Klass is word aligned and lives in metaspace, so it's never inside the Java heap.
+   */
+  private long decodeKlass(long klassWord) {
+    if (klassWord == 0) {
+      return 0;
+    }
+    long klass = compressedKlassPointers ? narrowKlassBase + (klassWord << narrowKlassShift) : klassWord;
+    if ((klass & (addressSize - 1)) != 0 || (klass >= heapStart && klass < heapEnd)) {
+      return 0;
+    }
+    return klass;
+  }
+
+  /**
+   * Whether the given address points at a Klass. Anything in the cache has already been validated, otherwise check
+   * that the vtable is one of the Klass vtables.
+   */
+  private boolean isKlass(long klass, Address base, long baseValue) {
+    return klassCache.containsKey(klass)
+        || Arrays.binarySearch(klassVtbls, readWord(base, baseValue, klass)) >= 0;
+  }
+
+  // The address points to a Klass*, but is it an internal pointer inside of a java.lang.Class, or
+  // an actual klass word in an object header?
+  private boolean isInternalKlassPointer(long address, Address base, long floor, long offset) {
+    long classOop = address + klassWordOffset - offset;
+    if (classOop < floor) {
+      return false;
+    }
+
+    long classKlassWord;
+    try {
+      if (compressedKlassPointers) {
+        classKlassWord = base.getJIntAt(classOop + klassWordOffset - floor) & 0xFFFFFFFFL;
       } else {
-        // instance of anything else. we don't handle InstanceRefKlass or InstanceClassLoaderKlass
-        // because they contain no extra logic
-        return new FastInstance(handle, this, new FastInstanceKlass(klassAddress));
+        classKlassWord = base.getJLongAt(classOop + klassWordOffset - floor);
       }
+    } catch (UnmappedAddressException | UnalignedAddressException e) {
+      return false;
+    }
+
+    long classKlass = decodeKlass(classKlassWord);
+    if (classKlass == 0) {
+      return false;
+    }
+    CachedKlass cached = klassCache.get(classKlass);
+    if (cached != null) {
+      return cached.kind == KlassKind.MIRROR;
+    }
+    return readWord(base, floor, classKlass) == instanceMirrorKlassVtbl;
+  }
+
+  /**
+   * Read a pointer sized word at a raw address, relative to some other address we already have. Returns 0 if the
+   * address can't be read.
+   */
+  private long readWord(Address base, long baseValue, long address) {
+    try {
+      if (addressSize == 8) {
+        return base.getJLongAt(address - baseValue);
+      } else {
+        return base.getJIntAt(address - baseValue) & 0xFFFFFFFFL;
+      }
+    } catch (UnmappedAddressException | UnalignedAddressException e) {
+      return 0;
     }
   }
 
@@ -209,26 +322,18 @@ public class FastObjectHeap extends ObjectHeap {
       klassAddress = handle.getAddressAt(oopKlass.getOffset());
     }
 
-    int layoutHelper = klassAddress.getJIntAt(klassLayoutHelper.getOffset());
-    int tag = layoutHelper >> Klass.LH_ARRAY_TAG_SHIFT;
+    return newOop(handle, getCachedKlass(klassAddress));
+  }
 
-    if (tag == Klass.LH_ARRAY_TAG_OBJ_VALUE) {
-      // object array
-      Klass bottomKlass = getKlassAtAddress(objArrayBottomKlass.getValue(klassAddress));
-      return new FastObjArray(handle, this, new FastObjArrayKlass(klassAddress, bottomKlass));
-    } else if (tag == Klass.LH_ARRAY_TAG_TYPE_VALUE) {
-      // primitive array
-      return new FastTypeArray(handle, this, new TypeArrayKlass(klassAddress));
-    } else {
-      Symbol name = Symbol.create(klassAddress.getAddressAt(klassName.getOffset()));
-      if (javaLangClass.equals(name)) {
-        // instance of java.lang.Class, which has special handling for static members
-        return new FastInstance(handle, this, new FastInstanceMirrorKlass(klassAddress));
-      } else {
-        // instance of anything else. we don't handle InstanceRefKlass or InstanceClassLoaderKlass
-        // because they contain no extra logic
-        return new FastInstance(handle, this, new FastInstanceKlass(klassAddress));
-      }
+  private Oop newOop(OopHandle handle, CachedKlass cachedKlass) {
+    switch (cachedKlass.kind) {
+      case OBJ_ARRAY:
+        return new FastObjArray(handle, this, (FastObjArrayKlass) cachedKlass.klass);
+      case TYPE_ARRAY:
+        return new FastTypeArray(handle, this, (TypeArrayKlass) cachedKlass.klass);
+      default:
+        // instances of java.lang.Class get a FastInstanceMirrorKlass, which has special handling for static members
+        return new FastInstance(handle, this, (InstanceKlass) cachedKlass.klass);
     }
   }
 
@@ -241,26 +346,40 @@ public class FastObjectHeap extends ObjectHeap {
   }
 
   public Klass getKlassAtAddress(Address klassAddress) {
+    return getCachedKlass(klassAddress).klass;
+  }
+
+  /**
+   * Look up the Klass at the given address, creating it the first time it's seen. Each Klass is only created once per
+   * heap, so the bottom klass of an object array and the name check for java.lang.Class are only done once too.
+   */
+  private CachedKlass getCachedKlass(Address klassAddress) {
+    long key = klassAddress.minus(null); // the raw address value
+    CachedKlass cached = klassCache.get(key);
+    if (cached != null) {
+      return cached;
+    }
+
     int layoutHelper = klassAddress.getJIntAt(klassLayoutHelper.getOffset());
     int tag = layoutHelper >> Klass.LH_ARRAY_TAG_SHIFT;
 
     if (tag == Klass.LH_ARRAY_TAG_OBJ_VALUE) {
       // object array
       Klass bottomKlass = getKlassAtAddress(objArrayBottomKlass.getValue(klassAddress));
-      return new FastObjArrayKlass(klassAddress, bottomKlass);
+      cached = new CachedKlass(KlassKind.OBJ_ARRAY, new FastObjArrayKlass(klassAddress, bottomKlass));
     } else if (tag == Klass.LH_ARRAY_TAG_TYPE_VALUE) {
       // primitive array
-      return new TypeArrayKlass(klassAddress);
+      cached = new CachedKlass(KlassKind.TYPE_ARRAY, new TypeArrayKlass(klassAddress));
+    } else if (readWord(klassAddress, key, key) == instanceMirrorKlassVtbl) {
+      // java.lang.Class, which has special handling for static members
+      cached = new CachedKlass(KlassKind.MIRROR, new FastInstanceMirrorKlass(klassAddress));
     } else {
-      Symbol name = Symbol.create(klassAddress.getAddressAt(klassName.getOffset()));
-      if (javaLangClass.equals(name)) {
-        // java.lang.Class
-        return new FastInstanceMirrorKlass(klassAddress);
-      } else {
-        // any other non-array class
-        return new FastInstanceKlass(klassAddress);
-      }
+      // any other non-array class. we don't handle InstanceRefKlass or InstanceClassLoaderKlass
+      // because they contain no extra logic
+      cached = new CachedKlass(KlassKind.INSTANCE, new FastInstanceKlass(klassAddress));
     }
+    klassCache.put(key, cached);
+    return cached;
   }
 
   public List collectLiveRegions() {
@@ -324,6 +443,23 @@ public class FastObjectHeap extends ObjectHeap {
     });
   }
 
+  private enum KlassKind {
+    INSTANCE,
+    MIRROR,
+    OBJ_ARRAY,
+    TYPE_ARRAY
+  }
+
+  private static final class CachedKlass {
+    final KlassKind kind;
+    final Klass klass;
+
+    CachedKlass(KlassKind kind, Klass klass) {
+      this.kind = kind;
+      this.klass = klass;
+    }
+  }
+
   private class LiveRegionsCollector implements SpaceClosure {
     private List liveRegions;
 
@@ -16,7 +16,6 @@ import sun.jvm.hotspot.debugger.Address;
 import sun.jvm.hotspot.debugger.JVMDebugger;
 import sun.jvm.hotspot.debugger.MachineDescription;
 import sun.jvm.hotspot.debugger.MachineDescriptionAMD64;
-import sun.jvm.hotspot.debugger.OopHandle;
 import sun.jvm.hotspot.gc_interface.CollectedHeap;
 import sun.jvm.hotspot.memory.CompactibleFreeListSpace;
 import sun.jvm.hotspot.memory.ConcurrentMarkSweepGeneration;
@@ -40,7 +39,6 @@ public class StatisticalHeapDumper extends Tool {
   private FastObjectHeap objectHeap;
   private SymbolTable symTbl;
   private Random random;
-  private int heapWordSize;
 
   private int misses;
 
@@ -57,7 +55,6 @@ public class StatisticalHeapDumper extends Tool {
   void init() {
     random = new Random();
     VM vm = VM.getVM();
-    heapWordSize = VM.getVM().getHeapWordSize();
     dbg = vm.getDebugger();
 
     objectHeap = new FastObjectHeap(vm.getTypeDataBase(), vm.getSymbolTable());
@@ -131,21 +128,17 @@ public class StatisticalHeapDumper extends Tool {
    * of the live region.
    */
   private Oop probeForObject(Address probeAddress, Address bottom) {
-    OopHandle cur = probeAddress.andWithMask(~(heapWordSize - 1)).addOffsetToAsOopHandle(0);
-    while (cur.greaterThanOrEqual(bottom)) {
-      Oop oop = objectHeap.newOopIfPossible(cur, bottom);
-      if (oop != null) {
-        if (cur.addOffsetToAsOopHandle(oop.getObjectSize()).greaterThan(probeAddress)) {
-          return oop; // original address was within the nearest object
-        } else {
-          // declare this a "miss" even though we might not have walked far enough, and we just
-          // stumbled on some spurious data that looked like an Oop header, but the size is busted
-          return null;
-        }
-      }
-      cur = cur.addOffsetToAsOopHandle(-heapWordSize);
+    Oop oop = objectHeap.findObjectAtOrBelow(probeAddress, bottom);
+    if (oop == null) {
+      return null; // not found
+    }
+    if (oop.getHandle().addOffsetToAsOopHandle(oop.getObjectSize()).greaterThan(probeAddress)) {
+      return oop; // original address was within the nearest object
+    } else {
+      // declare this a "miss" even though we might not have walked far enough, and we just
+      // stumbled on some spurious data that looked like an Oop header, but the size is busted
+      return null;
     }
-    return null; // not found
   }
 
   private void addToGraph(Graph graph, Oop object) {
@@ -8,19 +8,32 @@ import it.unimi.dsi.fastutil.objects.ObjectIterator;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.util.Map;
 
 public final class AddressSpace {
   private static final int PAGE_SIZE = 0x1000; // has to be less than or equal to hardware page size
   private static final int PAGE_MASK = PAGE_SIZE - 1;
   private static final int MAX_CACHE_ENTRIES = 5000;
+  private static final int INVALIDATION_HISTORY = 16; // a power of two
+
 
   private final Inferior inferior;
   private final Long2ObjectLinkedOpenHashMap<ByteBuffer> cache;
+  private int generation;
+
+  // The ranges given to the most recent calls to invalidate, as a ring buffer indexed by the count of calls
+  private int invalidations;
+  private final long[] invalidatedStarts = new long[INVALIDATION_HISTORY];
+  private final long[] invalidatedEnds = new long[INVALIDATION_HISTORY];
 
   public AddressSpace(Inferior inferior) {
+    this(inferior, MAX_CACHE_ENTRIES);
+  }
+
+  public AddressSpace(Inferior inferior, int maxCacheEntries) {
     this.inferior = inferior;
     this.cache = new Long2ObjectLinkedOpenHashMap<>();
-    for (int i = 0; i < MAX_CACHE_ENTRIES; i++) {
+    for (int i = 0; i < maxCacheEntries; i++) {
       // put dummy entries in the cache, with hasRemaining() = true so that it reloads on first use
       cache.put(i, ByteBuffer.allocate(PAGE_SIZE).order(ByteOrder.nativeOrder()));
     }
@@ -91,7 +104,13 @@ public final class AddressSpace {
    * Careful, this expects to be passed the address of a string pointer, i.e. a char**
    */
   public String getAsciiString(long addressOfStringPointer) {
-    long address = getPointer(addressOfStringPointer);
+    return getAsciiStringAt(getPointer(addressOfStringPointer));
+  }
+
+  /**
+   * Read the NUL-terminated string that starts at the given address, or return null if the address is 0
+   */
+  public String getAsciiStringAt(long address) {
     if (address == 0) {
       return null;
     }
@@ -120,6 +139,23 @@ public final class AddressSpace {
     return builder.toString();
   }
 
+  /**
+   * Copy <code>dst.remaining()</code> bytes starting at <code>address</code> into <code>dst</code>, through the page
+   * cache. Stops early at the first byte that isn't mapped, leaving the position of <code>dst</code> there.
+   */
+  public void read(long address, ByteBuffer dst) {
+    while (dst.hasRemaining()) {
+      ByteBuffer page = getPage(address);
+      int offset = pageOffset(address);
+      int length = Math.min(dst.remaining(), page.limit() - offset);
+      if (length <= 0) {
+        return;
+      }
+      dst.put(page.array(), page.arrayOffset() + offset, length);
+      address += length;
+    }
+  }
+
   private ByteBuffer getPage(long address) {
     long pageBase = pageBase(address);
     ByteBuffer buffer = cache.getAndMoveToLast(pageBase);
@@ -167,6 +203,10 @@ public final class AddressSpace {
     return inferior.lookupVtable(typeName);
   }
 
+  public Map<String, Long> lookupAllVtables() {
+    return inferior.lookupAllVtables();
+  }
+
   public int getPointerSize() {
     return inferior.getPointerSize();
   }
@@ -175,7 +215,67 @@ public final class AddressSpace {
     return inferior.isMapped(address);
   }
 
+  /**
+   * Create another view of the same inferior with its own page cache. The cache is what makes this class unsafe to
+   * share between threads, so each thread that reads from the inferior concurrently needs its own fork. The fork must
+   * not be reset, since that would reload the (shared) inferior's state underneath the other threads.
+   */
+  public AddressSpace fork(int maxCacheEntries) {
+    return new AddressSpace(inferior, maxCacheEntries);
+  }
+
+  /**
+   * Incremented by every <code>reset</code>, so that anything derived from the cached pages knows when to re-read
+   */
+  public int getGeneration() {
+    return generation;
+  }
+
+  /**
+   * Forget the cached pages that hold <code>[address, address + length)</code>, so that the next read sees what's in
+   * the inferior now. This is much cheaper than <code>reset</code> for polling a few variables. Structs whose snapshot
+   * overlaps the range re-read it on their next field access, but anything else derived from the cached pages (which
+   * is keyed by <code>getGeneration</code>) is kept.
+   */
+  public void invalidate(long address, long length) {
+    for (long page = pageBase(address); page < address + length; page += PAGE_SIZE) {
+      ByteBuffer buffer = cache.get(page);
+      if (buffer != null) {
+        buffer.clear();
+      }
+    }
+    int slot = invalidations & (INVALIDATION_HISTORY - 1);
+    invalidatedStarts[slot] = address;
+    invalidatedEnds[slot] = address + length;
+    invalidations++;
+  }
+
+  /**
+   * Incremented by every <code>invalidate</code>
+   */
+  public int getInvalidations() {
+    return invalidations;
+  }
+
+  /**
+   * Check whether any call to <code>invalidate</code> after the given value of <code>getInvalidations</code> overlapped
+   * <code>[address, address + length)</code>. If there have been too many calls since then to tell, assume so.
+   */
+  public boolean isInvalidatedSince(int since, long address, long length) {
+    if (invalidations - since > INVALIDATION_HISTORY) {
+      return true;
+    }
+    for (int i = since; i != invalidations; i++) {
+      int slot = i & (INVALIDATION_HISTORY - 1);
+      if (invalidatedStarts[slot] < address + length && address < invalidatedEnds[slot]) {
+        return true;
+      }
+    }
+    return false;
+  }
+
   public void reset() {
+    generation++;
     ObjectIterator<Long2ObjectMap.Entry<ByteBuffer>> it = cache.long2ObjectEntrySet().fastIterator();
     while (it.hasNext()) {
       it.next().getValue().clear(); // set position less than limit, make hasRemaining() return true so that it reloads
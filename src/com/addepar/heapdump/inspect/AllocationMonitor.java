@@ -0,0 +1,213 @@
+package com.addepar.heapdump.inspect;
+
+import com.addepar.heapdump.inspect.inferior.Inferior;
+import com.addepar.heapdump.inspect.inferior.SelfInferior;
+import com.addepar.heapdump.inspect.struct.JavaThread;
+import com.addepar.heapdump.inspect.struct.ThreadLocalAllocBuffer;
+import com.addepar.heapdump.inspect.struct.Threads;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import it.unimi.dsi.fastutil.longs.Long2LongOpenHashMap;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how fast each Java thread allocates, using the counters that HotSpot keeps for every thread and its TLAB.
+ * A sample only reads a few words per thread, so it's cheap enough to take every second or so. Each sample is compared
+ * with the previous one to get the rates.
+ *
+ * The monitor takes ownership of the given <code>Hotspot</code>, which must not be used by anything else while the
+ * monitor is running.
+ */
+public class AllocationMonitor implements Closeable {
+  private final Hotspot hotspot;
+  private final FieldLayout fieldLayout;
+  private final long period;
+  private final TimeUnit unit;
+  private final ScheduledExecutorService executor;
+
+  private Long2LongOpenHashMap previousAllocatedBytes = new Long2LongOpenHashMap();
+  private long previousNanos;
+
+  // Looked up from the first thread object that's seen
+  private int threadNameOffset = -1;
+  private int threadIdOffset = -1;
+  private int stringValueOffset = -1;
+
+  private volatile AllocationReport latest;
+  private volatile long failedRuns;
+
+  public AllocationMonitor(Hotspot hotspot, long period, TimeUnit unit) {
+    this.hotspot = hotspot;
+    this.fieldLayout = new FieldLayout(hotspot);
+    this.period = period;
+    this.unit = unit;
+    this.executor = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryBuilder().setNameFormat("allocation-monitor-%d").setDaemon(true).build());
+  }
+
+  public void start() {
+    executor.scheduleWithFixedDelay(this::runOnce, 0, period, unit);
+  }
+
+  @Override
+  public void close() {
+    executor.shutdownNow();
+  }
+
+  /**
+   * The most recent result, or null if no sample has been taken yet
+   */
+  public AllocationReport getLatest() {
+    return latest;
+  }
+
+  /**
+   * The number of samples that threw, e.g. because a thread exited while it was being read
+   */
+  public long getFailedRuns() {
+    return failedRuns;
+  }
+
+  private void runOnce() {
+    try {
+      sample();
+    } catch (Throwable e) {
+      // Keep going; the next sample will most likely succeed. If this escaped, the executor would silently cancel all
+      // the later samples.
+      failedRuns++;
+    }
+  }
+
+  /**
+   * Read the counters of every thread now, and work out the rates since the previous sample. This is what the
+   * background thread calls, but it can also be called directly if the monitor hasn't been started.
+   */
+  public synchronized AllocationReport sample() {
+    hotspot.reset();
+    long nowNanos = System.nanoTime();
+    long timestampMillis = System.currentTimeMillis();
+    long intervalNanos = previousNanos != 0 ? nowNanos - previousNanos : 0;
+    int heapWordSize = hotspot.getConstants().getHeapWordSize();
+
+    Long2LongOpenHashMap allocatedBytes = new Long2LongOpenHashMap();
+    List<AllocationReport.ThreadAllocation> threads = new ArrayList<>();
+    HotspotStructs structs = hotspot.getStructs();
+    JavaThread thread = structs.staticStruct(JavaThread.class);
+    ThreadLocalAllocBuffer tlab = structs.staticStruct(ThreadLocalAllocBuffer.class);
+    for (structs.staticStruct(Threads.class)._thread_list(thread);
+         thread.getAddress() != 0;
+         thread._next(thread)) {
+      long threadObj = thread._threadObj();
+      if (threadObj == 0) {
+        continue; // still starting up
+      }
+
+      // See Thread::cooked_allocated_bytes. The bytes in the current TLAB are only added when it's retired.
+      thread._tlab(tlab);
+      long allocated = thread._allocated_bytes();
+      if (tlab._start() != 0 && tlab._top() != 0) {
+        allocated += tlab._top() - tlab._start();
+      }
+
+      long threadId = hotspot.getAddressSpace().getLong(threadObj + threadIdOffset(threadObj));
+      double bytesPerSecond = 0;
+      if (intervalNanos > 0 && previousAllocatedBytes.containsKey(threadId)) {
+        long delta = Math.max(0, allocated - previousAllocatedBytes.get(threadId));
+        bytesPerSecond = delta * 1e9 / intervalNanos;
+      }
+      allocatedBytes.put(threadId, allocated);
+
+      long tlabWasteWords = Integer.toUnsignedLong(tlab._gc_waste())
+          + Integer.toUnsignedLong(tlab._slow_refill_waste())
+          + Integer.toUnsignedLong(tlab._fast_refill_waste());
+      threads.add(new AllocationReport.ThreadAllocation(threadId, readThreadName(threadObj), allocated,
+          bytesPerSecond, tlab._number_of_refills(), tlabWasteWords * heapWordSize, tlab._slow_allocations()));
+    }
+    threads.sort(Comparator.comparing(AllocationReport.ThreadAllocation::getBytesPerSecond).reversed());
+
+    previousAllocatedBytes = allocatedBytes;
+    previousNanos = nowNanos;
+    AllocationReport report = new AllocationReport(timestampMillis, intervalNanos, threads);
+    latest = report;
+    return report;
+  }
+
+  private int threadIdOffset(long threadObj) {
+    if (threadIdOffset < 0) {
+      threadIdOffset = findField(threadObj, "tid");
+    }
+    return threadIdOffset;
+  }
+
+  /**
+   * Read java.lang.Thread.name, which is a String
+   */
+  private String readThreadName(long threadObj) {
+    if (threadNameOffset < 0) {
+      threadNameOffset = findField(threadObj, "name");
+    }
+    long name = hotspot.getOopAt(threadObj + threadNameOffset);
+    if (name == 0) {
+      return null;
+    }
+    if (stringValueOffset < 0) {
+      stringValueOffset = findField(name, "value");
+    }
+
+    // In JDK 8, the value of a String is a char[]
+    long value = hotspot.getOopAt(name + stringValueOffset);
+    int length = hotspot.getAddressSpace().getInt(value + hotspot.arrayLengthOffset());
+    int headerSize = hotspot.getKlassTable().get(hotspot.getKlassAddress(value)).getArrayHeaderSize();
+    byte[] chars = new byte[length * 2];
+    for (int i = 0; i < length; i++) {
+      char c = hotspot.getAddressSpace().getChar(value + headerSize + 2L * i);
+      chars[2 * i] = (byte) (c >> 8);
+      chars[2 * i + 1] = (byte) c;
+    }
+    return new String(chars, StandardCharsets.UTF_16BE);
+  }
+
+  private int findField(long oop, String name) {
+    int offset = fieldLayout.findInstanceField(hotspot.getKlassAddress(oop), name);
+    if (offset < 0) {
+      throw new IllegalStateException("Could not find field " + name + " in "
+          + hotspot.getKlassTable().get(hotspot.getKlassAddress(oop)).getName());
+    }
+    return offset;
+  }
+
+  public static void write(PrintWriter out, AllocationReport report) {
+    out.println();
+    out.printf("Total:      %.0f bytes/s%n", report.getTotalBytesPerSecond());
+    out.println("TLAB waste: " + report.getTotalTlabWasteBytes() + " bytes since the last GC");
+    out.println();
+    out.println("     Bytes/s |  Total allocated | Refills | TLAB waste | Slow allocs | Thread");
+    out.println("--------------------------------------------------------------------------------------");
+    for (AllocationReport.ThreadAllocation thread : report.getThreads()) {
+      out.printf("%12.0f | %16d | %7d | %10d | %11d | %s%n", thread.getBytesPerSecond(), thread.getAllocatedBytes(),
+          thread.getTlabRefills(), thread.getTlabWasteBytes(), thread.getSlowAllocations(), thread.getThreadName());
+    }
+    out.flush();
+  }
+
+  public static void main(String args[]) throws IOException, InterruptedException {
+    @SuppressWarnings("UseOfSystemOutOrSystemErr")
+    PrintWriter out = new PrintWriter(System.out);
+
+    Inferior inferior = new SelfInferior();
+    AllocationMonitor monitor = new AllocationMonitor(new Hotspot(inferior), 1, TimeUnit.SECONDS);
+    monitor.sample();
+    java.lang.Thread.sleep(1000);
+    write(out, monitor.sample());
+    inferior.detach();
+  }
+}
@@ -0,0 +1,124 @@
+package com.addepar.heapdump.inspect;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * How much each Java thread allocated between two samples of an <code>AllocationMonitor</code>. Instances are
+ * immutable, so they can be handed to other threads.
+ */
+public final class AllocationReport {
+  private final long timestampMillis;
+  private final long intervalNanos;
+  private final List<ThreadAllocation> threads;
+
+  public AllocationReport(long timestampMillis, long intervalNanos, List<ThreadAllocation> threads) {
+    this.timestampMillis = timestampMillis;
+    this.intervalNanos = intervalNanos;
+    this.threads = Collections.unmodifiableList(threads);
+  }
+
+  /**
+   * The wall clock time of the sample
+   */
+  public long getTimestampMillis() {
+    return timestampMillis;
+  }
+
+  /**
+   * The time since the previous sample, or 0 if this is the first one, in which case there are no rates yet
+   */
+  public long getIntervalNanos() {
+    return intervalNanos;
+  }
+
+  /**
+   * Every live Java thread, sorted by descending allocation rate
+   */
+  public List<ThreadAllocation> getThreads() {
+    return threads;
+  }
+
+  public double getTotalBytesPerSecond() {
+    double total = 0;
+    for (ThreadAllocation thread : threads) {
+      total += thread.getBytesPerSecond();
+    }
+    return total;
+  }
+
+  public long getTotalTlabWasteBytes() {
+    long total = 0;
+    for (ThreadAllocation thread : threads) {
+      total += thread.getTlabWasteBytes();
+    }
+    return total;
+  }
+
+  public static final class ThreadAllocation {
+    private final long threadId;
+    private final String threadName;
+    private final long allocatedBytes;
+    private final double bytesPerSecond;
+    private final int tlabRefills;
+    private final long tlabWasteBytes;
+    private final int slowAllocations;
+
+    public ThreadAllocation(long threadId, String threadName, long allocatedBytes, double bytesPerSecond,
+                            int tlabRefills, long tlabWasteBytes, int slowAllocations) {
+      this.threadId = threadId;
+      this.threadName = threadName;
+      this.allocatedBytes = allocatedBytes;
+      this.bytesPerSecond = bytesPerSecond;
+      this.tlabRefills = tlabRefills;
+      this.tlabWasteBytes = tlabWasteBytes;
+      this.slowAllocations = slowAllocations;
+    }
+
+    /**
+     * The id of the java.lang.Thread, as in <code>Thread.getId()</code> and ThreadMXBean
+     */
+    public long getThreadId() {
+      return threadId;
+    }
+
+    public String getThreadName() {
+      return threadName;
+    }
+
+    /**
+     * Everything the thread has allocated since it started
+     */
+    public long getAllocatedBytes() {
+      return allocatedBytes;
+    }
+
+    /**
+     * The allocation rate since the previous sample. 0 for threads that weren't in the previous sample.
+     */
+    public double getBytesPerSecond() {
+      return bytesPerSecond;
+    }
+
+    /**
+     * The number of new TLABs since the last GC
+     */
+    public int getTlabRefills() {
+      return tlabRefills;
+    }
+
+    /**
+     * Space that was left unused in retired TLABs since the last GC
+     */
+    public long getTlabWasteBytes() {
+      return tlabWasteBytes;
+    }
+
+    /**
+     * Allocations outside the TLAB since the last GC
+     */
+    public int getSlowAllocations() {
+      return slowAllocations;
+    }
+  }
+}
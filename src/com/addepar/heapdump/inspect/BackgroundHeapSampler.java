@@ -0,0 +1,185 @@
+package com.addepar.heapdump.inspect;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs a bounded-cost statistical sampling pass on a daemon thread at a fixed interval, and keeps a ring buffer of the
+ * most recent results. Each result can also be appended to a log file, which is rolled over when it gets too big.
+ *
+ * The sampler takes ownership of the given <code>Hotspot</code>, which must not be used by anything else while the
+ * sampler is running.
+ */
+public class BackgroundHeapSampler implements Closeable {
+  private static final int DEFAULT_SAMPLES_PER_RUN = 2000;
+  private static final long DEFAULT_MAX_MILLIS_PER_RUN = 1000;
+
+  private final StatisticalHeapInspector inspector;
+  private final long period;
+  private final TimeUnit unit;
+  private final int samplesPerRun;
+  private final long maxMillisPerRun;
+  private final int historySize;
+  private final ArrayDeque<HeapHistogram> history;
+  private final ScheduledExecutorService executor;
+
+  private Path logFile;
+  private long maxLogFileBytes;
+  private boolean incremental;
+  private volatile long failedRuns;
+  private volatile long failedLogWrites;
+
+  public BackgroundHeapSampler(Hotspot hotspot, long period, TimeUnit unit, int historySize) {
+    this(hotspot, period, unit, historySize, DEFAULT_SAMPLES_PER_RUN, DEFAULT_MAX_MILLIS_PER_RUN);
+  }
+
+  public BackgroundHeapSampler(Hotspot hotspot, long period, TimeUnit unit, int historySize, int samplesPerRun,
+                               long maxMillisPerRun) {
+    this.inspector = new StatisticalHeapInspector(hotspot);
+    this.period = period;
+    this.unit = unit;
+    this.historySize = historySize;
+    this.samplesPerRun = samplesPerRun;
+    this.maxMillisPerRun = maxMillisPerRun;
+    this.history = new ArrayDeque<>(historySize);
+    this.executor = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryBuilder().setNameFormat("heap-sampler-%d").setDaemon(true).build());
+  }
+
+  /**
+   * Append every result to the given file, one line per class. When the file grows past <code>maxBytes</code> it is
+   * renamed with a ".1" suffix (replacing any older one) and a new file is started. Must be called before
+   * <code>start</code>.
+   */
+  public void setLogFile(Path logFile, long maxBytes) {
+    this.logFile = logFile;
+    this.maxLogFileBytes = maxBytes;
+  }
+
+  /**
+   * Reuse the samples from parts of the heap that haven't changed since the previous pass, see
+   * <code>StatisticalHeapInspector.runIncremental</code>. Must be called before <code>start</code>.
+   */
+  public void setIncremental(boolean incremental) {
+    this.incremental = incremental;
+  }
+
+  public void start() {
+    executor.scheduleWithFixedDelay(this::runOnce, 0, period, unit);
+  }
+
+  @Override
+  public void close() {
+    executor.shutdownNow();
+  }
+
+  /**
+   * The most recent result, or null if no pass has completed yet
+   */
+  public synchronized HeapHistogram getLatest() {
+    return history.peekLast();
+  }
+
+  /**
+   * All the results in the ring buffer, oldest first
+   */
+  public synchronized List<HeapHistogram> getHistory() {
+    return new ArrayList<>(history);
+  }
+
+  /**
+   * The estimated total size of the named class in each result in the ring buffer, oldest first. Passes that didn't
+   * hit the class at all report 0.
+   */
+  public synchronized double[] getEstimatedSizeHistory(String klassName) {
+    double[] result = new double[history.size()];
+    int i = 0;
+    for (HeapHistogram histogram : history) {
+      for (HeapHistogram.ClassEstimate estimate : histogram.getClasses()) {
+        if (estimate.getKlassName().equals(klassName)) {
+          result[i] = estimate.getEstimatedSize();
+          break;
+        }
+      }
+      i++;
+    }
+    return result;
+  }
+
+  /**
+   * The number of passes that threw, e.g. because the heap changed shape underneath us
+   */
+  public long getFailedRuns() {
+    return failedRuns;
+  }
+
+  /**
+   * The number of results that couldn't be appended to the log file
+   */
+  public long getFailedLogWrites() {
+    return failedLogWrites;
+  }
+
+  private void runOnce() {
+    HeapHistogram histogram;
+    try {
+      histogram = incremental
+          ? inspector.runIncremental(samplesPerRun, maxMillisPerRun)
+          : inspector.run(samplesPerRun, maxMillisPerRun);
+    } catch (Throwable e) {
+      // Keep going; the next pass will most likely succeed. If this escaped, the executor would silently cancel all
+      // the later passes.
+      failedRuns++;
+      return;
+    }
+
+    synchronized (this) {
+      if (history.size() == historySize) {
+        history.removeFirst();
+      }
+      history.addLast(histogram);
+    }
+
+    if (logFile != null) {
+      try {
+        appendToLog(histogram);
+      } catch (Throwable e) {
+        failedLogWrites++;
+      }
+    }
+  }
+
+  private void appendToLog(HeapHistogram histogram) throws IOException {
+    if (Files.exists(logFile) && Files.size(logFile) > maxLogFileBytes) {
+      Path rolled = Paths.get(logFile.toString() + ".1");
+      Files.move(logFile, rolled, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    try (Writer writer = Files.newBufferedWriter(logFile, StandardCharsets.UTF_8,
+        StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+         PrintWriter out = new PrintWriter(writer)) {
+      // timestamp, live heap, hits, gc runs, class hits, estimated size, estimated number, class
+      for (HeapHistogram.ClassEstimate estimate : histogram.getClasses()) {
+        out.format("%d\t%d\t%d\t%d\t%d\t%.0f\t%.0f\t%s\n", histogram.getTimestampMillis(),
+            histogram.getLiveHeapSize(), histogram.getTotalHits(), histogram.getGcRuns(), estimate.getHits(),
+            estimate.getEstimatedSize(), estimate.getEstimatedNumber(), estimate.getKlassName());
+      }
+    }
+  }
+}
@@ -0,0 +1,132 @@
+package com.addepar.heapdump.inspect;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The result of a full walk over the heap: exact instance counts and sizes for every class, like jmap -histo.
+ * Instances are immutable.
+ */
+public final class ClassHistogram {
+  private final long timestampMillis;
+  private final long liveHeapSize;
+  private final long unparsableBytes;
+  private final int chunks;
+  private final int rewalkedChunks;
+  private final long runtimeMillis;
+  private final long gcRuns;
+  private final List<Entry> entries;
+
+  public ClassHistogram(long timestampMillis, long liveHeapSize, long unparsableBytes, int chunks, int rewalkedChunks,
+                        long runtimeMillis, long gcRuns, List<Entry> entries) {
+    this.timestampMillis = timestampMillis;
+    this.liveHeapSize = liveHeapSize;
+    this.unparsableBytes = unparsableBytes;
+    this.chunks = chunks;
+    this.rewalkedChunks = rewalkedChunks;
+    this.runtimeMillis = runtimeMillis;
+    this.gcRuns = gcRuns;
+    this.entries = Collections.unmodifiableList(entries);
+  }
+
+  /**
+   * The wall clock time at which the walk started
+   */
+  public long getTimestampMillis() {
+    return timestampMillis;
+  }
+
+  public long getLiveHeapSize() {
+    return liveHeapSize;
+  }
+
+  /**
+   * Bytes of the live heap that could not be parsed into objects, e.g. because an object was being allocated while we
+   * read it. Anything other than a small number means that the counts are incomplete.
+   */
+  public long getUnparsableBytes() {
+    return unparsableBytes;
+  }
+
+  /**
+   * The number of pieces the live heap was split into for walking in parallel
+   */
+  public int getChunks() {
+    return chunks;
+  }
+
+  /**
+   * The number of chunks whose first object was guessed wrong, and had to be walked again
+   */
+  public int getRewalkedChunks() {
+    return rewalkedChunks;
+  }
+
+  public long getRuntimeMillis() {
+    return runtimeMillis;
+  }
+
+  /**
+   * The number of garbage collections that happened while walking. Anything other than 0 means that the numbers are
+   * suspect.
+   */
+  public long getGcRuns() {
+    return gcRuns;
+  }
+
+  /**
+   * Every class with at least one instance, sorted by descending total size
+   */
+  public List<Entry> getEntries() {
+    return entries;
+  }
+
+  public long getTotalInstances() {
+    long total = 0;
+    for (Entry entry : entries) {
+      total += entry.getInstances();
+    }
+    return total;
+  }
+
+  public long getTotalBytes() {
+    long total = 0;
+    for (Entry entry : entries) {
+      total += entry.getBytes();
+    }
+    return total;
+  }
+
+  public static final class Entry {
+    private final long klassAddress;
+    private final String klassName;
+    private final long instances;
+    private final long bytes;
+
+    public Entry(long klassAddress, String klassName, long instances, long bytes) {
+      this.klassAddress = klassAddress;
+      this.klassName = klassName;
+      this.instances = instances;
+      this.bytes = bytes;
+    }
+
+    /**
+     * The address of the Klass. This is only meaningful until the class is unloaded.
+     */
+    public long getKlassAddress() {
+      return klassAddress;
+    }
+
+    public String getKlassName() {
+      return klassName;
+    }
+
+    public long getInstances() {
+      return instances;
+    }
+
+    public long getBytes() {
+      return bytes;
+    }
+  }
+}
@@ -0,0 +1,366 @@
+package com.addepar.heapdump.inspect;
+
+import com.addepar.heapdump.inspect.inferior.CoreFileInferior;
+import com.addepar.heapdump.inspect.inferior.Inferior;
+import com.addepar.heapdump.inspect.inferior.SelfInferior;
+import com.addepar.heapdump.inspect.struct.ArrayKlass;
+import com.addepar.heapdump.inspect.struct.ClassLoaderData;
+import com.addepar.heapdump.inspect.struct.ClassLoaderDataGraph;
+import com.addepar.heapdump.inspect.struct.ConstMethod;
+import com.addepar.heapdump.inspect.struct.ConstantPool;
+import com.addepar.heapdump.inspect.struct.ConstantPoolCache;
+import com.addepar.heapdump.inspect.struct.InstanceKlass;
+import com.addepar.heapdump.inspect.struct.Klass;
+import com.addepar.heapdump.inspect.struct.Method;
+import com.addepar.heapdump.inspect.struct.MethodData;
+import com.addepar.heapdump.inspect.struct.ObjArrayKlass;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Counts the classes of each class loader, and estimates how much metaspace they use, without a heap dump. A loader
+ * whose count keeps growing, or that's still there after the application should have dropped it, is a leak.
+ *
+ * JDK 8 doesn't export the list of classes in each ClassLoaderData, so the classes are found through the class
+ * hierarchy instead: every instance class is a subclass of java.lang.Object, and every array class is reachable from
+ * its element class. Each class is then credited to the loader of its ClassLoaderData. The classes are sized in
+ * parallel, each thread using its own fork of the <code>Hotspot</code>.
+ */
+public final class ClassLoaderInspector {
+  private static final int KLASSES_PER_TASK = 256;
+
+  /**
+   * How many times to walk the ClassLoaderData list before giving up on getting one that no collection ran during
+   */
+  private static final int MAX_ATTEMPTS = 5;
+
+  private final Hotspot hotspot;
+  private final int threads;
+
+  public ClassLoaderInspector(Hotspot hotspot) {
+    this(hotspot, Runtime.getRuntime().availableProcessors());
+  }
+
+  public ClassLoaderInspector(Hotspot hotspot, int threads) {
+    this.hotspot = hotspot;
+    this.threads = threads;
+  }
+
+  public ClassLoaderReport run() {
+    long startTime = System.currentTimeMillis();
+
+    hotspot.reset();
+    HotspotHeap heap = hotspot.getHeap();
+    Loaders loaders;
+    for (int attempt = 1; ; attempt++) {
+      long epoch = heap.readGcEpoch();
+      loaders = walkClassLoaderData();
+      if ((epoch != HotspotHeap.GC_IN_PROGRESS && heap.readGcEpoch() == epoch) || attempt == MAX_ATTEMPTS) {
+        break;
+      }
+      hotspot.reset();
+    }
+
+    long[] klasses = loaders.someLoaderKlass != 0 ? collectKlasses(loaders.someLoaderKlass) : new long[0];
+    KlassFootprint[] footprints = measureInParallel(klasses);
+
+    int[] instanceClasses = new int[loaders.size()];
+    int[] arrayClasses = new int[loaders.size()];
+    long[] metaspaceBytes = new long[loaders.size()];
+    for (KlassFootprint footprint : footprints) {
+      // A class whose ClassLoaderData was created after the walk is left out, since its loader can't be read safely
+      int row = loaders.rowOfClassLoaderData.get(footprint.classLoaderData);
+      if (row < 0) {
+        continue;
+      }
+      if (footprint.isArray) {
+        arrayClasses[row]++;
+      } else {
+        instanceClasses[row]++;
+      }
+      metaspaceBytes[row] += footprint.bytes;
+    }
+
+    List<ClassLoaderReport.Loader> rows = new ArrayList<>();
+    for (int row = 0; row < loaders.size(); row++) {
+      rows.add(new ClassLoaderReport.Loader(loaders.addresses.getLong(row), loaders.classNames.get(row),
+          loaders.classLoaderDataCounts.getInt(row), instanceClasses[row], arrayClasses[row], metaspaceBytes[row]));
+    }
+    rows.sort(Comparator.comparing(ClassLoaderReport.Loader::getMetaspaceBytes).reversed());
+
+    return new ClassLoaderReport(startTime, rows, System.currentTimeMillis() - startTime);
+  }
+
+  /**
+   * Group every ClassLoaderData by the java.lang.ClassLoader that it belongs to. The loaders are objects that a
+   * collection can move, so this is the only place that reads them, and the caller checks that no collection ran
+   * during it. Everything later refers to the ClassLoaderData, which stays put.
+   */
+  private Loaders walkClassLoaderData() {
+    HotspotStructs structs = hotspot.getStructs();
+    Loaders loaders = new Loaders();
+    Long2IntOpenHashMap rowOfLoader = new Long2IntOpenHashMap();
+    rowOfLoader.defaultReturnValue(-1);
+    for (ClassLoaderData classLoaderData = structs.staticStruct(ClassLoaderDataGraph.class)._head();
+         classLoaderData.getAddress() != 0;
+         classLoaderData._next(classLoaderData)) {
+      long loader = classLoaderData._class_loader();
+      int row = rowOfLoader.get(loader);
+      if (row < 0) {
+        row = loaders.size();
+        rowOfLoader.put(loader, row);
+        loaders.addresses.add(loader);
+        loaders.classLoaderDataCounts.add(0);
+        if (loader != 0) {
+          Klass loaderKlass = structs.structAt(hotspot.getKlassAddress(loader), Klass.class);
+          loaders.someLoaderKlass = loaderKlass.getAddress();
+          loaders.classNames.add(loaderKlass.getName(hotspot).replace('/', '.'));
+        } else {
+          loaders.classNames.add(null);
+        }
+      }
+      loaders.rowOfClassLoaderData.put(classLoaderData.getAddress(), row);
+      loaders.classLoaderDataCounts.set(row, loaders.classLoaderDataCounts.getInt(row) + 1);
+    }
+    // Primitive array classes don't have a ClassLoaderData, and belong to the boot loader
+    loaders.rowOfClassLoaderData.put(0, rowOfLoader.get(0));
+    return loaders;
+  }
+
+  /**
+   * Find every class, by walking the subclasses of java.lang.Object, and then the array classes of each class. Only the
+   * primitive arrays and Object[] are in the subclass lists. java.lang.Object is found from the superclasses of any
+   * class, here that of a class loader.
+   */
+  private long[] collectKlasses(long someKlass) {
+    Klass root = hotspot.getStructs().structAt(someKlass, Klass.class);
+    while (root._super().getAddress() != 0) {
+      root = root._super();
+    }
+
+    LongOpenHashSet seen = new LongOpenHashSet();
+    LongArrayList klasses = new LongArrayList();
+    LongArrayList pending = new LongArrayList();
+    pending.add(root.getAddress());
+    while (!pending.isEmpty()) {
+      long address = pending.popLong();
+      if (!seen.add(address)) {
+        continue;
+      }
+      klasses.add(address);
+
+      Klass klass = hotspot.getStructs().structAt(address, Klass.class);
+      for (Klass subklass = klass._subklass(); subklass.getAddress() != 0; subklass = subklass._next_sibling()) {
+        pending.add(subklass.getAddress());
+      }
+      Klass arrayKlass;
+      if (klass.isInstanceOf(InstanceKlass.class)) {
+        arrayKlass = klass.dynamicCast(InstanceKlass.class)._array_klasses();
+      } else {
+        arrayKlass = klass.dynamicCast(ArrayKlass.class)._higher_dimension();
+      }
+      if (arrayKlass.getAddress() != 0) {
+        pending.add(arrayKlass.getAddress());
+      }
+    }
+    return klasses.toLongArray();
+  }
+
+  private KlassFootprint[] measureInParallel(long[] klasses) {
+    KlassFootprint[] footprints = new KlassFootprint[klasses.length];
+    AtomicInteger nextTask = new AtomicInteger();
+    ExecutorService executor = Executors.newFixedThreadPool(threads,
+        new ThreadFactoryBuilder().setNameFormat("class-loader-inspector-%d").setDaemon(true).build());
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (int i = 0; i < threads; i++) {
+        Worker worker = new Worker(hotspot.fork());
+        futures.add(executor.submit(() -> {
+          for (int start = nextTask.getAndIncrement() * KLASSES_PER_TASK; start < klasses.length;
+               start = nextTask.getAndIncrement() * KLASSES_PER_TASK) {
+            for (int index = start; index < Math.min(start + KLASSES_PER_TASK, klasses.length); index++) {
+              footprints[index] = worker.measure(klasses[index]);
+            }
+          }
+        }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    } catch (ExecutionException e) {
+      throw new RuntimeException(e.getCause());
+    } finally {
+      executor.shutdownNow();
+    }
+    return footprints;
+  }
+
+  public static void write(PrintWriter out, ClassLoaderReport report) {
+    out.println();
+    out.println("Classes:   " + report.getTotalClasses());
+    out.println("Metaspace: " + report.getTotalMetaspaceBytes() + " bytes (approximate)");
+    out.println("Runtime:   " + report.getRuntimeMillis() + " ms");
+    out.println();
+    out.println("   Classes |  Arrays |  CLDs | Metaspace bytes |             Loader | Loader class");
+    out.println("--------------------------------------------------------------------------------------");
+    for (ClassLoaderReport.Loader loader : report.getLoaders()) {
+      out.printf("%10d | %7d | %5d | %15d | %18s | %s%n", loader.getInstanceClasses(), loader.getArrayClasses(),
+          loader.getClassLoaderDataCount(), loader.getMetaspaceBytes(),
+          "0x" + Long.toHexString(loader.getLoaderAddress()),
+          loader.getLoaderClassName() != null ? loader.getLoaderClassName() : "<bootstrap>");
+    }
+    out.flush();
+  }
+
+  public static void main(String[] args) throws IOException {
+    @SuppressWarnings("UseOfSystemOutOrSystemErr")
+    PrintWriter out = new PrintWriter(System.out);
+
+    Inferior inferior = args.length == 1 ? new CoreFileInferior(Paths.get(args[0])) : new SelfInferior();
+    write(out, new ClassLoaderInspector(new Hotspot(inferior)).run());
+    inferior.detach();
+  }
+
+  /**
+   * The rows of the report, one per java.lang.ClassLoader, and which row each ClassLoaderData belongs to
+   */
+  private static final class Loaders {
+    final LongArrayList addresses = new LongArrayList();
+    final List<String> classNames = new ArrayList<>();
+    final IntArrayList classLoaderDataCounts = new IntArrayList();
+    final Long2IntOpenHashMap rowOfClassLoaderData = new Long2IntOpenHashMap();
+    /** The Klass of any of the loaders, or 0 if there are only boot loader classes */
+    long someLoaderKlass;
+
+    Loaders() {
+      rowOfClassLoaderData.defaultReturnValue(-1);
+    }
+
+    int size() {
+      return addresses.size();
+    }
+  }
+
+  /**
+   * The ClassLoaderData of a class (0 for primitive arrays), and the size of its metadata
+   */
+  private static final class KlassFootprint {
+    final long classLoaderData;
+    final boolean isArray;
+    final long bytes;
+
+    KlassFootprint(long classLoaderData, boolean isArray, long bytes) {
+      this.classLoaderData = classLoaderData;
+      this.isArray = isArray;
+      this.bytes = bytes;
+    }
+  }
+
+  /**
+   * Measures classes using a single <code>Hotspot</code>, reusing its flyweights from one method to the next. Not
+   * thread safe.
+   */
+  private static final class Worker {
+    private final Hotspot hotspot;
+    private final HotspotStructs structs;
+    private final Method method;
+    private final int wordSize;
+    private final long arrayLengthOffset;
+    private final long methodArrayDataOffset;
+    private final long byteArrayDataOffset;
+    private final long constantPoolSize;
+    private final long constantPoolCacheSize;
+    private final long constantPoolCacheEntrySize;
+
+    Worker(Hotspot hotspot) {
+      this.hotspot = hotspot;
+      this.structs = hotspot.getStructs();
+      this.method = structs.staticStruct(Method.class);
+      this.wordSize = hotspot.getAddressSpace().getPointerSize();
+      this.arrayLengthOffset = structs.offsetOf("Array<int>", "_length", "int");
+      this.methodArrayDataOffset = structs.offsetOf("Array<Method*>", "_data");
+      this.byteArrayDataOffset = structs.offsetOf("Array<u1>", "_data");
+      this.constantPoolSize = hotspot.getTypes().getType("ConstantPool").getSize();
+      this.constantPoolCacheSize = hotspot.getTypes().getType("ConstantPoolCache").getSize();
+      this.constantPoolCacheEntrySize = hotspot.getTypes().getType("ConstantPoolCacheEntry").getSize();
+    }
+
+    KlassFootprint measure(long address) {
+      Klass klass = structs.structAt(address, Klass.class);
+      if (klass.isInstanceOf(InstanceKlass.class)) {
+        InstanceKlass instanceKlass = klass.dynamicCast(InstanceKlass.class);
+        long bytes = instanceKlass.startOfNonstaticOopMaps(hotspot) - address
+            + (long) instanceKlass._nonstatic_oop_map_size() * wordSize
+            + methodBytes(instanceKlass._methods())
+            + constantPoolBytes(structs.structAt(instanceKlass._constants(), ConstantPool.class));
+        return new KlassFootprint(instanceKlass._class_loader_data().getAddress(), false, bytes);
+      }
+
+      // An array class belongs to the loader of its element class, and primitive arrays to the boot loader
+      ArrayKlass arrayKlass = klass.dynamicCast(ArrayKlass.class);
+      long bytes = structs.getDynamicType(arrayKlass).getSize() + (long) arrayKlass._vtable_len() * wordSize;
+      long classLoaderData = 0;
+      if (arrayKlass.isInstanceOf(ObjArrayKlass.class)) {
+        Klass bottomKlass = arrayKlass.dynamicCast(ObjArrayKlass.class)._bottom_klass();
+        if (bottomKlass.isInstanceOf(InstanceKlass.class)) {
+          classLoaderData = bottomKlass.dynamicCast(InstanceKlass.class)._class_loader_data().getAddress();
+        }
+      }
+      return new KlassFootprint(classLoaderData, true, bytes);
+    }
+
+    /**
+     * The Array&lt;Method*&gt;, and each Method with its ConstMethod and MethodData. Classes without methods share an
+     * empty array, which isn't counted.
+     */
+    private long methodBytes(long methods) {
+      int length = hotspot.getAddressSpace().getInt(methods + arrayLengthOffset);
+      if (length == 0) {
+        return 0;
+      }
+      long bytes = methodArrayDataOffset + (long) length * wordSize;
+      for (int i = 0; i < length; i++) {
+        method.setAddress(hotspot.getAddressSpace().getPointer(methods + methodArrayDataOffset + (long) i * wordSize));
+        bytes += (Short.toUnsignedLong(method._method_size()) + method._constMethod()._constMethod_size()) * wordSize;
+        long methodData = method._method_data();
+        if (methodData != 0) {
+          bytes += structs.structAt(methodData, MethodData.class)._size();
+        }
+      }
+      return bytes;
+    }
+
+    /**
+     * The ConstantPool with its entries, its Array&lt;u1&gt; of tags, and its ConstantPoolCache
+     */
+    private long constantPoolBytes(ConstantPool constantPool) {
+      long bytes = constantPoolSize + (long) constantPool._length() * wordSize;
+      if (constantPool._tags() != 0) {
+        bytes += hotspot.alignUp(byteArrayDataOffset + constantPool._length(), wordSize);
+      }
+      ConstantPoolCache cache = constantPool._cache();
+      if (cache.getAddress() != 0) {
+        bytes += constantPoolCacheSize + cache._length() * constantPoolCacheEntrySize;
+      }
+      return bytes;
+    }
+  }
+}
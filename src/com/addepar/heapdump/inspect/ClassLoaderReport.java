@@ -0,0 +1,115 @@
+package com.addepar.heapdump.inspect;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * How many classes each class loader has loaded, and roughly how much metaspace they take up. Instances are immutable,
+ * so they can be handed to other threads.
+ */
+public final class ClassLoaderReport {
+  private final long timestampMillis;
+  private final List<Loader> loaders;
+  private final long runtimeMillis;
+
+  public ClassLoaderReport(long timestampMillis, List<Loader> loaders, long runtimeMillis) {
+    this.timestampMillis = timestampMillis;
+    this.loaders = Collections.unmodifiableList(loaders);
+    this.runtimeMillis = runtimeMillis;
+  }
+
+  /**
+   * The wall clock time at which the walk started
+   */
+  public long getTimestampMillis() {
+    return timestampMillis;
+  }
+
+  /**
+   * Every class loader that has a ClassLoaderData, sorted by descending metaspace size
+   */
+  public List<Loader> getLoaders() {
+    return loaders;
+  }
+
+  public long getRuntimeMillis() {
+    return runtimeMillis;
+  }
+
+  public long getTotalClasses() {
+    long total = 0;
+    for (Loader loader : loaders) {
+      total += loader.getInstanceClasses() + loader.getArrayClasses();
+    }
+    return total;
+  }
+
+  public long getTotalMetaspaceBytes() {
+    long total = 0;
+    for (Loader loader : loaders) {
+      total += loader.getMetaspaceBytes();
+    }
+    return total;
+  }
+
+  public static final class Loader {
+    private final long loaderAddress;
+    private final String loaderClassName;
+    private final int classLoaderDataCount;
+    private final int instanceClasses;
+    private final int arrayClasses;
+    private final long metaspaceBytes;
+
+    public Loader(long loaderAddress, String loaderClassName, int classLoaderDataCount, int instanceClasses,
+                  int arrayClasses, long metaspaceBytes) {
+      this.loaderAddress = loaderAddress;
+      this.loaderClassName = loaderClassName;
+      this.classLoaderDataCount = classLoaderDataCount;
+      this.instanceClasses = instanceClasses;
+      this.arrayClasses = arrayClasses;
+      this.metaspaceBytes = metaspaceBytes;
+    }
+
+    /**
+     * The address of the java.lang.ClassLoader at the time of the walk, or 0 for the boot loader
+     */
+    public long getLoaderAddress() {
+      return loaderAddress;
+    }
+
+    /**
+     * The class of the java.lang.ClassLoader, or null for the boot loader
+     */
+    public String getLoaderClassName() {
+      return loaderClassName;
+    }
+
+    /**
+     * The number of ClassLoaderData for this loader. There's one for the loader itself, and one for each anonymous
+     * class (such as a lambda form) that it hosts.
+     */
+    public int getClassLoaderDataCount() {
+      return classLoaderDataCount;
+    }
+
+    public int getInstanceClasses() {
+      return instanceClasses;
+    }
+
+    /**
+     * Array classes whose element type (once all the dimensions are removed) was loaded by this loader
+     */
+    public int getArrayClasses() {
+      return arrayClasses;
+    }
+
+    /**
+     * The size of the metadata of the loader's classes: the Klass, methods, profiles and constant pool of each. This
+     * leaves out smaller metadata like annotations, and the unused ends of the loader's metaspace chunks, so the real
+     * footprint is somewhat bigger.
+     */
+    public long getMetaspaceBytes() {
+      return metaspaceBytes;
+    }
+  }
+}
@@ -0,0 +1,162 @@
+package com.addepar.heapdump.inspect;
+
+import com.addepar.heapdump.inspect.inferior.Inferior;
+import com.addepar.heapdump.inspect.inferior.SelfInferior;
+import it.unimi.dsi.fastutil.longs.Long2LongMap;
+import it.unimi.dsi.fastutil.longs.Long2LongOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectIterator;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Computes an exact class histogram by parsing every object in the live regions of the heap, like jmap -histo but
+ * without going through the serviceability agent. The heap is walked in parallel by a <code>HeapWalker</code>, with
+ * counts kept separately for each chunk and added up at the end.
+ *
+ * @author Geoff Lywood (geoff@addepar.com)
+ */
+public final class ExactHeapInspector {
+  private final Hotspot hotspot;
+  private final HeapWalker walker;
+
+  public ExactHeapInspector(Hotspot hotspot) {
+    this(hotspot, Runtime.getRuntime().availableProcessors());
+  }
+
+  public ExactHeapInspector(Hotspot hotspot, int threads) {
+    this.hotspot = hotspot;
+    this.walker = new HeapWalker(hotspot, HeapWalker.DEFAULT_CHUNK_SIZE, threads);
+  }
+
+  private long getGcRunCount() {
+    long gcRuns = 0;
+    for (GarbageCollectorMXBean gcBean : ManagementFactory.getGarbageCollectorMXBeans()) {
+      gcRuns += gcBean.getCollectionCount();
+    }
+    return gcRuns;
+  }
+
+  public ClassHistogram run() {
+    long startTime = System.currentTimeMillis();
+
+    hotspot.reset();
+    long startGcRuns = getGcRunCount();
+    HeapWalker.Result<ClassCounts> result = walker.walk((fork, chunk) -> new ClassCounts());
+    Long2LongOpenHashMap instances = new Long2LongOpenHashMap();
+    Long2LongOpenHashMap bytes = new Long2LongOpenHashMap();
+    for (HeapWalker.WalkedChunk<ClassCounts> chunk : result.getChunks()) {
+      merge(instances, chunk.getVisitor().instances);
+      merge(bytes, chunk.getVisitor().bytes);
+    }
+
+    long endTime = System.currentTimeMillis();
+    long endGcRuns = getGcRunCount();
+
+    return toHistogram(instances, bytes, startTime, result.getLiveHeapSize(), result.getUnparsableBytes(),
+        result.getChunkCount(), result.getRewalkedChunks(), endTime - startTime, endGcRuns - startGcRuns);
+  }
+
+  private static void merge(Long2LongOpenHashMap into, Long2LongOpenHashMap from) {
+    ObjectIterator<Long2LongMap.Entry> it = from.long2LongEntrySet().fastIterator();
+    while (it.hasNext()) {
+      Long2LongMap.Entry entry = it.next();
+      into.addTo(entry.getLongKey(), entry.getLongValue());
+    }
+  }
+
+  private ClassHistogram toHistogram(Long2LongOpenHashMap instances, Long2LongOpenHashMap bytes, long timestamp,
+                                     long totalHeapSize, long unparsableBytes, int chunks, int rewalkedChunks,
+                                     long millis, long gcRuns) {
+    KlassTable klassTable = hotspot.getKlassTable();
+    List<ClassHistogram.Entry> entries = new ArrayList<>();
+    ObjectIterator<Long2LongMap.Entry> it = instances.long2LongEntrySet().fastIterator();
+    while (it.hasNext()) {
+      Long2LongMap.Entry entry = it.next();
+      entries.add(new ClassHistogram.Entry(entry.getLongKey(), klassTable.get(entry.getLongKey()).getName(),
+          entry.getLongValue(), bytes.get(entry.getLongKey())));
+    }
+    Collections.sort(entries, Comparator.comparing(ClassHistogram.Entry::getBytes).reversed());
+    return new ClassHistogram(timestamp, totalHeapSize, unparsableBytes, chunks, rewalkedChunks, millis, gcRuns,
+        entries);
+  }
+
+  public static void write(PrintWriter out, ClassHistogram histogram) {
+    out.println();
+    out.println("Live heap:        " + histogram.getLiveHeapSize());
+    out.println("Unparsable bytes: " + histogram.getUnparsableBytes());
+    out.println("Chunks:           " + histogram.getChunks() + " (" + histogram.getRewalkedChunks() + " rewalked)");
+    out.println("Runtime:          " + histogram.getRuntimeMillis() + " ms");
+    out.println("GC Runs:          " + histogram.getGcRuns());
+    out.println();
+    out.println(" num     #instances         #bytes  class name");
+    out.println("----------------------------------------------");
+    int num = 1;
+    for (ClassHistogram.Entry entry : histogram.getEntries()) {
+      out.format("%4d: %14d %14d  %s\n", num++, entry.getInstances(), entry.getBytes(), entry.getKlassName());
+    }
+    out.format("Total %14d %14d\n", histogram.getTotalInstances(), histogram.getTotalBytes());
+    out.flush();
+  }
+
+  /**
+   * Show the exact share of the heap next to the statistical estimate, for every class that the estimate considers
+   * significant
+   */
+  public static void writeComparison(PrintWriter out, ClassHistogram exact, HeapHistogram estimate) {
+    Map<String, ClassHistogram.Entry> exactByName = new HashMap<>();
+    for (ClassHistogram.Entry entry : exact.getEntries()) {
+      exactByName.put(entry.getKlassName(), entry);
+    }
+
+    out.println();
+    out.println("Exact % of heap | Estimated % of heap | Estimated Size / Exact Size | Class");
+    out.println("--------------------------------------------------------------------------------------");
+    double totalBytes = (double) exact.getTotalBytes();
+    for (HeapHistogram.ClassEstimate classEstimate : estimate.getClasses()) {
+      if (classEstimate.getPercentOfHeap() < 1.0) {
+        break;
+      }
+      ClassHistogram.Entry entry = exactByName.get(classEstimate.getKlassName());
+      long exactBytes = entry != null ? entry.getBytes() : 0;
+      out.format("%14.1f%% | %18.1f%% | %27.2f | %s\n", exactBytes / totalBytes * 100.0,
+          classEstimate.getPercentOfHeap(), classEstimate.getEstimatedSize() / exactBytes,
+          classEstimate.getKlassName());
+    }
+    out.flush();
+  }
+
+  public static void main(String args[]) throws IOException {
+    @SuppressWarnings("UseOfSystemOutOrSystemErr")
+    PrintWriter out = new PrintWriter(System.out);
+
+    Inferior inferior = new SelfInferior();
+    Hotspot hotspot = new Hotspot(inferior);
+    ClassHistogram exact = new ExactHeapInspector(hotspot).run();
+    write(out, exact);
+    writeComparison(out, exact, new StatisticalHeapInspector(hotspot).run());
+    inferior.detach();
+  }
+
+  /**
+   * The instances and bytes of each class in one chunk
+   */
+  private static final class ClassCounts implements HeapWalker.ObjectVisitor {
+    final Long2LongOpenHashMap instances = new Long2LongOpenHashMap();
+    final Long2LongOpenHashMap bytes = new Long2LongOpenHashMap();
+
+    @Override
+    public void visit(long address, long klass, long size) {
+      instances.addTo(klass, 1);
+      bytes.addTo(klass, size);
+    }
+  }
+}
@@ -0,0 +1,110 @@
+package com.addepar.heapdump.inspect;
+
+import com.addepar.heapdump.inspect.struct.InstanceKlass;
+import com.addepar.heapdump.inspect.struct.Klass;
+import com.addepar.heapdump.inspect.struct.Symbol;
+
+/**
+ * Reads the fields that a class declares out of its InstanceKlass, i.e. its array of FieldInfo. See fieldInfo.hpp.
+ * Fields injected by the VM aren't included.
+ *
+ * This class is not thread safe.
+ */
+public class FieldLayout {
+  public static final int JVM_ACC_STATIC = 0x0008;
+
+  private final Hotspot hotspot;
+  private final AddressSpace space;
+  private final InstanceKlass instanceKlass;
+  private final Klass klass;
+  private final Symbol symbol;
+
+  private final long fieldsDataOffset;
+  private final long constantPoolSize;
+  private final int fieldSlots;
+  private final int fieldAccessFlagsOffset;
+  private final int fieldNameIndexOffset;
+  private final int fieldSignatureIndexOffset;
+  private final int fieldLowPackedOffset;
+  private final int fieldHighPackedOffset;
+  private final int fieldTagSize;
+  private final int fieldTagMask;
+  private final int fieldTagOffset;
+
+  public FieldLayout(Hotspot hotspot) {
+    this.hotspot = hotspot;
+    this.space = hotspot.getAddressSpace();
+    HotspotStructs structs = hotspot.getStructs();
+    this.instanceKlass = structs.staticStruct(InstanceKlass.class);
+    this.klass = structs.staticStruct(Klass.class);
+    this.symbol = structs.staticStruct(Symbol.class);
+
+    HotspotConstants constants = hotspot.getConstants();
+    this.fieldsDataOffset = structs.offsetOf("Array<u2>", "_data");
+    this.constantPoolSize = hotspot.getTypes().getType("ConstantPool").getSize();
+    this.fieldSlots = constants.getIntConstant("FieldInfo::field_slots");
+    this.fieldAccessFlagsOffset = constants.getIntConstant("FieldInfo::access_flags_offset");
+    this.fieldNameIndexOffset = constants.getIntConstant("FieldInfo::name_index_offset");
+    this.fieldSignatureIndexOffset = constants.getIntConstant("FieldInfo::signature_index_offset");
+    this.fieldLowPackedOffset = constants.getIntConstant("FieldInfo::low_packed_offset");
+    this.fieldHighPackedOffset = constants.getIntConstant("FieldInfo::high_packed_offset");
+    this.fieldTagSize = constants.getIntConstant("FIELDINFO_TAG_SIZE");
+    this.fieldTagMask = constants.getIntConstant("FIELDINFO_TAG_MASK");
+    this.fieldTagOffset = constants.getIntConstant("FIELDINFO_TAG_OFFSET");
+  }
+
+  public interface FieldVisitor {
+    /**
+     * @param name the address of the Symbol with the field's name
+     * @param signature the address of the Symbol with the field's type signature
+     * @param offset the offset of the field in an instance, or in the mirror for a static field
+     */
+    void visit(long name, long signature, int accessFlags, int offset);
+  }
+
+  /**
+   * Visit the fields declared by the class itself, not its superclasses, in declaration order. Does nothing if the
+   * fields haven't been laid out yet, in which case there can't be any instances either.
+   */
+  public void forEachField(long instanceKlassAddress, FieldVisitor visitor) {
+    instanceKlass.setAddress(instanceKlassAddress);
+    long fields = instanceKlass._fields() + fieldsDataOffset;
+    int count = Short.toUnsignedInt(instanceKlass._java_fields_count());
+    long constantPoolBase = instanceKlass._constants() + constantPoolSize;
+    int pointerSize = space.getPointerSize();
+    for (int i = 0; i < count; i++) {
+      long fieldInfo = fields + (long) i * fieldSlots * 2;
+      int packedOffset = Short.toUnsignedInt(space.getShort(fieldInfo + fieldLowPackedOffset * 2))
+          | Short.toUnsignedInt(space.getShort(fieldInfo + fieldHighPackedOffset * 2)) << 16;
+      if ((packedOffset & fieldTagMask) != fieldTagOffset) {
+        continue;
+      }
+      int accessFlags = Short.toUnsignedInt(space.getShort(fieldInfo + fieldAccessFlagsOffset * 2));
+      int nameIndex = Short.toUnsignedInt(space.getShort(fieldInfo + fieldNameIndexOffset * 2));
+      int signatureIndex = Short.toUnsignedInt(space.getShort(fieldInfo + fieldSignatureIndexOffset * 2));
+      long name = space.getPointer(constantPoolBase + (long) nameIndex * pointerSize);
+      long signature = space.getPointer(constantPoolBase + (long) signatureIndex * pointerSize);
+      visitor.visit(name, signature, accessFlags, packedOffset >>> fieldTagSize);
+    }
+  }
+
+  /**
+   * The offset of the named non-static field, declared by the class or any superclass, or -1 if there isn't one
+   */
+  public int findInstanceField(long instanceKlassAddress, String fieldName) {
+    int[] result = { -1 };
+    for (long current = instanceKlassAddress; current != 0 && result[0] < 0; ) {
+      forEachField(current, (name, signature, accessFlags, offset) -> {
+        if (result[0] < 0 && (accessFlags & JVM_ACC_STATIC) == 0) {
+          symbol.setAddress(name);
+          if (symbol.getStringValue(hotspot).equals(fieldName)) {
+            result[0] = offset;
+          }
+        }
+      });
+      klass.setAddress(current);
+      current = klass._super().getAddress();
+    }
+    return result[0];
+  }
+}
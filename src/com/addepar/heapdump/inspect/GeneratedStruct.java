@@ -0,0 +1,134 @@
+package com.addepar.heapdump.inspect;
+
+import com.addepar.heapdump.inspect.inferior.AddressNotMappedException;
+import com.addepar.heapdump.inspect.struct.HotspotStruct;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Base class for the struct implementations generated by <code>HotspotStructs</code>. Non-static fields are decoded
+ * from a snapshot of the whole struct, which is copied out of the <code>AddressSpace</code> on the first field access
+ * and kept until the struct is pointed somewhere else, or the address space is reset or invalidated over the struct. Reading several fields of the same
+ * struct then only costs one page cache lookup.
+ */
+public abstract class GeneratedStruct implements HotspotStruct {
+  protected final HotspotStructs structs;
+  protected final AddressSpace addressSpace;
+  protected long address;
+
+  private final int size;
+  private ByteBuffer snapshot;
+  private int snapshotGeneration;
+  private int snapshotInvalidations;
+  private boolean snapshotValid;
+
+  protected GeneratedStruct(HotspotStructs structs, long address, int size) {
+    this.structs = structs;
+    this.addressSpace = structs.getAddressSpace();
+    this.address = address;
+    this.size = size;
+  }
+
+  @Override
+  public final HotspotStructs getStructs() {
+    return structs;
+  }
+
+  @Override
+  public final long getAddress() {
+    return address;
+  }
+
+  @Override
+  public final void setAddress(long address) {
+    this.address = address;
+    this.snapshotValid = false;
+  }
+
+  private ByteBuffer snapshot() {
+    if (snapshotValid && snapshotInvalidations != addressSpace.getInvalidations()) {
+      snapshotValid = !addressSpace.isInvalidatedSince(snapshotInvalidations, address, size);
+      snapshotInvalidations = addressSpace.getInvalidations();
+    }
+    if (!snapshotValid || snapshotGeneration != addressSpace.getGeneration()) {
+      if (snapshot == null) {
+        snapshot = ByteBuffer.allocate(size).order(ByteOrder.nativeOrder());
+      }
+      // If part of the struct isn't mapped, the limit ends up in front of it so that reads there fail
+      snapshot.clear();
+      addressSpace.read(address, snapshot);
+      snapshot.flip();
+      snapshotGeneration = addressSpace.getGeneration();
+      snapshotInvalidations = addressSpace.getInvalidations();
+      snapshotValid = true;
+    }
+    return snapshot;
+  }
+
+  protected final byte getByteField(int offset) {
+    try {
+      return snapshot().get(offset);
+    } catch (IndexOutOfBoundsException e) {
+      throw new AddressNotMappedException(address + offset);
+    }
+  }
+
+  protected final boolean getBooleanField(int offset) {
+    return getByteField(offset) != 0;
+  }
+
+  protected final char getCharField(int offset) {
+    try {
+      return snapshot().getChar(offset);
+    } catch (IndexOutOfBoundsException e) {
+      throw new AddressNotMappedException(address + offset);
+    }
+  }
+
+  protected final short getShortField(int offset) {
+    try {
+      return snapshot().getShort(offset);
+    } catch (IndexOutOfBoundsException e) {
+      throw new AddressNotMappedException(address + offset);
+    }
+  }
+
+  protected final int getIntField(int offset) {
+    try {
+      return snapshot().getInt(offset);
+    } catch (IndexOutOfBoundsException e) {
+      throw new AddressNotMappedException(address + offset);
+    }
+  }
+
+  protected final long getLongField(int offset) {
+    try {
+      return snapshot().getLong(offset);
+    } catch (IndexOutOfBoundsException e) {
+      throw new AddressNotMappedException(address + offset);
+    }
+  }
+
+  protected final long getPointerField(int offset) {
+    if (addressSpace.getPointerSize() == 8) {
+      return getLongField(offset);
+    } else {
+      return getIntField(offset) & 0xFFFFFFFFL;
+    }
+  }
+
+  /**
+   * The address of the static field that the generated code gave the given index
+   */
+  protected final long getStaticAddress(int index) {
+    return structs.getStaticAddress(index);
+  }
+
+  /**
+   * Read a field of type char*
+   */
+  protected final String getAsciiStringField(int offset) {
+    return addressSpace.getAsciiStringAt(getPointerField(offset));
+  }
+}
@@ -0,0 +1,243 @@
+package com.addepar.heapdump.inspect;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The result of one statistical sampling pass over the heap. Instances are immutable, so they can be handed to other
+ * threads.
+ */
+public final class HeapHistogram {
+  private final long timestampMillis;
+  private final long liveHeapSize;
+  private final int samples;
+  private final int totalHits;
+  private final int reusedSamples;
+  private final int discardedSamples;
+  private final long runtimeMillis;
+  private final long gcRuns;
+  private final List<ClassEstimate> classes;
+
+  public HeapHistogram(long timestampMillis, long liveHeapSize, int samples, int totalHits, int reusedSamples,
+                       int discardedSamples, long runtimeMillis, long gcRuns, List<ClassEstimate> classes) {
+    this.timestampMillis = timestampMillis;
+    this.liveHeapSize = liveHeapSize;
+    this.samples = samples;
+    this.totalHits = totalHits;
+    this.reusedSamples = reusedSamples;
+    this.discardedSamples = discardedSamples;
+    this.runtimeMillis = runtimeMillis;
+    this.gcRuns = gcRuns;
+    this.classes = Collections.unmodifiableList(classes);
+  }
+
+  /**
+   * The wall clock time at which sampling started
+   */
+  public long getTimestampMillis() {
+    return timestampMillis;
+  }
+
+  public long getLiveHeapSize() {
+    return liveHeapSize;
+  }
+
+  public int getSamples() {
+    return samples;
+  }
+
+  public int getTotalHits() {
+    return totalHits;
+  }
+
+  /**
+   * The number of samples that were carried over from the previous pass of an incremental run, because the part of the
+   * heap they were taken from hadn't changed. They are included in <code>getSamples</code>.
+   */
+  public int getReusedSamples() {
+    return reusedSamples;
+  }
+
+  /**
+   * The number of samples that were thrown away because a collection ran while they were being taken. They are not
+   * included in <code>getSamples</code>.
+   */
+  public int getDiscardedSamples() {
+    return discardedSamples;
+  }
+
+  public long getRuntimeMillis() {
+    return runtimeMillis;
+  }
+
+  /**
+   * The number of garbage collections that happened while sampling. Samples that overlapped with a collection are
+   * discarded and taken again, so this only matters if there were more collections than retries.
+   */
+  public long getGcRuns() {
+    return gcRuns;
+  }
+
+  /**
+   * Every class that was hit at least once, sorted by descending number of hits
+   */
+  public List<ClassEstimate> getClasses() {
+    return classes;
+  }
+
+  public static final class ClassEstimate {
+    private final long klassAddress;
+    private final String klassName;
+    private final long hits;
+    private final double percentOfHeap;
+    private final double estimatedSize;
+    private final double estimatedNumber;
+    private final double averageInstanceSize;
+    private final double estimatedSizeLowerBound;
+    private final double estimatedSizeUpperBound;
+    private final long[] ageHistogram;
+    private final long hashedHits;
+    private final long biasedHits;
+    private final long lockedHits;
+    private final List<Referrer> referrers;
+
+    public ClassEstimate(long klassAddress, String klassName, long hits, double percentOfHeap, double estimatedSize,
+                         double estimatedNumber, double averageInstanceSize, double estimatedSizeLowerBound,
+                         double estimatedSizeUpperBound, long[] ageHistogram, long hashedHits, long biasedHits,
+                         long lockedHits, List<Referrer> referrers) {
+      this.klassAddress = klassAddress;
+      this.klassName = klassName;
+      this.hits = hits;
+      this.percentOfHeap = percentOfHeap;
+      this.estimatedSize = estimatedSize;
+      this.estimatedNumber = estimatedNumber;
+      this.averageInstanceSize = averageInstanceSize;
+      this.estimatedSizeLowerBound = estimatedSizeLowerBound;
+      this.estimatedSizeUpperBound = estimatedSizeUpperBound;
+      this.ageHistogram = ageHistogram.clone();
+      this.hashedHits = hashedHits;
+      this.biasedHits = biasedHits;
+      this.lockedHits = lockedHits;
+      this.referrers = Collections.unmodifiableList(referrers);
+    }
+
+    /**
+     * The address of the Klass. This is only meaningful until the class is unloaded.
+     */
+    public long getKlassAddress() {
+      return klassAddress;
+    }
+
+    public String getKlassName() {
+      return klassName;
+    }
+
+    public long getHits() {
+      return hits;
+    }
+
+    public double getPercentOfHeap() {
+      return percentOfHeap;
+    }
+
+    public double getEstimatedSize() {
+      return estimatedSize;
+    }
+
+    public double getEstimatedNumber() {
+      return estimatedNumber;
+    }
+
+    public double getAverageInstanceSize() {
+      return averageInstanceSize;
+    }
+
+    /**
+     * The lower end of the 99% confidence interval for <code>getEstimatedSize</code>
+     */
+    public double getEstimatedSizeLowerBound() {
+      return estimatedSizeLowerBound;
+    }
+
+    /**
+     * The upper end of the 99% confidence interval for <code>getEstimatedSize</code>
+     */
+    public double getEstimatedSizeUpperBound() {
+      return estimatedSizeUpperBound;
+    }
+
+    /**
+     * The number of hits at each age (index 0 is age 0, up to markOopDesc::max_age). Hits on locked objects have no
+     * usable age and are not included.
+     */
+    public long[] getAgeHistogram() {
+      return ageHistogram.clone();
+    }
+
+    /**
+     * The average number of young collections survived by the sampled instances, or NaN if no age was available
+     */
+    public double getMeanAge() {
+      long total = 0;
+      long weighted = 0;
+      for (int age = 0; age < ageHistogram.length; age++) {
+        total += ageHistogram[age];
+        weighted += age * ageHistogram[age];
+      }
+      return (double) weighted / (double) total;
+    }
+
+    /**
+     * Hits on objects whose identity hash code has been computed
+     */
+    public long getHashedHits() {
+      return hashedHits;
+    }
+
+    /**
+     * Hits on objects that are biased (or biasable) towards a thread
+     */
+    public long getBiasedHits() {
+      return biasedHits;
+    }
+
+    /**
+     * Hits on objects that were thin-locked or had an inflated monitor
+     */
+    public long getLockedHits() {
+      return lockedHits;
+    }
+
+    /**
+     * The classes that point at this one, sorted by descending number of references. Only filled in for classes with
+     * enough hits to be significant.
+     */
+    public List<Referrer> getReferrers() {
+      return referrers;
+    }
+  }
+
+  public static final class Referrer {
+    private final String klassName;
+    private final double estimatedReferences;
+    private final double percentOfIncoming;
+
+    public Referrer(String klassName, double estimatedReferences, double percentOfIncoming) {
+      this.klassName = klassName;
+      this.estimatedReferences = estimatedReferences;
+      this.percentOfIncoming = percentOfIncoming;
+    }
+
+    public String getKlassName() {
+      return klassName;
+    }
+
+    public double getEstimatedReferences() {
+      return estimatedReferences;
+    }
+
+    public double getPercentOfIncoming() {
+      return percentOfIncoming;
+    }
+  }
+}
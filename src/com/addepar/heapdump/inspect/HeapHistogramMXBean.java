@@ -0,0 +1,24 @@
+package com.addepar.heapdump.inspect;
+
+import java.util.List;
+
+/**
+ * JMX view of the most recent statistical heap histogram. All attributes are 0 or empty until the first sampling pass
+ * completes.
+ */
+public interface HeapHistogramMXBean {
+
+  long getTimestampMillis();
+
+  long getLiveHeapSize();
+
+  int getSamples();
+
+  int getTotalHits();
+
+  long getRuntimeMillis();
+
+  long getGcRuns();
+
+  List<HeapHistogram.ClassEstimate> getClasses();
+}
@@ -0,0 +1,80 @@
+package com.addepar.heapdump.inspect;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Supplier;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Publishes heap histograms, typically the latest result of a <code>BackgroundHeapSampler</code>, as an MXBean
+ */
+public class HeapHistogramPublisher implements HeapHistogramMXBean {
+  public static final String DEFAULT_OBJECT_NAME = "com.addepar.heapdump:type=HeapHistogram";
+
+  private final Supplier<HeapHistogram> source;
+
+  /**
+   * @param source called on every attribute read; may return null if there is no result yet
+   */
+  public HeapHistogramPublisher(Supplier<HeapHistogram> source) {
+    this.source = source;
+  }
+
+  public ObjectName register() throws JMException {
+    return register(new ObjectName(DEFAULT_OBJECT_NAME));
+  }
+
+  public ObjectName register(ObjectName name) throws JMException {
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    return server.registerMBean(this, name).getObjectName();
+  }
+
+  public void unregister(ObjectName name) throws JMException {
+    ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+  }
+
+  @Override
+  public long getTimestampMillis() {
+    HeapHistogram histogram = source.get();
+    return histogram != null ? histogram.getTimestampMillis() : 0;
+  }
+
+  @Override
+  public long getLiveHeapSize() {
+    HeapHistogram histogram = source.get();
+    return histogram != null ? histogram.getLiveHeapSize() : 0;
+  }
+
+  @Override
+  public int getSamples() {
+    HeapHistogram histogram = source.get();
+    return histogram != null ? histogram.getSamples() : 0;
+  }
+
+  @Override
+  public int getTotalHits() {
+    HeapHistogram histogram = source.get();
+    return histogram != null ? histogram.getTotalHits() : 0;
+  }
+
+  @Override
+  public long getRuntimeMillis() {
+    HeapHistogram histogram = source.get();
+    return histogram != null ? histogram.getRuntimeMillis() : 0;
+  }
+
+  @Override
+  public long getGcRuns() {
+    HeapHistogram histogram = source.get();
+    return histogram != null ? histogram.getGcRuns() : 0;
+  }
+
+  @Override
+  public List<HeapHistogram.ClassEstimate> getClasses() {
+    HeapHistogram histogram = source.get();
+    return histogram != null ? histogram.getClasses() : Collections.emptyList();
+  }
+}
@@ -0,0 +1,140 @@
+package com.addepar.heapdump.inspect;
+
+/**
+ * How full each fixed-size piece of the heap is, from the lowest committed space to the highest. Each bucket has its
+ * capacity (the bytes of it that are inside a committed space), the bytes of objects in it, the bytes that are free,
+ * and the class that takes up the most of it. An object that crosses a bucket boundary counts towards the bytes of
+ * every bucket it covers, but only towards the object count of the bucket it starts in.
+ *
+ * Free bytes are committed bytes outside of the live regions of the heap: CMS free chunks, the unused ends of spaces,
+ * G1 regions and TLABs, and free G1 regions. Whatever is neither live nor free couldn't be parsed.
+ *
+ * Instances are immutable.
+ */
+public final class HeapMap {
+  private final long timestampMillis;
+  private final long base;
+  private final long bucketSize;
+  private final long[] capacity;
+  private final long[] liveBytes;
+  private final long[] freeBytes;
+  private final int[] objects;
+  private final String[] dominantClass;
+  private final long[] dominantClassBytes;
+  private final long unparsableBytes;
+  private final long runtimeMillis;
+
+  /**
+   * The arrays are owned by the new map, and must all have one element per bucket
+   */
+  public HeapMap(long timestampMillis, long base, long bucketSize, long[] capacity, long[] liveBytes,
+                 long[] freeBytes, int[] objects, String[] dominantClass, long[] dominantClassBytes,
+                 long unparsableBytes, long runtimeMillis) {
+    this.timestampMillis = timestampMillis;
+    this.base = base;
+    this.bucketSize = bucketSize;
+    this.capacity = capacity;
+    this.liveBytes = liveBytes;
+    this.freeBytes = freeBytes;
+    this.objects = objects;
+    this.dominantClass = dominantClass;
+    this.dominantClassBytes = dominantClassBytes;
+    this.unparsableBytes = unparsableBytes;
+    this.runtimeMillis = runtimeMillis;
+  }
+
+  /**
+   * The wall clock time at which the walk started
+   */
+  public long getTimestampMillis() {
+    return timestampMillis;
+  }
+
+  /**
+   * The address of the start of the first bucket, which is aligned to the bucket size
+   */
+  public long getBase() {
+    return base;
+  }
+
+  public long getBucketSize() {
+    return bucketSize;
+  }
+
+  public int getBucketCount() {
+    return capacity.length;
+  }
+
+  public long getBucketStart(int bucket) {
+    return base + bucket * bucketSize;
+  }
+
+  /**
+   * The bytes of the bucket that are inside a committed space. 0 for a bucket in a gap between spaces.
+   */
+  public long getCapacity(int bucket) {
+    return capacity[bucket];
+  }
+
+  public long getLiveBytes(int bucket) {
+    return liveBytes[bucket];
+  }
+
+  public long getFreeBytes(int bucket) {
+    return freeBytes[bucket];
+  }
+
+  /**
+   * The number of objects that start in the bucket
+   */
+  public int getObjectCount(int bucket) {
+    return objects[bucket];
+  }
+
+  /**
+   * The name of the class with the most bytes in the bucket, or null if there are no objects in it
+   */
+  public String getDominantClass(int bucket) {
+    return dominantClass[bucket];
+  }
+
+  public long getDominantClassBytes(int bucket) {
+    return dominantClassBytes[bucket];
+  }
+
+  /**
+   * Bytes of the live heap that could not be parsed into objects. Anything other than a small number means that the
+   * map is incomplete.
+   */
+  public long getUnparsableBytes() {
+    return unparsableBytes;
+  }
+
+  public long getRuntimeMillis() {
+    return runtimeMillis;
+  }
+
+  public long getTotalCapacity() {
+    long total = 0;
+    for (long bytes : capacity) {
+      total += bytes;
+    }
+    return total;
+  }
+
+  public long getTotalLiveBytes() {
+    long total = 0;
+    for (long bytes : liveBytes) {
+      total += bytes;
+    }
+    return total;
+  }
+
+  public long getTotalFreeBytes() {
+    long total = 0;
+    for (long bytes : freeBytes) {
+      total += bytes;
+    }
+    return total;
+  }
+}
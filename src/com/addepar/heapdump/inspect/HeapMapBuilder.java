@@ -0,0 +1,275 @@
+package com.addepar.heapdump.inspect;
+
+import com.addepar.heapdump.inspect.inferior.CoreFileInferior;
+import com.addepar.heapdump.inspect.inferior.Inferior;
+import com.addepar.heapdump.inspect.inferior.SelfInferior;
+import it.unimi.dsi.fastutil.longs.Long2LongMap;
+import it.unimi.dsi.fastutil.longs.Long2LongOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectIterator;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Builds a <code>HeapMap</code> by walking every object in the live regions of the heap. This shows where the heap is
+ * fragmented (CMS) or wasted at the ends of regions (G1) without taking a full dump.
+ *
+ * The heap is walked by a <code>HeapWalker</code> whose chunks are the buckets, so that each chunk's counts belong to a
+ * single bucket.
+ *
+ * The binary format written by <code>writeBinary</code> is big-endian:
+ * <pre>
+ *   u4   magic, "HPMP"
+ *   u4   format version, 1
+ *   u8   timestamp in milliseconds
+ *   u8   base address
+ *   u8   bucket size
+ *   u4   number of buckets
+ *   u4   number of class names, followed by each name as in DataOutput.writeUTF
+ *   then for each bucket:
+ *   u8   capacity
+ *   u8   live bytes
+ *   u8   free bytes
+ *   u4   object count
+ *   u4   index of the dominant class name, or -1
+ *   u8   bytes of the dominant class
+ * </pre>
+ */
+public final class HeapMapBuilder {
+  public static final long DEFAULT_BUCKET_SIZE = 1L << 20;
+
+  private static final int MAGIC = 0x48504D50;
+  private static final int FORMAT_VERSION = 1;
+
+  private final Hotspot hotspot;
+  private final HotspotHeap heap;
+  private final long bucketSize;
+  private final HeapWalker walker;
+
+  public HeapMapBuilder(Hotspot hotspot) {
+    this(hotspot, DEFAULT_BUCKET_SIZE, Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * @param bucketSize a power of two, and a multiple of the object alignment
+   */
+  public HeapMapBuilder(Hotspot hotspot, long bucketSize, int threads) {
+    if (Long.bitCount(bucketSize) != 1 || bucketSize < hotspot.getMinObjAlignmentInBytes()) {
+      throw new IllegalArgumentException("Bad bucket size " + bucketSize);
+    }
+    this.hotspot = hotspot;
+    this.heap = hotspot.getHeap();
+    this.bucketSize = bucketSize;
+    this.walker = new HeapWalker(hotspot, bucketSize, threads);
+  }
+
+  public HeapMap run() {
+    long startTime = System.currentTimeMillis();
+
+    hotspot.reset();
+    LongIntervalSet committedSpaces = heap.collectCommittedSpaces();
+    LongIntervalSet liveRegions = heap.collectLiveRegions();
+
+    if (committedSpaces.isEmpty()) {
+      return new HeapMap(startTime, 0, bucketSize, new long[0], new long[0], new long[0], new int[0], new String[0],
+          new long[0], 0, System.currentTimeMillis() - startTime);
+    }
+    long base = committedSpaces.getStart(0) & -bucketSize;
+    int bucketCount = (int) ((committedSpaces.getEnd(committedSpaces.size() - 1) - base + bucketSize - 1)
+        / bucketSize);
+
+    long[] capacity = new long[bucketCount];
+    addLengths(committedSpaces, base, capacity);
+    long[] freeBytes = capacity.clone();
+    long[] liveRegionBytes = new long[bucketCount];
+    addLengths(liveRegions, base, liveRegionBytes);
+    for (int i = 0; i < bucketCount; i++) {
+      freeBytes[i] = Math.max(0, freeBytes[i] - liveRegionBytes[i]);
+    }
+
+    HeapWalker.Result<BucketCounts> result = walker.walk((fork, chunk) -> new BucketCounts(chunk.getEnd()));
+    long[] liveBytes = new long[bucketCount];
+    int[] objects = new int[bucketCount];
+    Long2LongOpenHashMap[] classBytes = new Long2LongOpenHashMap[bucketCount];
+    for (HeapWalker.WalkedChunk<BucketCounts> walked : result.getChunks()) {
+      HeapWalker.Chunk chunk = walked.getChunk();
+      BucketCounts counts = walked.getVisitor();
+      int bucket = (int) ((chunk.getStart() - base) / bucketSize);
+      liveBytes[bucket] += counts.liveBytes;
+      objects[bucket] += counts.objects;
+      merge(classBytes, bucket, counts.classBytes);
+
+      // The last object may hang over into the following buckets, unless it started in an earlier chunk
+      long end = walked.getEnd();
+      if (end == HeapWalker.UNKNOWN) {
+        continue;
+      }
+      long overhangStart = walked.getFirstObject() < chunk.getEnd() ? chunk.getEnd() : end;
+      for (long cur = overhangStart; cur < end; cur = (cur & -bucketSize) + bucketSize) {
+        int overhangBucket = (int) ((cur - base) / bucketSize);
+        long bytes = Math.min((cur & -bucketSize) + bucketSize, end) - cur;
+        liveBytes[overhangBucket] += bytes;
+        if (classBytes[overhangBucket] == null) {
+          classBytes[overhangBucket] = new Long2LongOpenHashMap();
+        }
+        classBytes[overhangBucket].addTo(counts.lastKlass, bytes);
+      }
+    }
+
+    KlassTable klassTable = hotspot.getKlassTable();
+    String[] dominantClass = new String[bucketCount];
+    long[] dominantClassBytes = new long[bucketCount];
+    for (int i = 0; i < bucketCount; i++) {
+      if (classBytes[i] == null) {
+        continue;
+      }
+      ObjectIterator<Long2LongMap.Entry> it = classBytes[i].long2LongEntrySet().fastIterator();
+      long dominantKlass = 0;
+      while (it.hasNext()) {
+        Long2LongMap.Entry entry = it.next();
+        if (entry.getLongValue() > dominantClassBytes[i]) {
+          dominantKlass = entry.getLongKey();
+          dominantClassBytes[i] = entry.getLongValue();
+        }
+      }
+      dominantClass[i] = klassTable.get(dominantKlass).getName();
+    }
+
+    return new HeapMap(startTime, base, bucketSize, capacity, liveBytes, freeBytes, objects, dominantClass,
+        dominantClassBytes, result.getUnparsableBytes(), System.currentTimeMillis() - startTime);
+  }
+
+  /**
+   * Add the length of the part of each interval that falls in each bucket
+   */
+  private void addLengths(LongIntervalSet intervals, long base, long[] buckets) {
+    for (int i = 0; i < intervals.size(); i++) {
+      long end = intervals.getEnd(i);
+      for (long cur = intervals.getStart(i); cur < end; cur = (cur & -bucketSize) + bucketSize) {
+        buckets[(int) ((cur - base) / bucketSize)] += Math.min((cur & -bucketSize) + bucketSize, end) - cur;
+      }
+    }
+  }
+
+  private static void merge(Long2LongOpenHashMap[] into, int bucket, Long2LongOpenHashMap from) {
+    if (from.isEmpty()) {
+      return;
+    }
+    if (into[bucket] == null) {
+      into[bucket] = from;
+      return;
+    }
+    ObjectIterator<Long2LongMap.Entry> it = from.long2LongEntrySet().fastIterator();
+    while (it.hasNext()) {
+      Long2LongMap.Entry entry = it.next();
+      into[bucket].addTo(entry.getLongKey(), entry.getLongValue());
+    }
+  }
+
+  public static void writeBinary(OutputStream out, HeapMap map) throws IOException {
+    Object2IntOpenHashMap<String> classIndexes = new Object2IntOpenHashMap<>();
+    classIndexes.defaultReturnValue(-1);
+    List<String> classNames = new ArrayList<>();
+    for (int i = 0; i < map.getBucketCount(); i++) {
+      String name = map.getDominantClass(i);
+      if (name != null && !classIndexes.containsKey(name)) {
+        classIndexes.put(name, classNames.size());
+        classNames.add(name);
+      }
+    }
+
+    DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+    data.writeInt(MAGIC);
+    data.writeInt(FORMAT_VERSION);
+    data.writeLong(map.getTimestampMillis());
+    data.writeLong(map.getBase());
+    data.writeLong(map.getBucketSize());
+    data.writeInt(map.getBucketCount());
+    data.writeInt(classNames.size());
+    for (String name : classNames) {
+      data.writeUTF(name);
+    }
+    for (int i = 0; i < map.getBucketCount(); i++) {
+      data.writeLong(map.getCapacity(i));
+      data.writeLong(map.getLiveBytes(i));
+      data.writeLong(map.getFreeBytes(i));
+      data.writeInt(map.getObjectCount(i));
+      data.writeInt(map.getDominantClass(i) != null ? classIndexes.getInt(map.getDominantClass(i)) : -1);
+      data.writeLong(map.getDominantClassBytes(i));
+    }
+    data.flush();
+  }
+
+  /**
+   * One row per bucket, in address order, so that the rows can be laid out as the pixels of an image
+   */
+  public static void writeCsv(PrintWriter out, HeapMap map) {
+    out.println("bucket,address,capacity,live_bytes,free_bytes,objects,dominant_class,dominant_class_bytes");
+    for (int i = 0; i < map.getBucketCount(); i++) {
+      out.format("%d,0x%x,%d,%d,%d,%d,%s,%d\n", i, map.getBucketStart(i), map.getCapacity(i), map.getLiveBytes(i),
+          map.getFreeBytes(i), map.getObjectCount(i), map.getDominantClass(i) != null ? map.getDominantClass(i) : "",
+          map.getDominantClassBytes(i));
+    }
+    out.flush();
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length < 2 || args.length > 3) {
+      System.err.println("Usage: HeapMapBuilder <binary output file> <csv output file> [core file]");
+      System.exit(1);
+    }
+
+    Inferior inferior = args.length == 3 ? new CoreFileInferior(Paths.get(args[2])) : new SelfInferior();
+    HeapMap map = new HeapMapBuilder(new Hotspot(inferior)).run();
+    inferior.detach();
+
+    try (OutputStream out = Files.newOutputStream(Paths.get(args[0]))) {
+      writeBinary(out, map);
+    }
+    try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(Paths.get(args[1]), StandardCharsets.UTF_8))) {
+      writeCsv(out, map);
+    }
+
+    System.out.println("Buckets:          " + map.getBucketCount());
+    System.out.println("Capacity:         " + map.getTotalCapacity());
+    System.out.println("Live bytes:       " + map.getTotalLiveBytes());
+    System.out.println("Free bytes:       " + map.getTotalFreeBytes());
+    System.out.println("Unparsable bytes: " + map.getUnparsableBytes());
+    System.out.println("Runtime:          " + map.getRuntimeMillis() + " ms");
+  }
+
+  /**
+   * What one bucket holds, from the objects that start in it. Bytes of the last object that are past the end of the
+   * bucket aren't counted here.
+   */
+  private static final class BucketCounts implements HeapWalker.ObjectVisitor {
+    final long bucketEnd;
+    final Long2LongOpenHashMap classBytes = new Long2LongOpenHashMap();
+    long liveBytes;
+    int objects;
+    /** The class of the last object, which any bytes past the end of the bucket belong to */
+    long lastKlass;
+
+    BucketCounts(long bucketEnd) {
+      this.bucketEnd = bucketEnd;
+    }
+
+    @Override
+    public void visit(long address, long klass, long size) {
+      long bytesInBucket = Math.min(address + size, bucketEnd) - address;
+      objects++;
+      liveBytes += bytesInBucket;
+      classBytes.addTo(klass, bytesInBucket);
+      lastKlass = klass;
+    }
+  }
+}
@@ -0,0 +1,406 @@
+package com.addepar.heapdump.inspect;
+
+import com.addepar.heapdump.inspect.struct.Klass;
+import com.addepar.heapdump.inspect.struct.oopDesc;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Visits every object in the live regions of the heap, which don't include CMS free chunks or the unused parts of
+ * TLABs, handing the address, Klass and size of each one to an <code>ObjectVisitor</code>.
+ *
+ * The live regions are cut into chunks at multiples of the chunk size, which are walked in parallel, each thread
+ * using its own fork of the <code>Hotspot</code>. Only the first chunk of a region is known to start with an object;
+ * for the others the first object is guessed by probing. Once all the chunks are done, the guesses are checked against
+ * where the walk of the previous chunk actually ended, and any chunk that was guessed wrong is walked again with a new
+ * visitor. So every chunk's visitor sees each object that starts in the chunk exactly once, and the visitors of the
+ * chunks that were guessed wrong are thrown away.
+ */
+public final class HeapWalker {
+  public static final long DEFAULT_CHUNK_SIZE = 4L << 20;
+
+  /**
+   * Marks a chunk whose starting point or end is not known
+   */
+  public static final long UNKNOWN = -1L;
+
+  private final Hotspot hotspot;
+  private final HotspotHeap heap;
+  private final long chunkSize;
+  private final int threads;
+
+  /**
+   * Receives the objects of one chunk in address order. The size includes the padding of objects in CMS spaces, which
+   * are at least <code>HotspotHeap.cmsMinChunkSize</code> bytes apart. If the visitor throws, the rest of the chunk is
+   * counted as unparsable.
+   */
+  public interface ObjectVisitor {
+    void visit(long address, long klass, long size);
+  }
+
+  public interface VisitorFactory<V extends ObjectVisitor> {
+    /**
+     * Create the visitor for a walk of a chunk. This is called from the walking threads, so it must be thread safe.
+     *
+     * @param hotspot a fork that only the calling thread uses, which the visitor can use to read the objects
+     */
+    V newVisitor(Hotspot hotspot, Chunk chunk);
+  }
+
+  public HeapWalker(Hotspot hotspot) {
+    this(hotspot, DEFAULT_CHUNK_SIZE, Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * @param chunkSize a power of two, and a multiple of the object alignment
+   */
+  public HeapWalker(Hotspot hotspot, long chunkSize, int threads) {
+    if (Long.bitCount(chunkSize) != 1 || chunkSize < hotspot.getMinObjAlignmentInBytes()) {
+      throw new IllegalArgumentException("Bad chunk size " + chunkSize);
+    }
+    this.hotspot = hotspot;
+    this.heap = hotspot.getHeap();
+    this.chunkSize = chunkSize;
+    this.threads = threads;
+  }
+
+  /**
+   * Cut the live regions of the heap into chunks, in address order. The <code>Hotspot</code> should have been reset
+   * first.
+   */
+  public List<Chunk> split() {
+    LongIntervalSet liveRegions = heap.collectLiveRegions();
+    LongIntervalSet cmsSpaces = heap.collectCmsSpaces();
+    long cmsMinChunkSize = heap.cmsMinChunkSize();
+
+    List<Chunk> chunks = new ArrayList<>();
+    for (int region = 0; region < liveRegions.size(); region++) {
+      long bottom = liveRegions.getStart(region);
+      long top = liveRegions.getEnd(region);
+      long minObjectSize = cmsSpaces.encloses(bottom, top) ? cmsMinChunkSize : hotspot.getMinObjAlignmentInBytes();
+      for (long start = bottom; start < top; start = (start & -chunkSize) + chunkSize) {
+        chunks.add(new Chunk(bottom, top, start, Math.min((start & -chunkSize) + chunkSize, top), minObjectSize));
+      }
+    }
+    return chunks;
+  }
+
+  /**
+   * Walk the whole heap. The <code>Hotspot</code> should have been reset first.
+   */
+  public <V extends ObjectVisitor> Result<V> walk(VisitorFactory<V> factory) {
+    List<Chunk> chunks = split();
+    LongIntervalSet humongousObjects = heap.collectHumongousObjects();
+
+    List<ChunkResult<V>> results = walkInParallel(chunks, humongousObjects, factory);
+
+    // Check each guessed starting point against where the previous walk ended, in address order
+    Worker fixup = new Worker(hotspot, humongousObjects);
+    List<WalkedChunk<V>> walked = new ArrayList<>(chunks.size());
+    long liveHeapSize = 0;
+    long unparsableBytes = 0;
+    int rewalkedChunks = 0;
+    long expected = UNKNOWN;
+    long unparsableFrom = 0;
+    for (int i = 0; i < chunks.size(); i++) {
+      Chunk chunk = chunks.get(i);
+      ChunkResult<V> result = results.get(i);
+      boolean lastInRegion = i + 1 == chunks.size() || chunks.get(i + 1).start == chunks.get(i + 1).regionBottom;
+      liveHeapSize += chunk.end - chunk.start;
+      if (chunk.start != chunk.regionBottom) {
+        if (expected != UNKNOWN) {
+          if (result.start != expected) {
+            result = fixup.walk(chunk, expected, factory.newVisitor(hotspot, chunk));
+            rewalkedChunks++;
+          }
+        } else if (result.start != UNKNOWN) {
+          // The previous chunk couldn't be parsed to the end, so the guess is all we have
+          unparsableBytes += result.start - unparsableFrom;
+        } else {
+          if (lastInRegion) {
+            unparsableBytes += chunk.regionTop - unparsableFrom;
+          }
+          continue;
+        }
+      }
+
+      if (result.failedAt != UNKNOWN) {
+        unparsableFrom = result.failedAt;
+        expected = UNKNOWN;
+        if (lastInRegion) {
+          unparsableBytes += chunk.regionTop - unparsableFrom;
+        }
+      } else {
+        expected = result.end;
+      }
+      walked.add(new WalkedChunk<>(chunk, result.start, result.failedAt == UNKNOWN ? result.end : UNKNOWN,
+          result.visitor));
+    }
+
+    return new Result<>(walked, liveHeapSize, unparsableBytes, chunks.size(), rewalkedChunks);
+  }
+
+  private <V extends ObjectVisitor> List<ChunkResult<V>> walkInParallel(List<Chunk> chunks,
+                                                                        LongIntervalSet humongousObjects,
+                                                                        VisitorFactory<V> factory) {
+    List<ChunkResult<V>> results = new ArrayList<>(Collections.nCopies(chunks.size(), null));
+    AtomicInteger nextChunk = new AtomicInteger();
+    ExecutorService executor = Executors.newFixedThreadPool(threads,
+        new ThreadFactoryBuilder().setNameFormat("heap-walker-%d").setDaemon(true).build());
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (int i = 0; i < threads; i++) {
+        Worker worker = new Worker(hotspot.fork(), humongousObjects);
+        futures.add(executor.submit(() -> {
+          for (int index = nextChunk.getAndIncrement(); index < chunks.size(); index = nextChunk.getAndIncrement()) {
+            Chunk chunk = chunks.get(index);
+            results.set(index, worker.walk(chunk, factory.newVisitor(worker.hotspot, chunk)));
+          }
+        }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    } catch (ExecutionException e) {
+      throw new RuntimeException(e.getCause());
+    } finally {
+      executor.shutdownNow();
+    }
+    return results;
+  }
+
+  /**
+   * A piece of a live region that doesn't cross a multiple of the chunk size. Instances are immutable.
+   */
+  public static final class Chunk {
+    private final long regionBottom;
+    private final long regionTop;
+    private final long start;
+    private final long end;
+    private final long minObjectSize;
+
+    Chunk(long regionBottom, long regionTop, long start, long end, long minObjectSize) {
+      this.regionBottom = regionBottom;
+      this.regionTop = regionTop;
+      this.start = start;
+      this.end = end;
+      this.minObjectSize = minObjectSize;
+    }
+
+    public long getRegionBottom() {
+      return regionBottom;
+    }
+
+    public long getRegionTop() {
+      return regionTop;
+    }
+
+    public long getStart() {
+      return start;
+    }
+
+    /**
+     * The objects of the chunk are the ones that start before the end. The last one may continue past it.
+     */
+    public long getEnd() {
+      return end;
+    }
+
+    /**
+     * The distance between objects in the chunk is at least this
+     */
+    public long getMinObjectSize() {
+      return minObjectSize;
+    }
+  }
+
+  /**
+   * A chunk that was walked, and the visitor that saw its objects
+   */
+  public static final class WalkedChunk<V extends ObjectVisitor> {
+    private final Chunk chunk;
+    private final long firstObject;
+    private final long end;
+    private final V visitor;
+
+    WalkedChunk(Chunk chunk, long firstObject, long end, V visitor) {
+      this.chunk = chunk;
+      this.firstObject = firstObject;
+      this.end = end;
+      this.visitor = visitor;
+    }
+
+    public Chunk getChunk() {
+      return chunk;
+    }
+
+    /**
+     * The first object that was visited, which is at or after the start of the chunk
+     */
+    public long getFirstObject() {
+      return firstObject;
+    }
+
+    /**
+     * The end of the last object that was visited, which may be past the end of the chunk, or UNKNOWN if the chunk
+     * couldn't be parsed to the end
+     */
+    public long getEnd() {
+      return end;
+    }
+
+    public V getVisitor() {
+      return visitor;
+    }
+  }
+
+  public static final class Result<V extends ObjectVisitor> {
+    private final List<WalkedChunk<V>> chunks;
+    private final long liveHeapSize;
+    private final long unparsableBytes;
+    private final int chunkCount;
+    private final int rewalkedChunks;
+
+    Result(List<WalkedChunk<V>> chunks, long liveHeapSize, long unparsableBytes, int chunkCount,
+           int rewalkedChunks) {
+      this.chunks = Collections.unmodifiableList(chunks);
+      this.liveHeapSize = liveHeapSize;
+      this.unparsableBytes = unparsableBytes;
+      this.chunkCount = chunkCount;
+      this.rewalkedChunks = rewalkedChunks;
+    }
+
+    /**
+     * The chunks whose objects were visited, in address order. Chunks that couldn't be parsed at all are left out.
+     */
+    public List<WalkedChunk<V>> getChunks() {
+      return chunks;
+    }
+
+    /**
+     * The total size of the live regions
+     */
+    public long getLiveHeapSize() {
+      return liveHeapSize;
+    }
+
+    /**
+     * Bytes of the live regions that could not be parsed into objects. Anything other than a small number means that
+     * some objects weren't visited.
+     */
+    public long getUnparsableBytes() {
+      return unparsableBytes;
+    }
+
+    public int getChunkCount() {
+      return chunkCount;
+    }
+
+    public int getRewalkedChunks() {
+      return rewalkedChunks;
+    }
+  }
+
+  private static final class ChunkResult<V extends ObjectVisitor> {
+    /** The first object that was walked, or UNKNOWN if no object could be found */
+    long start = UNKNOWN;
+    /** The first object at or after the end of the chunk, which is where the next chunk should start */
+    long end = UNKNOWN;
+    /** Where parsing went wrong, or UNKNOWN if the whole chunk was parsed */
+    long failedAt = UNKNOWN;
+    final V visitor;
+
+    ChunkResult(V visitor) {
+      this.visitor = visitor;
+    }
+  }
+
+  /**
+   * Walks chunks using a single <code>Hotspot</code>, reusing its flyweights from one object to the next. Not thread
+   * safe.
+   */
+  private static final class Worker {
+    private final Hotspot hotspot;
+    private final OopFinder finder;
+    private final oopDesc oop;
+    private final Klass klass;
+    private final KlassTable klassTable;
+
+    Worker(Hotspot hotspot, LongIntervalSet humongousObjects) {
+      this.hotspot = hotspot;
+      this.finder = new OopFinder(hotspot);
+      for (int i = 0; i < humongousObjects.size(); i++) {
+        finder.addKnownObject(humongousObjects.getStart(i), humongousObjects.getEnd(i));
+      }
+      this.oop = hotspot.getStructs().staticStruct(oopDesc.class);
+      this.klass = hotspot.getStructs().staticStruct(Klass.class);
+      this.klassTable = hotspot.getKlassTable();
+    }
+
+    /**
+     * Walk the chunk, guessing where the first object is unless the chunk is at the bottom of its region
+     */
+    <V extends ObjectVisitor> ChunkResult<V> walk(Chunk chunk, V visitor) {
+      if (chunk.start == chunk.regionBottom) {
+        return walk(chunk, chunk.start, visitor);
+      }
+
+      long start;
+      try {
+        if (!finder.probeForObject(chunk.start, chunk.regionBottom)) {
+          return new ChunkResult<>(visitor);
+        }
+        long objectStart = finder.getProbedObject().getAddress();
+        start = objectStart == chunk.start ? objectStart
+            : objectStart + Math.max(finder.getProbedObject().getObjectSize(hotspot, finder.getProbedKlass()),
+            chunk.minObjectSize);
+      } catch (RuntimeException e) {
+        return new ChunkResult<>(visitor);
+      }
+      return walk(chunk, start, visitor);
+    }
+
+    /**
+     * Walk every object that starts inside the chunk, beginning at the given address
+     */
+    <V extends ObjectVisitor> ChunkResult<V> walk(Chunk chunk, long start, V visitor) {
+      ChunkResult<V> result = new ChunkResult<>(visitor);
+      result.start = start;
+      long cur = start;
+      try {
+        while (cur < chunk.end) {
+          oop.setAddress(cur);
+          oop.getKlass(hotspot, klass);
+          if (!klassTable.contains(klass.getAddress()) && !finder.isLikelyKlass(klass)) {
+            result.failedAt = cur;
+            return result;
+          }
+          long size = Math.max(klassTable.get(klass.getAddress()).getObjectSize(hotspot, cur), chunk.minObjectSize);
+          if (cur + size > chunk.regionTop) {
+            result.failedAt = cur;
+            return result;
+          }
+          visitor.visit(cur, klass.getAddress(), size);
+          cur += size;
+        }
+      } catch (RuntimeException e) {
+        // Most likely an object that was still being initialized
+        result.failedAt = cur;
+        return result;
+      }
+      result.end = cur;
+      return result;
+    }
+  }
+}
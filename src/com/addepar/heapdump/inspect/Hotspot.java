@@ -1,7 +1,6 @@
 package com.addepar.heapdump.inspect;
 
 import com.addepar.heapdump.inspect.inferior.Inferior;
-import com.addepar.heapdump.inspect.struct.Flag;
 import com.addepar.heapdump.inspect.struct.Universe;
 import com.addepar.heapdump.inspect.struct.java_lang_Class;
 
@@ -10,6 +9,11 @@ import com.addepar.heapdump.inspect.struct.java_lang_Class;
  */
 public class Hotspot {
 
+  /**
+   * Forks are used for linear scans, which have good locality, so they don't need a big page cache
+   */
+  private static final int FORK_CACHE_ENTRIES = 256;
+
   private final AddressSpace addressSpace;
 
   private final HotspotConstants constants;
@@ -18,54 +22,101 @@ public class Hotspot {
 
   private final HotspotTypes types;
 
+  private final MarkWord markWord;
+
   private final Universe universe;
 
+  private final KlassTable klassTable;
+
+  private final HotspotHeap heap;
+
   private final long classOopSizeOffset;
+  private final long staticOopFieldCountOffset;
 
-  private boolean useCompressedOops = false;
-  private boolean useCompressedKlassPointers = false;
-  private boolean useTLAB = false;
-  private int minObjAlignmentInBytes = 8;
+  private final HotspotFlags flags;
+
+  private final boolean useCompressedOops;
+  private final boolean useCompressedKlassPointers;
+  private final boolean useTLAB;
+  private final int minObjAlignmentInBytes;
 
   private final long narrowKlassShift;
   private final long narrowKlassBase;
+  private final long narrowOopShift;
+  private final long narrowOopBase;
   private final long arrayLengthOffset;
+  private final long klassWordOffset;
 
   public Hotspot(Inferior inferior) {
     addressSpace = new AddressSpace(inferior);
     constants = new HotspotConstants(addressSpace);
     types = new HotspotTypes(addressSpace);
     structs = new HotspotStructs(addressSpace, types, constants);
+    markWord = new MarkWord(constants);
     universe = structs.staticStruct(Universe.class);
 
-    classOopSizeOffset = structs.staticStruct(java_lang_Class.class)._oop_size_offset();
-
-
-    Flag staticFlag = structs.staticStruct(Flag.class);
-    Flag curFlag = staticFlag.flags();
-    for (int i = 0; i < staticFlag.numFlags(); i++) {
-      String curName = curFlag._name();
-      if ("UseCompressedClassPointers".equals(curName)) {
-        useCompressedKlassPointers = addressSpace.getBoolean(curFlag._addr());
-      } else if ("UseCompressedOops".equals(curName)) {
-        useCompressedOops = addressSpace.getBoolean(curFlag._addr());
-      } else if ("UseTLAB".equals(curName)) {
-        useTLAB = addressSpace.getBoolean(curFlag._addr());
-      } else if ("ObjectAlignmentInBytes".equals(curName)) {
-        minObjAlignmentInBytes = addressSpace.getInt(curFlag._addr());
-      }
-      curFlag = structs.structAt(curFlag.getAddress() + types.getType("Flag").getSize(), Flag.class);
-    }
+    java_lang_Class javaLangClass = structs.staticStruct(java_lang_Class.class);
+    classOopSizeOffset = javaLangClass._oop_size_offset();
+    staticOopFieldCountOffset = javaLangClass._static_oop_field_count_offset();
+
+    flags = new HotspotFlags(addressSpace, structs, types);
+    useCompressedKlassPointers = flags.contains("UseCompressedClassPointers")
+        && flags.getBoolean("UseCompressedClassPointers");
+    useCompressedOops = flags.contains("UseCompressedOops") && flags.getBoolean("UseCompressedOops");
+    useTLAB = flags.getBoolean("UseTLAB");
+    minObjAlignmentInBytes = (int) flags.getIntx("ObjectAlignmentInBytes");
 
     narrowKlassBase = universe._narrow_klass__base();
     narrowKlassShift = universe._narrow_klass__shift();
+    narrowOopBase = universe._narrow_oop__base();
+    narrowOopShift = universe._narrow_oop__shift();
 
     long sizeOfArrayOopDesc = types.getType("arrayOopDesc").getSize();
     arrayLengthOffset = useCompressedKlassPointers() ? sizeOfArrayOopDesc - 4 : sizeOfArrayOopDesc;
-  }
-
+    // The klass word comes right after the mark word
+    klassWordOffset = addressSpace.getPointerSize();
+
+    klassTable = new KlassTable(this);
+    heap = new HotspotHeap(this);
+  }
+
+  private Hotspot(Hotspot other, AddressSpace addressSpace) {
+    this.addressSpace = addressSpace;
+    this.constants = other.constants;
+    this.types = other.types.withAddressSpace(addressSpace);
+    this.structs = other.structs.withAddressSpace(addressSpace, types);
+    this.markWord = other.markWord;
+    this.universe = structs.staticStruct(Universe.class);
+    this.classOopSizeOffset = other.classOopSizeOffset;
+    this.staticOopFieldCountOffset = other.staticOopFieldCountOffset;
+    this.flags = other.flags.withAddressSpace(addressSpace);
+    this.useCompressedOops = other.useCompressedOops;
+    this.useCompressedKlassPointers = other.useCompressedKlassPointers;
+    this.useTLAB = other.useTLAB;
+    this.minObjAlignmentInBytes = other.minObjAlignmentInBytes;
+    this.narrowKlassShift = other.narrowKlassShift;
+    this.narrowKlassBase = other.narrowKlassBase;
+    this.narrowOopShift = other.narrowOopShift;
+    this.narrowOopBase = other.narrowOopBase;
+    this.arrayLengthOffset = other.arrayLengthOffset;
+    this.klassWordOffset = other.klassWordOffset;
+    this.klassTable = new KlassTable(this);
+    this.heap = new HotspotHeap(this);
+  }
+
+  /**
+   * Create a view of the same VM with its own page cache, so that it can be used on another thread at the same time
+   * as this one. Everything that was parsed out of vmStructs is shared. Forks must not be reset.
+   */
+  public Hotspot fork() {
+    return new Hotspot(this, addressSpace.fork(FORK_CACHE_ENTRIES));
+  }
+
+  /**
+   * The heap, which caches anything that's expensive to find until the next reset
+   */
   public HotspotHeap getHeap() {
-    return new HotspotHeap(this);
+    return heap;
   }
 
   public AddressSpace getAddressSpace() {
@@ -84,10 +135,28 @@ public class Hotspot {
     return types;
   }
 
+  /**
+   * The -XX flags of the VM
+   */
+  public HotspotFlags getFlags() {
+    return flags;
+  }
+
+  public MarkWord getMarkWord() {
+    return markWord;
+  }
+
   public Universe getUniverse() {
     return universe;
   }
 
+  /**
+   * Cached metadata for every Klass seen since the last reset
+   */
+  public KlassTable getKlassTable() {
+    return klassTable;
+  }
+
   public boolean useCompressedOops() {
     return useCompressedOops;
   }
@@ -100,6 +169,42 @@ public class Hotspot {
     return (Integer.toUnsignedLong(compressedPointer) << narrowKlassShift) + narrowKlassBase;
   }
 
+  /**
+   * Read the klass word of the heap object at the given address, decompressing it if necessary
+   */
+  public long getKlassAddress(long oopAddress) {
+    if (useCompressedKlassPointers) {
+      return decompressKlassPointer(addressSpace.getInt(oopAddress + klassWordOffset));
+    } else {
+      return addressSpace.getPointer(oopAddress + klassWordOffset);
+    }
+  }
+
+  public long decompressOop(int compressedOop) {
+    if (compressedOop == 0) {
+      return 0;
+    }
+    return (Integer.toUnsignedLong(compressedOop) << narrowOopShift) + narrowOopBase;
+  }
+
+  /**
+   * The size in bytes of a reference field inside a heap object
+   */
+  public int getHeapOopSize() {
+    return useCompressedOops ? 4 : addressSpace.getPointerSize();
+  }
+
+  /**
+   * Read the reference field at the given address, decompressing it if necessary. Returns 0 for null.
+   */
+  public long getOopAt(long address) {
+    if (useCompressedOops) {
+      return decompressOop(addressSpace.getInt(address));
+    } else {
+      return addressSpace.getPointer(address);
+    }
+  }
+
   public boolean useTLAB() {
     return useTLAB;
   }
@@ -120,7 +225,15 @@ public class Hotspot {
     return classOopSizeOffset;
   }
 
+  /**
+   * The offset of the int in a java.lang.Class that holds the number of static reference fields of its class
+   */
+  public long getStaticOopFieldCountOffset() {
+    return staticOopFieldCountOffset;
+  }
+
   public void reset() {
     addressSpace.reset();
+    klassTable.clear();
   }
 }
@@ -19,9 +19,23 @@ public class HotspotConstants {
   private final int layoutHelperHeaderSizeMask;
   private final int layoutHelperLog2ElementSizeShift;
   private final int layoutHelperLog2ElementSizeMask;
+  private final int layoutHelperElementTypeShift;
+  private final int layoutHelperElementTypeMask;
   private final long markOopSizeShift;
   private final long markOopCmsShift;
   private final long markOopCmsMask;
+  private final long markOopLockMaskInPlace;
+  private final long markOopBiasedLockMaskInPlace;
+  private final long markOopBiasedLockPattern;
+  private final long markOopUnlockedValue;
+  private final long markOopLockedValue;
+  private final long markOopMonitorValue;
+  private final long markOopMarkedValue;
+  private final long markOopAgeShift;
+  private final long markOopAgeMask;
+  private final long markOopMaxAge;
+  private final long markOopHashShift;
+  private final long markOopHashMask;
 
   public HotspotConstants(AddressSpace space) {
     long hotSpotVMIntConstants = space.getPointer(space.lookupSymbol("gHotSpotVMIntConstants"));
@@ -65,9 +79,34 @@ public class HotspotConstants {
     layoutHelperHeaderSizeMask = intConstants.get("Klass::_lh_header_size_mask");
     layoutHelperLog2ElementSizeShift = intConstants.get("Klass::_lh_log2_element_size_shift");
     layoutHelperLog2ElementSizeMask = intConstants.get("Klass::_lh_log2_element_size_mask");
+    layoutHelperElementTypeShift = intConstants.get("Klass::_lh_element_type_shift");
+    layoutHelperElementTypeMask = intConstants.get("Klass::_lh_element_type_mask");
     markOopSizeShift = longConstants.get("markOopDesc::size_shift");
     markOopCmsShift = longConstants.get("markOopDesc::cms_shift");
     markOopCmsMask = longConstants.get("markOopDesc::cms_mask");
+    markOopLockMaskInPlace = longConstants.get("markOopDesc::lock_mask_in_place");
+    markOopBiasedLockMaskInPlace = longConstants.get("markOopDesc::biased_lock_mask_in_place");
+    markOopBiasedLockPattern = longConstants.get("markOopDesc::biased_lock_pattern");
+    markOopUnlockedValue = longConstants.get("markOopDesc::unlocked_value");
+    markOopLockedValue = longConstants.get("markOopDesc::locked_value");
+    markOopMonitorValue = longConstants.get("markOopDesc::monitor_value");
+    markOopMarkedValue = longConstants.get("markOopDesc::marked_value");
+    markOopAgeShift = longConstants.get("markOopDesc::age_shift");
+    markOopAgeMask = longConstants.get("markOopDesc::age_mask");
+    markOopMaxAge = longConstants.get("markOopDesc::max_age");
+    markOopHashShift = longConstants.get("markOopDesc::hash_shift");
+    markOopHashMask = longConstants.get("markOopDesc::hash_mask");
+  }
+
+  /**
+   * Look up an integer constant that doesn't have its own getter, e.g. "FieldInfo::field_slots"
+   */
+  public int getIntConstant(String name) {
+    Integer value = intConstants.get(name);
+    if (value == null) {
+      throw new IllegalArgumentException("No such constant " + name);
+    }
+    return value;
   }
 
   public int getHeapWordSize() {
@@ -106,6 +145,14 @@ public class HotspotConstants {
     return layoutHelperLog2ElementSizeMask;
   }
 
+  public int getLayoutHelperElementTypeShift() {
+    return layoutHelperElementTypeShift;
+  }
+
+  public int getLayoutHelperElementTypeMask() {
+    return layoutHelperElementTypeMask;
+  }
+
   public long getMarkOopSizeShift() {
     return markOopSizeShift;
   }
@@ -117,4 +164,52 @@ public class HotspotConstants {
   public long getMarkOopCmsMask() {
     return markOopCmsMask;
   }
+
+  public long getMarkOopLockMaskInPlace() {
+    return markOopLockMaskInPlace;
+  }
+
+  public long getMarkOopBiasedLockMaskInPlace() {
+    return markOopBiasedLockMaskInPlace;
+  }
+
+  public long getMarkOopBiasedLockPattern() {
+    return markOopBiasedLockPattern;
+  }
+
+  public long getMarkOopUnlockedValue() {
+    return markOopUnlockedValue;
+  }
+
+  public long getMarkOopLockedValue() {
+    return markOopLockedValue;
+  }
+
+  public long getMarkOopMonitorValue() {
+    return markOopMonitorValue;
+  }
+
+  public long getMarkOopMarkedValue() {
+    return markOopMarkedValue;
+  }
+
+  public long getMarkOopAgeShift() {
+    return markOopAgeShift;
+  }
+
+  public long getMarkOopAgeMask() {
+    return markOopAgeMask;
+  }
+
+  public long getMarkOopMaxAge() {
+    return markOopMaxAge;
+  }
+
+  public long getMarkOopHashShift() {
+    return markOopHashShift;
+  }
+
+  public long getMarkOopHashMask() {
+    return markOopHashMask;
+  }
 }
@@ -0,0 +1,218 @@
+package com.addepar.heapdump.inspect;
+
+import com.addepar.heapdump.inspect.struct.Flag;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Access to the command line flags (-XX options) of the VM. The flag table is scanned once to find the address and
+ * type of every flag, and the values are read from those addresses on each call, since manageable flags can change
+ * while the VM runs.
+ */
+public class HotspotFlags {
+
+  private final AddressSpace space;
+  private final Map<String, FlagInfo> flagMap;
+  private final FlagInfo[] flagArray;
+
+  public HotspotFlags(AddressSpace space, HotspotStructs structs, HotspotTypes types) {
+    this.space = space;
+    this.flagMap = new HashMap<>();
+
+    long flagSize = types.getType("Flag").getSize();
+    Flag staticFlag = structs.staticStruct(Flag.class);
+    long numFlags = staticFlag.numFlags();
+    Flag curFlag = staticFlag.flags();
+
+    List<FlagInfo> flags = new ArrayList<>();
+    // The last entry in the table has a null name
+    for (int i = 0; i < numFlags; i++) {
+      String name = curFlag._name();
+      if (name != null) {
+        FlagInfo info = new FlagInfo(flags.size(), name, curFlag._type(), curFlag._addr());
+        flags.add(info);
+        flagMap.put(name, info);
+      }
+      curFlag.setAddress(curFlag.getAddress() + flagSize);
+    }
+    this.flagArray = flags.toArray(new FlagInfo[flags.size()]);
+  }
+
+  private HotspotFlags(AddressSpace space, HotspotFlags other) {
+    this.space = space;
+    this.flagMap = other.flagMap;
+    this.flagArray = other.flagArray;
+  }
+
+  /**
+   * Get a copy of these flags that reads values through a different address space
+   */
+  public HotspotFlags withAddressSpace(AddressSpace space) {
+    return new HotspotFlags(space, this);
+  }
+
+  public boolean contains(String name) {
+    return flagMap.containsKey(name);
+  }
+
+  /**
+   * Look up a flag by name, or return null if this VM doesn't have it
+   */
+  public FlagInfo getFlag(String name) {
+    return flagMap.get(name);
+  }
+
+  /**
+   * Look up a flag by its index, which ranges from 0 to <code>getFlagCount() - 1</code>
+   */
+  public FlagInfo getFlag(int index) {
+    return flagArray[index];
+  }
+
+  public int getFlagCount() {
+    return flagArray.length;
+  }
+
+  public boolean getBoolean(String name) {
+    return space.getBoolean(checkType(name, "bool").address);
+  }
+
+  /**
+   * Get an intx flag, which is pointer sized and signed
+   */
+  public long getIntx(String name) {
+    return getWord(checkType(name, "intx"));
+  }
+
+  /**
+   * Get a uintx flag, which is pointer sized and unsigned
+   */
+  public long getUintx(String name) {
+    return getWord(checkType(name, "uintx"));
+  }
+
+  public long getUint64(String name) {
+    return space.getLong(checkType(name, "uint64_t").address);
+  }
+
+  public double getDouble(String name) {
+    return Double.longBitsToDouble(space.getLong(checkType(name, "double").address));
+  }
+
+  /**
+   * Get a ccstr or ccstrlist flag, which may be null
+   */
+  public String getString(String name) {
+    FlagInfo flag = getExisting(name);
+    if (!flag.type.equals("ccstr") && !flag.type.equals("ccstrlist")) {
+      throw new IllegalArgumentException("Flag " + name + " has type " + flag.type + ", not ccstr");
+    }
+    return space.getAsciiString(flag.address);
+  }
+
+  /**
+   * Read the current value of a flag as a Boolean, Long, Double or String, depending on its type. Returns null for a
+   * null string, or for a flag of a type we don't know how to decode.
+   */
+  public Object getValue(FlagInfo flag) {
+    switch (flag.type) {
+      case "bool":
+        return space.getBoolean(flag.address);
+      case "intx":
+      case "uintx":
+        return getWord(flag);
+      case "uint64_t":
+        return space.getLong(flag.address);
+      case "double":
+        return Double.longBitsToDouble(space.getLong(flag.address));
+      case "ccstr":
+      case "ccstrlist":
+        return space.getAsciiString(flag.address);
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * Read the current value of every flag, keyed by name in the order of the VM's flag table
+   */
+  public Map<String, Object> snapshot() {
+    Map<String, Object> values = new LinkedHashMap<>();
+    for (FlagInfo flag : flagArray) {
+      values.put(flag.name, getValue(flag));
+    }
+    return Collections.unmodifiableMap(values);
+  }
+
+  private long getWord(FlagInfo flag) {
+    if (space.getPointerSize() == 8) {
+      return space.getLong(flag.address);
+    } else if (flag.type.equals("uintx")) {
+      return Integer.toUnsignedLong(space.getInt(flag.address));
+    } else {
+      return space.getInt(flag.address);
+    }
+  }
+
+  private FlagInfo getExisting(String name) {
+    FlagInfo flag = flagMap.get(name);
+    if (flag == null) {
+      throw new IllegalArgumentException("No such flag " + name);
+    }
+    return flag;
+  }
+
+  private FlagInfo checkType(String name, String type) {
+    FlagInfo flag = getExisting(name);
+    if (!flag.type.equals(type)) {
+      throw new IllegalArgumentException("Flag " + name + " has type " + flag.type + ", not " + type);
+    }
+    return flag;
+  }
+
+  public static final class FlagInfo {
+    private final int index;
+    private final String name;
+    private final String type;
+    private final long address;
+
+    FlagInfo(int index, String name, String type, long address) {
+      this.index = index;
+      this.name = name;
+      this.type = type;
+      this.address = address;
+    }
+
+    public int getIndex() {
+      return index;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    /**
+     * The C++ type of the flag, e.g. bool, intx, uintx, uint64_t, double, ccstr or ccstrlist
+     */
+    public String getType() {
+      return type;
+    }
+
+    /**
+     * The address of the variable that holds the flag's value
+     */
+    public long getAddress() {
+      return address;
+    }
+
+    @Override
+    public String toString() {
+      return type + " " + name;
+    }
+  }
+}
@@ -1,62 +1,114 @@
 package com.addepar.heapdump.inspect;
 
+import com.addepar.heapdump.inspect.inferior.AddressNotMappedException;
 import com.addepar.heapdump.inspect.struct.Abstract_VM_Version;
+import com.addepar.heapdump.inspect.struct.BlockOffsetArrayContigSpace;
+import com.addepar.heapdump.inspect.struct.BlockOffsetArrayNonContigSpace;
 import com.addepar.heapdump.inspect.struct.CollectedHeap;
 import com.addepar.heapdump.inspect.struct.CompactibleFreeListSpace;
 import com.addepar.heapdump.inspect.struct.ConcurrentMarkSweepGeneration;
+import com.addepar.heapdump.inspect.struct.ContiguousSpace;
 import com.addepar.heapdump.inspect.struct.DefNewGeneration;
 import com.addepar.heapdump.inspect.struct.FreeChunk;
 import com.addepar.heapdump.inspect.struct.G1CollectedHeap;
 import com.addepar.heapdump.inspect.struct.G1HeapRegionTable;
+import com.addepar.heapdump.inspect.struct.G1MonitoringSupport;
 import com.addepar.heapdump.inspect.struct.GenCollectedHeap;
 import com.addepar.heapdump.inspect.struct.Generation;
 import com.addepar.heapdump.inspect.struct.HeapRegion;
 import com.addepar.heapdump.inspect.struct.JavaThread;
 import com.addepar.heapdump.inspect.struct.Klass;
+import com.addepar.heapdump.inspect.struct.MutableSpace;
+import com.addepar.heapdump.inspect.struct.OffsetTableContigSpace;
 import com.addepar.heapdump.inspect.struct.OneContigSpaceCardGeneration;
+import com.addepar.heapdump.inspect.struct.PSOldGen;
 import com.addepar.heapdump.inspect.struct.ParallelScavengeHeap;
 import com.addepar.heapdump.inspect.struct.ThreadLocalAllocBuffer;
 import com.addepar.heapdump.inspect.struct.Threads;
 import com.addepar.heapdump.inspect.struct.oopDesc;
-import com.google.common.collect.Range;
-import com.google.common.collect.RangeSet;
-import com.google.common.collect.TreeRangeSet;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongUnaryOperator;
 
 /**
  * Logic to access the hotspot VM's heap
  */
 public class HotspotHeap {
 
+  /**
+   * Returned by <code>readGcEpoch</code> while a collection is running
+   */
+  public static final long GC_IN_PROGRESS = -1;
+
+  /**
+   * CMS spaces are cut into pieces at least this big for walking in parallel
+   */
+  private static final long MIN_CMS_PIECE_SIZE = 16L << 20;
+
+  /**
+   * More pieces than threads, so that a thread that gets a piece full of small objects doesn't hold up the rest
+   */
+  private static final int CMS_PIECES_PER_THREAD = 4;
+
+  private static final long UNKNOWN_BLOCK_START = -1;
+
   private final Hotspot hotspot;
+  private final int threads;
+
+  /**
+   * The live ranges of each CMS space, keyed by the address of the space, for the address space generation in
+   * <code>cmsCacheGeneration</code>. Finding them means walking the whole space, so it's only done once per reset.
+   */
+  private final Long2ObjectOpenHashMap<long[]> cmsLiveRanges = new Long2ObjectOpenHashMap<>();
+  private int cmsCacheGeneration = -1;
 
   public HotspotHeap(Hotspot hotspot) {
+    this(hotspot, Runtime.getRuntime().availableProcessors());
+  }
+
+  public HotspotHeap(Hotspot hotspot, int threads) {
     this.hotspot = hotspot;
+    this.threads = threads;
   }
 
-  public RangeSet<Long> collectLiveRegions() {
+  /**
+   * The parts of the heap that may contain objects, leaving out free chunks and the unused ends of TLABs. The result
+   * belongs to the caller.
+   */
+  public LongIntervalSet collectLiveRegions() {
     HotspotStructs structs = hotspot.getStructs();
     CollectedHeap heap = hotspot.getUniverse()._collectedHeap();
 
-    RangeSet<Long> ranges = TreeRangeSet.create();
+    LongArrayList starts = new LongArrayList();
+    LongArrayList ends = new LongArrayList();
 
     if (heap.isInstanceOf(ParallelScavengeHeap.class)) {
       ParallelScavengeHeap parallelScavengeHeap = heap.dynamicCast(ParallelScavengeHeap.class);
-      ranges.add(parallelScavengeHeap._young_gen()._eden_space().getLiveRange());
-      ranges.add(parallelScavengeHeap._young_gen()._from_space().getLiveRange());
-      ranges.add(parallelScavengeHeap._old_gen()._object_space().getLiveRange());
+      addSpace(starts, ends, parallelScavengeHeap._young_gen()._eden_space());
+      addSpace(starts, ends, parallelScavengeHeap._young_gen()._from_space());
+      addSpace(starts, ends, parallelScavengeHeap._old_gen()._object_space());
     } else if (heap.isInstanceOf(GenCollectedHeap.class)) {
       GenCollectedHeap genCollectedHeap = heap.dynamicCast(GenCollectedHeap.class);
       for (int i = 0; i < genCollectedHeap._n_gens(); i++) {
         Generation generation = genCollectedHeap.generation(i, hotspot);
         if (generation.isInstanceOf(DefNewGeneration.class)) {
           DefNewGeneration newGeneration = generation.dynamicCast(DefNewGeneration.class);
-          ranges.add(newGeneration._eden_space().getLiveRange());
-          ranges.add(newGeneration._from_space().getLiveRange());
+          addSpace(starts, ends, newGeneration._eden_space());
+          addSpace(starts, ends, newGeneration._from_space());
         } else if (generation.isInstanceOf(OneContigSpaceCardGeneration.class)) {
           OneContigSpaceCardGeneration contigGen = generation.dynamicCast(OneContigSpaceCardGeneration.class);
-          ranges.add(contigGen._the_space().getLiveRange());
+          addSpace(starts, ends, contigGen._the_space());
         } else if (generation.isInstanceOf(ConcurrentMarkSweepGeneration.class)) {
-          addCmsRanges(ranges, generation.dynamicCast(ConcurrentMarkSweepGeneration.class));
+          addCmsRanges(starts, ends, generation.dynamicCast(ConcurrentMarkSweepGeneration.class));
         } else {
           throw new UnsupportedOperationException("GenCollectedHeap had unhandled generation type "
               + structs.getDynamicType(generation));
@@ -64,12 +116,14 @@ public class HotspotHeap {
       }
     } else if (heap.isInstanceOf(G1CollectedHeap.class)) {
       G1CollectedHeap g1Heap = heap.dynamicCast(G1CollectedHeap.class);
-      addG1Ranges(ranges, g1Heap);
+      addG1Ranges(starts, ends, g1Heap);
     } else {
       throw new UnsupportedOperationException("We don't know how to handle heaps of type "
           + structs.getDynamicType(heap));
     }
 
+    LongIntervalSet ranges = LongIntervalSet.fromUnsorted(starts.elements(), ends.elements(), starts.size());
+
     if (hotspot.useTLAB()) {
 
       // There is a reserved area at the end of the TLAB that isn't explicitly inside the _end()
@@ -80,54 +134,435 @@ public class HotspotHeap {
       long reserve = hotspot.alignUp(Math.max(minFillerArraySize, reserveForAllocationPrefetch),
           hotspot.getMinObjAlignmentInBytes());
 
-      for (JavaThread thread = structs.staticStruct(Threads.class)._thread_list();
+      LongArrayList unusedStarts = new LongArrayList();
+      LongArrayList unusedEnds = new LongArrayList();
+      JavaThread thread = structs.staticStruct(JavaThread.class);
+      ThreadLocalAllocBuffer tlab = structs.staticStruct(ThreadLocalAllocBuffer.class);
+      for (structs.staticStruct(Threads.class)._thread_list(thread);
            thread.getAddress() != 0;
-           thread = thread._next()) {
+           thread._next(thread)) {
 
-        ThreadLocalAllocBuffer tlab = thread._tlab();
+        thread._tlab(tlab);
         if (tlab._start() != 0 && tlab._top() != 0 && tlab._end() != 0) {
-          long hardEnd = tlab._end() + reserve;
-          ranges.remove(Range.closedOpen(tlab._top(), hardEnd));
+          unusedStarts.add(tlab._top());
+          unusedEnds.add(tlab._end() + reserve);
         }
       }
+      ranges.removeAll(
+          LongIntervalSet.fromUnsorted(unusedStarts.elements(), unusedEnds.elements(), unusedStarts.size()));
     }
 
     return ranges;
   }
 
-  private void addCmsRanges(RangeSet<Long> ranges, ConcurrentMarkSweepGeneration generation) {
+  private static void addSpace(LongArrayList starts, LongArrayList ends, ContiguousSpace space) {
+    starts.add(space._bottom());
+    ends.add(space._top());
+  }
+
+  private static void addSpace(LongArrayList starts, LongArrayList ends, MutableSpace space) {
+    starts.add(space._bottom());
+    ends.add(space._top());
+  }
+
+  private void addCmsRanges(LongArrayList starts, LongArrayList ends, ConcurrentMarkSweepGeneration generation) {
     CompactibleFreeListSpace space = generation._cmsSpace();
+    if (cmsCacheGeneration != hotspot.getAddressSpace().getGeneration()) {
+      cmsLiveRanges.clear();
+      cmsCacheGeneration = hotspot.getAddressSpace().getGeneration();
+    }
+    long[] liveRanges = cmsLiveRanges.get(space.getAddress());
+    if (liveRanges == null) {
+      liveRanges = walkCmsSpace(space);
+      cmsLiveRanges.put(space.getAddress(), liveRanges);
+    }
+    for (int i = 0; i < liveRanges.length; i += 2) {
+      starts.add(liveRanges[i]);
+      ends.add(liveRanges[i + 1]);
+    }
+  }
+
+  /**
+   * Find the parts of a CMS space that aren't free chunks, as an array of alternating starts and ends. The space is cut
+   * into pieces that are walked in parallel, each starting at the first block that the block offset table finds for
+   * it. A piece whose start doesn't match where the walk of the previous piece ended is walked again. Anything that
+   * can't be walked is treated as live.
+   */
+  private long[] walkCmsSpace(CompactibleFreeListSpace space) {
+    long bottom = space._bottom();
+    long end = space._end();
+    int cardSize = hotspot.getConstants().getIntConstant("BlockOffsetSharedArray::N_bytes");
+    long pieceSize = hotspot.alignUp(Math.max(MIN_CMS_PIECE_SIZE, (end - bottom) / (CMS_PIECES_PER_THREAD * threads)),
+        cardSize);
+
+    List<CmsPiece> pieces = new ArrayList<>();
+    for (long start = bottom; start < end; start += pieceSize) {
+      pieces.add(new CmsPiece(start, Math.min(start + pieceSize, end)));
+    }
+    if (pieces.size() > 1) {
+      walkCmsPiecesInParallel(space.getAddress(), pieces);
+    }
+
+    LongArrayList freeRanges = new LongArrayList();
+    long expected = bottom;
+    for (CmsPiece piece : pieces) {
+      if (expected == UNKNOWN_BLOCK_START) {
+        // The walk of the previous piece hit garbage, so take this piece's own walk on faith. If it doesn't have one
+        // either, all of it is treated as live.
+        if (!piece.walked) {
+          continue;
+        }
+      } else if (!piece.walked || piece.start != expected) {
+        piece.freeRanges.clear();
+        piece.start = expected;
+        try {
+          piece.end = walkCmsBlocks(hotspot, expected, piece.limit, end, piece.freeRanges);
+        } catch (RuntimeException e) {
+          // Typically a block that was changing under the concurrent sweeper of a live process
+          expected = UNKNOWN_BLOCK_START;
+          continue;
+        }
+      }
+      freeRanges.addAll(piece.freeRanges);
+      expected = piece.end;
+    }
+
+    // The live ranges are the gaps between the free ones
+    LongArrayList liveRanges = new LongArrayList();
+    long liveStart = bottom;
+    for (int i = 0; i < freeRanges.size(); i += 2) {
+      if (freeRanges.getLong(i) > liveStart) {
+        liveRanges.add(liveStart);
+        liveRanges.add(freeRanges.getLong(i));
+      }
+      liveStart = Math.max(liveStart, freeRanges.getLong(i + 1));
+    }
+    if (end > liveStart) {
+      liveRanges.add(liveStart);
+      liveRanges.add(end);
+    }
+    return liveRanges.toLongArray();
+  }
 
+  private void walkCmsPiecesInParallel(long spaceAddress, List<CmsPiece> pieces) {
+    AtomicInteger nextPiece = new AtomicInteger(1); // the first piece starts at the bottom, so it's walked afterwards
+    ExecutorService executor = Executors.newFixedThreadPool(threads,
+        new ThreadFactoryBuilder().setNameFormat("cms-walker-%d").setDaemon(true).build());
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (int i = 0; i < threads; i++) {
+        Hotspot fork = hotspot.fork();
+        CompactibleFreeListSpace space = fork.getStructs().structAt(spaceAddress, CompactibleFreeListSpace.class);
+        BlockOffsetArrayNonContigSpace blockOffsetTable = space._bt();
+        long spaceEnd = space._end();
+        futures.add(executor.submit(() -> {
+          for (int index = nextPiece.getAndIncrement(); index < pieces.size(); index = nextPiece.getAndIncrement()) {
+            CmsPiece piece = pieces.get(index);
+            try {
+              long start = blockOffsetTable.blockStartAtOrBefore(piece.start, fork);
+              start = walkCmsBlocks(fork, start, piece.start, spaceEnd, null);
+              piece.start = start;
+              piece.end = walkCmsBlocks(fork, start, piece.limit, spaceEnd, piece.freeRanges);
+              piece.walked = true;
+            } catch (RuntimeException e) {
+              // Most likely a stale table entry. The piece gets walked from where the previous one ended instead.
+            }
+          }
+        }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    } catch (ExecutionException e) {
+      throw new RuntimeException(e.getCause());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Walk the blocks (objects and free chunks) of a CMS space from <code>start</code> until reaching
+   * <code>limit</code>, adding the free chunks to <code>freeRanges</code> if it isn't null. Returns the start of the
+   * first block at or after the limit.
+   */
+  private static long walkCmsBlocks(Hotspot hotspot, long start, long limit, long spaceEnd, LongArrayList freeRanges) {
     FreeChunk freeChunk = hotspot.getStructs().staticStruct(FreeChunk.class);
     oopDesc oop = hotspot.getStructs().staticStruct(oopDesc.class);
     Klass klass = hotspot.getStructs().staticStruct(Klass.class);
+    long minChunkSize = hotspot.getHeap().cmsMinChunkSize();
 
-    long minChunkSize = hotspot.alignUp(hotspot.getTypes().getType("FreeChunk").getSize(),
-        hotspot.getMinObjAlignmentInBytes());
-
-    ranges.add(Range.closedOpen(space._bottom(), space._end()));
-    for (long cur = space._bottom(); cur < space._end();) {
+    long cur = start;
+    while (cur < limit) {
       freeChunk.setAddress(cur);
+      long size;
       if (freeChunk.isFreeChunk(hotspot)) {
-        ranges.remove(Range.closedOpen(cur, cur + freeChunk.size(hotspot)));
-        cur += freeChunk.size(hotspot);
+        size = freeChunk.size(hotspot);
+        if (freeRanges != null && size > 0) {
+          freeRanges.add(cur);
+          freeRanges.add(cur + size);
+        }
       } else {
         oop.setAddress(cur);
         oop.getKlass(hotspot, klass);
-        cur += Math.max(oop.getObjectSize(hotspot, klass), minChunkSize);
+        size = Math.max(oop.getObjectSize(hotspot, klass), minChunkSize);
+      }
+      if (size <= 0 || cur + size > spaceEnd) {
+        throw new IllegalStateException("Bad CMS block size " + size + " at 0x" + Long.toHexString(cur));
+      }
+      cur += size;
+    }
+    return cur;
+  }
+
+  /**
+   * The spaces managed by CMS, if any. Objects in these spaces are padded out to at least <code>cmsMinChunkSize</code>
+   * bytes, so that any of them can be turned into a free chunk.
+   */
+  public LongIntervalSet collectCmsSpaces() {
+    LongIntervalSet ranges = new LongIntervalSet();
+    CollectedHeap heap = hotspot.getUniverse()._collectedHeap();
+    if (heap.isInstanceOf(GenCollectedHeap.class)) {
+      GenCollectedHeap genCollectedHeap = heap.dynamicCast(GenCollectedHeap.class);
+      for (int i = 0; i < genCollectedHeap._n_gens(); i++) {
+        Generation generation = genCollectedHeap.generation(i, hotspot);
+        if (generation.isInstanceOf(ConcurrentMarkSweepGeneration.class)) {
+          CompactibleFreeListSpace space = generation.dynamicCast(ConcurrentMarkSweepGeneration.class)._cmsSpace();
+          ranges.add(space._bottom(), space._end());
+        }
+      }
+    }
+    return ranges;
+  }
+
+  /**
+   * Every space that objects can be allocated in, from its bottom to its end, whether or not it's in use. For G1, that's
+   * each committed region. The result belongs to the caller.
+   */
+  public LongIntervalSet collectCommittedSpaces() {
+    HotspotStructs structs = hotspot.getStructs();
+    CollectedHeap heap = hotspot.getUniverse()._collectedHeap();
+    LongIntervalSet ranges = new LongIntervalSet();
+
+    if (heap.isInstanceOf(ParallelScavengeHeap.class)) {
+      ParallelScavengeHeap parallelScavengeHeap = heap.dynamicCast(ParallelScavengeHeap.class);
+      for (MutableSpace space : new MutableSpace[] {parallelScavengeHeap._young_gen()._eden_space(),
+          parallelScavengeHeap._young_gen()._from_space(), parallelScavengeHeap._young_gen()._to_space(),
+          parallelScavengeHeap._old_gen()._object_space()}) {
+        ranges.add(space._bottom(), space._end());
+      }
+    } else if (heap.isInstanceOf(GenCollectedHeap.class)) {
+      GenCollectedHeap genCollectedHeap = heap.dynamicCast(GenCollectedHeap.class);
+      for (int i = 0; i < genCollectedHeap._n_gens(); i++) {
+        Generation generation = genCollectedHeap.generation(i, hotspot);
+        if (generation.isInstanceOf(DefNewGeneration.class)) {
+          DefNewGeneration newGeneration = generation.dynamicCast(DefNewGeneration.class);
+          for (ContiguousSpace space : new ContiguousSpace[] {newGeneration._eden_space(),
+              newGeneration._from_space(), newGeneration._to_space()}) {
+            ranges.add(space._bottom(), space._end());
+          }
+        } else if (generation.isInstanceOf(OneContigSpaceCardGeneration.class)) {
+          ContiguousSpace space = generation.dynamicCast(OneContigSpaceCardGeneration.class)._the_space();
+          ranges.add(space._bottom(), space._end());
+        } else if (generation.isInstanceOf(ConcurrentMarkSweepGeneration.class)) {
+          CompactibleFreeListSpace space = generation.dynamicCast(ConcurrentMarkSweepGeneration.class)._cmsSpace();
+          ranges.add(space._bottom(), space._end());
+        } else {
+          throw new UnsupportedOperationException("GenCollectedHeap had unhandled generation type "
+              + structs.getDynamicType(generation));
+        }
+      }
+    } else if (heap.isInstanceOf(G1CollectedHeap.class)) {
+      long grainBytes = structs.staticStruct(HeapRegion.class).GrainBytes();
+      for (G1Region region : walkG1Regions(heap.dynamicCast(G1CollectedHeap.class), new LongIntervalSet())) {
+        ranges.add(region.getBottom(), region.getBottom() + grainBytes);
+      }
+    } else {
+      throw new UnsupportedOperationException("We don't know how to handle heaps of type "
+          + structs.getDynamicType(heap));
+    }
+    return ranges;
+  }
+
+  /**
+   * The number of collections that have started so far, or <code>GC_IN_PROGRESS</code> while one is running. This reads
+   * the inferior instead of the page cache, so that it can be polled around a batch of reads: if it's the same before
+   * and after, and not <code>GC_IN_PROGRESS</code>, then no collection moved anything in between. Concurrent phases
+   * like CMS sweeping and G1 marking don't count as collections, so they aren't detected.
+   */
+  public long readGcEpoch() {
+    CollectedHeap heap = hotspot.getUniverse()._collectedHeap();
+    hotspot.getAddressSpace().invalidate(heap.getAddress(), hotspot.getTypes().getType("CollectedHeap").getSize());
+    if (heap._is_gc_active()) {
+      return GC_IN_PROGRESS;
+    }
+    return Integer.toUnsignedLong(heap._total_collections());
+  }
+
+  public long cmsMinChunkSize() {
+    return hotspot.alignUp(hotspot.getTypes().getType("FreeChunk").getSize(), hotspot.getMinObjAlignmentInBytes());
+  }
+
+  /**
+   * Find the tables that the collector keeps of where objects start: the block offset tables of the serial tenured
+   * space and of CMS spaces, and the start array of the parallel old generation. Young spaces don't have one, and JDK 8
+   * doesn't export the fields of G1's, so the locator returns <code>ObjectStartLocator.UNKNOWN</code> for those. The
+   * locator reads through this <code>Hotspot</code>, and is only good until the next reset.
+   */
+  public ObjectStartLocator collectObjectStartLocator() {
+    CollectedHeap heap = hotspot.getUniverse()._collectedHeap();
+    TableObjectStartLocator locator = new TableObjectStartLocator(hotspot);
+
+    if (heap.isInstanceOf(ParallelScavengeHeap.class)) {
+      PSOldGen oldGen = heap.dynamicCast(ParallelScavengeHeap.class)._old_gen();
+      ObjectStartArray startArray = ObjectStartArray.find(hotspot, oldGen);
+      if (startArray != null) {
+        MutableSpace space = oldGen._object_space();
+        locator.addSpace(space._bottom(), space._top(), startArray::blockStartAtOrBefore, false);
       }
+    } else if (heap.isInstanceOf(GenCollectedHeap.class)) {
+      GenCollectedHeap genCollectedHeap = heap.dynamicCast(GenCollectedHeap.class);
+      for (int i = 0; i < genCollectedHeap._n_gens(); i++) {
+        Generation generation = genCollectedHeap.generation(i, hotspot);
+        if (generation.isInstanceOf(OneContigSpaceCardGeneration.class)) {
+          ContiguousSpace space = generation.dynamicCast(OneContigSpaceCardGeneration.class)._the_space();
+          if (space.isInstanceOf(OffsetTableContigSpace.class)) {
+            BlockOffsetArrayContigSpace offsets = space.dynamicCast(OffsetTableContigSpace.class)._offsets();
+            locator.addSpace(space._bottom(), space._top(),
+                address -> offsets.blockStartAtOrBefore(address, hotspot), false);
+          }
+        } else if (generation.isInstanceOf(ConcurrentMarkSweepGeneration.class)) {
+          CompactibleFreeListSpace space = generation.dynamicCast(ConcurrentMarkSweepGeneration.class)._cmsSpace();
+          BlockOffsetArrayNonContigSpace offsets = space._bt();
+          locator.addSpace(space._bottom(), space._end(),
+              address -> offsets.blockStartAtOrBefore(address, hotspot), true);
+        }
+      }
+    }
+    return locator;
+  }
+
+  private void addG1Ranges(LongArrayList starts, LongArrayList ends, G1CollectedHeap heap) {
+    LongIntervalSet humongousObjects = new LongIntervalSet();
+    for (G1Region region : walkG1Regions(heap, humongousObjects)) {
+      if (region.getType() == G1RegionType.IN_USE) {
+        starts.add(region.getBottom());
+        ends.add(region.getTop());
+      }
+    }
+    // Each humongous object is one range, so that nothing tries to parse the regions it continues into
+    for (int i = 0; i < humongousObjects.size(); i++) {
+      starts.add(humongousObjects.getStart(i));
+      ends.add(humongousObjects.getEnd(i));
+    }
+  }
+
+  /**
+   * The committed regions of a G1 heap in address order, or an empty list for other collectors
+   */
+  public List<G1Region> collectG1Regions() {
+    CollectedHeap heap = hotspot.getUniverse()._collectedHeap();
+    if (!heap.isInstanceOf(G1CollectedHeap.class)) {
+      return new ArrayList<>();
+    }
+    return walkG1Regions(heap.dynamicCast(G1CollectedHeap.class), new LongIntervalSet());
+  }
+
+  /**
+   * The humongous objects of a G1 heap, each of which fills one or more regions. An object finder that knows about
+   * them doesn't have to search backwards through the regions to find where they start.
+   */
+  public LongIntervalSet collectHumongousObjects() {
+    LongIntervalSet humongousObjects = new LongIntervalSet();
+    CollectedHeap heap = hotspot.getUniverse()._collectedHeap();
+    if (heap.isInstanceOf(G1CollectedHeap.class)) {
+      walkG1Regions(heap.dynamicCast(G1CollectedHeap.class), humongousObjects);
+    }
+    return humongousObjects;
+  }
+
+  /**
+   * How much of a G1 heap each kind of region is using, or null for other collectors
+   */
+  public G1Occupancy collectG1Occupancy() {
+    CollectedHeap heap = hotspot.getUniverse()._collectedHeap();
+    if (!heap.isInstanceOf(G1CollectedHeap.class)) {
+      return null;
     }
+    G1CollectedHeap g1Heap = heap.dynamicCast(G1CollectedHeap.class);
+    LongIntervalSet humongousObjects = new LongIntervalSet();
+    int[] regionCounts = new int[G1RegionType.values().length];
+    for (G1Region region : walkG1Regions(g1Heap, humongousObjects)) {
+      regionCounts[region.getType().ordinal()]++;
+    }
+    G1MonitoringSupport monitoring = g1Heap._g1mm();
+    long humongousUsed = humongousObjects.totalLength();
+    return new G1Occupancy(hotspot.getStructs().staticStruct(HeapRegion.class).GrainBytes(), regionCounts,
+        monitoring._eden_used(), monitoring._survivor_used(), Math.max(0, monitoring._old_used() - humongousUsed),
+        humongousUsed);
   }
 
-  private void addG1Ranges(RangeSet<Long> ranges, G1CollectedHeap heap) {
+  /**
+   * Classify each committed region. The region types aren't in JDK 8's vmStructs, so a humongous object is recognized
+   * by its size: G1 puts any object of more than half a region into regions of its own, starting at the bottom of the
+   * first one. An object of exactly half a region, such as the filler of a maximum size TLAB, is an ordinary one. Note
+   * that the first region's <code>_end</code> is stretched over the whole object.
+   */
+  private List<G1Region> walkG1Regions(G1CollectedHeap heap, LongIntervalSet humongousObjects) {
     G1HeapRegionTable regionTable = heap._hrm()._regions();
     long arrayAddress = regionTable._base();
+    HeapRegion region = hotspot.getStructs().staticStruct(HeapRegion.class);
+    long grainBytes = region.GrainBytes();
+    OopFinder finder = new OopFinder(hotspot);
+    oopDesc oop = hotspot.getStructs().staticStruct(oopDesc.class);
+    Klass klass = hotspot.getStructs().staticStruct(Klass.class);
+
+    List<G1Region> regions = new ArrayList<>();
+    int humongousStartIndex = -1;
+    long humongousEnd = 0;
     for (int i = 0; i < regionTable._length(); i++) {
-      long region = hotspot.getAddressSpace().getPointer(arrayAddress + i * hotspot.getAddressSpace().getPointerSize());
-      if (region != 0) {
-        ranges.add(hotspot.getStructs().structAt(region, HeapRegion.class).getLiveRange());
+      long regionAddress =
+          hotspot.getAddressSpace().getPointer(arrayAddress + i * hotspot.getAddressSpace().getPointerSize());
+      if (regionAddress == 0) {
+        continue; // not committed
+      }
+      region.setAddress(regionAddress);
+      long bottom = region._bottom();
+      long top = region._top();
+      long end = bottom + grainBytes;
+
+      if (bottom < humongousEnd) {
+        regions.add(new G1Region(i, bottom, Math.min(end, humongousEnd), G1RegionType.HUMONGOUS_CONTINUES,
+            humongousStartIndex));
+        continue;
+      }
+      if (top == bottom) {
+        regions.add(new G1Region(i, bottom, top, G1RegionType.FREE, -1));
+        continue;
+      }
+
+      long firstObjectSize = 0;
+      try {
+        oop.setAddress(bottom);
+        oop.getKlass(hotspot, klass);
+        if (finder.isLikelyKlass(klass)) {
+          firstObjectSize = oop.getObjectSize(hotspot, klass);
+        }
+      } catch (AddressNotMappedException e) {
+        // treat it as an ordinary region
+      }
+      if (firstObjectSize > grainBytes / 2) {
+        humongousStartIndex = i;
+        humongousEnd = bottom + firstObjectSize;
+        humongousObjects.add(bottom, humongousEnd);
+        regions.add(new G1Region(i, bottom, Math.min(end, humongousEnd), G1RegionType.HUMONGOUS_START, i));
+      } else {
+        regions.add(new G1Region(i, bottom, top, G1RegionType.IN_USE, -1));
       }
     }
+    return regions;
   }
 
   /**
@@ -136,4 +571,219 @@ public class HotspotHeap {
   private long arrayHeaderSize() {
     return hotspot.alignUp(hotspot.arrayLengthOffset() + 4, hotspot.getConstants().getHeapWordSize());
   }
+
+  /**
+   * A piece of a CMS space. Before walking, <code>start</code> is where the piece begins; after, it's the first block
+   * in the piece. Pieces that weren't walked in parallel (or failed) are walked afterwards.
+   */
+  private static final class CmsPiece {
+    final long limit;
+    final LongArrayList freeRanges = new LongArrayList();
+    long start;
+    long end;
+    boolean walked;
+
+    CmsPiece(long start, long limit) {
+      this.start = start;
+      this.limit = limit;
+    }
+  }
+
+  /**
+   * Looks up the space containing an address, asks its table for a block at or before the address, and walks forward
+   * from there. In a CMS space, the blocks include free chunks.
+   */
+  private static final class TableObjectStartLocator implements ObjectStartLocator {
+    private final Hotspot hotspot;
+    private final LongIntervalSet spaces = new LongIntervalSet();
+    private final Long2ObjectOpenHashMap<LongUnaryOperator> tables = new Long2ObjectOpenHashMap<>();
+    private final LongIntervalSet cmsSpaces = new LongIntervalSet();
+    private final long minChunkSize;
+    private final FreeChunk freeChunk;
+    private final oopDesc oop;
+    private final Klass klass;
+
+    TableObjectStartLocator(Hotspot hotspot) {
+      this.hotspot = hotspot;
+      this.minChunkSize = hotspot.getHeap().cmsMinChunkSize();
+      this.freeChunk = hotspot.getStructs().staticStruct(FreeChunk.class);
+      this.oop = hotspot.getStructs().staticStruct(oopDesc.class);
+      this.klass = hotspot.getStructs().staticStruct(Klass.class);
+    }
+
+    void addSpace(long bottom, long top, LongUnaryOperator blockStartAtOrBefore, boolean cms) {
+      if (top > bottom) {
+        spaces.add(bottom, top);
+        tables.put(bottom, blockStartAtOrBefore);
+        if (cms) {
+          cmsSpaces.add(bottom, top);
+        }
+      }
+    }
+
+    @Override
+    public long findObjectStart(long address) {
+      int index = spaces.indexOf(address);
+      if (index < 0) {
+        return UNKNOWN;
+      }
+      long bottom = spaces.getStart(index);
+      boolean cms = cmsSpaces.contains(address);
+      long cur = tables.get(bottom).applyAsLong(address);
+      if (cur == UNKNOWN || cur < bottom || cur > address) {
+        return UNKNOWN;
+      }
+
+      while (true) {
+        long size;
+        boolean free = false;
+        if (cms) {
+          freeChunk.setAddress(cur);
+          free = freeChunk.isFreeChunk(hotspot);
+        }
+        if (free) {
+          size = freeChunk.size(hotspot);
+        } else {
+          oop.setAddress(cur);
+          oop.getKlass(hotspot, klass);
+          if (!isLikelyKlass()) {
+            return UNKNOWN; // garbage from an out of date table
+          }
+          size = oop.getObjectSize(hotspot, klass);
+          if (cms) {
+            size = Math.max(size, minChunkSize);
+          }
+        }
+        if (size <= 0) {
+          return UNKNOWN; // garbage from an out of date table
+        }
+        if (cur + size > address) {
+          return free ? UNKNOWN : cur;
+        }
+        cur += size;
+      }
+    }
+
+    /**
+     * Check <code>klass</code> before sizing by it, since only real Klasses may be given to the <code>KlassTable</code>
+     */
+    private boolean isLikelyKlass() {
+      return hotspot.getKlassTable().contains(klass.getAddress())
+          || (klass.getAddress() != 0
+          && hotspot.getAddressSpace().isMapped(klass.getAddress())
+          && hotspot.getStructs().isInstanceOf(klass, Klass.class));
+    }
+  }
+
+  /**
+   * What a G1 region holds, as far as can be told from JDK 8. Eden, survivor and old regions can't be told apart, so
+   * they're all IN_USE; <code>G1Occupancy</code> has the totals for each.
+   */
+  public enum G1RegionType {
+    /** Nothing has been allocated in it */
+    FREE,
+    IN_USE,
+    /** The first region of a humongous object, which starts at its bottom */
+    HUMONGOUS_START,
+    /** Any later region of a humongous object */
+    HUMONGOUS_CONTINUES
+  }
+
+  /**
+   * A committed G1 region. Immutable.
+   */
+  public static final class G1Region {
+    private final int index;
+    private final long bottom;
+    private final long top;
+    private final G1RegionType type;
+    private final int humongousStartIndex;
+
+    G1Region(int index, long bottom, long top, G1RegionType type, int humongousStartIndex) {
+      this.index = index;
+      this.bottom = bottom;
+      this.top = top;
+      this.type = type;
+      this.humongousStartIndex = humongousStartIndex;
+    }
+
+    /**
+     * The index of the region in the heap's region table
+     */
+    public int getIndex() {
+      return index;
+    }
+
+    public long getBottom() {
+      return bottom;
+    }
+
+    /**
+     * The end of the used part of the region. For a humongous region, that's as much of the object as is inside it.
+     */
+    public long getTop() {
+      return top;
+    }
+
+    public G1RegionType getType() {
+      return type;
+    }
+
+    /**
+     * The index of the region where the humongous object that fills this one starts, or -1 if it isn't humongous
+     */
+    public int getHumongousStartIndex() {
+      return humongousStartIndex;
+    }
+  }
+
+  /**
+   * Bytes used by each kind of G1 region. Eden, survivor and old come from the heap's monitoring support, so they're as
+   * of the last GC or new eden region; the humongous bytes are counted directly. Immutable.
+   */
+  public static final class G1Occupancy {
+    private final long regionSize;
+    private final int[] regionCounts;
+    private final long edenUsed;
+    private final long survivorUsed;
+    private final long oldUsed;
+    private final long humongousUsed;
+
+    G1Occupancy(long regionSize, int[] regionCounts, long edenUsed, long survivorUsed, long oldUsed,
+                long humongousUsed) {
+      this.regionSize = regionSize;
+      this.regionCounts = regionCounts;
+      this.edenUsed = edenUsed;
+      this.survivorUsed = survivorUsed;
+      this.oldUsed = oldUsed;
+      this.humongousUsed = humongousUsed;
+    }
+
+    public long getRegionSize() {
+      return regionSize;
+    }
+
+    public int getRegionCount(G1RegionType type) {
+      return regionCounts[type.ordinal()];
+    }
+
+    public long getEdenUsed() {
+      return edenUsed;
+    }
+
+    public long getSurvivorUsed() {
+      return survivorUsed;
+    }
+
+    /**
+     * Not counting humongous objects
+     */
+    public long getOldUsed() {
+      return oldUsed;
+    }
+
+    public long getHumongousUsed() {
+      return humongousUsed;
+    }
+  }
 }
@@ -1,9 +1,20 @@
 package com.addepar.heapdump.inspect;
 
 import com.addepar.heapdump.inspect.struct.Abstract_VM_Version;
+import com.addepar.heapdump.inspect.struct.ArrayKlass;
+import com.addepar.heapdump.inspect.struct.BlockOffsetArray;
+import com.addepar.heapdump.inspect.struct.BlockOffsetArrayContigSpace;
+import com.addepar.heapdump.inspect.struct.BlockOffsetArrayNonContigSpace;
+import com.addepar.heapdump.inspect.struct.BlockOffsetSharedArray;
+import com.addepar.heapdump.inspect.struct.BlockOffsetTable;
+import com.addepar.heapdump.inspect.struct.ClassLoaderData;
+import com.addepar.heapdump.inspect.struct.ClassLoaderDataGraph;
 import com.addepar.heapdump.inspect.struct.CollectedHeap;
 import com.addepar.heapdump.inspect.struct.CompactibleFreeListSpace;
 import com.addepar.heapdump.inspect.struct.ConcurrentMarkSweepGeneration;
+import com.addepar.heapdump.inspect.struct.ConstMethod;
+import com.addepar.heapdump.inspect.struct.ConstantPool;
+import com.addepar.heapdump.inspect.struct.ConstantPoolCache;
 import com.addepar.heapdump.inspect.struct.ContiguousSpace;
 import com.addepar.heapdump.inspect.struct.DefNewGeneration;
 import com.addepar.heapdump.inspect.struct.DynamicHotspotStruct;
@@ -11,6 +22,7 @@ import com.addepar.heapdump.inspect.struct.Flag;
 import com.addepar.heapdump.inspect.struct.FreeChunk;
 import com.addepar.heapdump.inspect.struct.G1CollectedHeap;
 import com.addepar.heapdump.inspect.struct.G1HeapRegionTable;
+import com.addepar.heapdump.inspect.struct.G1MonitoringSupport;
 import com.addepar.heapdump.inspect.struct.G1OffsetTableContigSpace;
 import com.addepar.heapdump.inspect.struct.GenCollectedHeap;
 import com.addepar.heapdump.inspect.struct.Generation;
@@ -18,9 +30,14 @@ import com.addepar.heapdump.inspect.struct.HeapRegion;
 import com.addepar.heapdump.inspect.struct.HeapRegionManager;
 import com.addepar.heapdump.inspect.struct.HotspotStruct;
 import com.addepar.heapdump.inspect.struct.ImmutableSpace;
+import com.addepar.heapdump.inspect.struct.InstanceKlass;
 import com.addepar.heapdump.inspect.struct.JavaThread;
 import com.addepar.heapdump.inspect.struct.Klass;
+import com.addepar.heapdump.inspect.struct.MemRegion;
+import com.addepar.heapdump.inspect.struct.MethodData;
 import com.addepar.heapdump.inspect.struct.MutableSpace;
+import com.addepar.heapdump.inspect.struct.ObjArrayKlass;
+import com.addepar.heapdump.inspect.struct.OffsetTableContigSpace;
 import com.addepar.heapdump.inspect.struct.OneContigSpaceCardGeneration;
 import com.addepar.heapdump.inspect.struct.PSOldGen;
 import com.addepar.heapdump.inspect.struct.PSYoungGen;
@@ -34,24 +51,29 @@ import com.addepar.heapdump.inspect.struct.Universe;
 import com.addepar.heapdump.inspect.struct.arrayOopDesc;
 import com.addepar.heapdump.inspect.struct.java_lang_Class;
 import com.addepar.heapdump.inspect.struct.oopDesc;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
 import org.objectweb.asm.ClassWriter;
-import org.objectweb.asm.FieldVisitor;
 import org.objectweb.asm.MethodVisitor;
 
-import java.lang.reflect.Constructor;
-import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
 
-import static org.objectweb.asm.Opcodes.ACC_PRIVATE;
 import static org.objectweb.asm.Opcodes.ACC_PUBLIC;
 import static org.objectweb.asm.Opcodes.ACC_SUPER;
 import static org.objectweb.asm.Opcodes.ALOAD;
@@ -59,6 +81,7 @@ import static org.objectweb.asm.Opcodes.ARETURN;
 import static org.objectweb.asm.Opcodes.DUP;
 import static org.objectweb.asm.Opcodes.GETFIELD;
 import static org.objectweb.asm.Opcodes.I2L;
+import static org.objectweb.asm.Opcodes.INVOKEINTERFACE;
 import static org.objectweb.asm.Opcodes.INVOKESPECIAL;
 import static org.objectweb.asm.Opcodes.INVOKEVIRTUAL;
 import static org.objectweb.asm.Opcodes.IRETURN;
@@ -66,21 +89,33 @@ import static org.objectweb.asm.Opcodes.LADD;
 import static org.objectweb.asm.Opcodes.LLOAD;
 import static org.objectweb.asm.Opcodes.LRETURN;
 import static org.objectweb.asm.Opcodes.NEW;
-import static org.objectweb.asm.Opcodes.PUTFIELD;
 import static org.objectweb.asm.Opcodes.RETURN;
 
 /**
  * Utilities for accessing HotSpot data structures
  */
 public class HotspotStructs {
+  private static final String GENERATED_STRUCT = GeneratedStruct.class.getName().replace('.', '/');
+  private static final String HOTSPOT_STRUCTS = HotspotStructs.class.getName().replace('.', '/');
+  private static final String CONSTRUCTOR_DESCRIPTOR = "(L" + HOTSPOT_STRUCTS + ";J)V";
+
+  /**
+   * Generated classes, keyed by a hash of their bytecode. Attaching to a VM with the same struct layout as one we've
+   * already seen reuses its classes, which are already loaded and compiled. Values are soft, so that classes nobody is
+   * using can be unloaded when memory gets tight.
+   */
+  private static final Cache<HashCode, GeneratedClasses> GENERATED_CLASSES = CacheBuilder.newBuilder()
+      .softValues()
+      .build();
 
   private final AddressSpace space;
   private final HotspotTypes types;
   private final HotspotConstants constants;
   private final Set<Class<? extends HotspotStruct>> structInterfaces;
-  private final Map<Class<? extends HotspotStruct>, Constructor<? extends HotspotStruct>> constructors;
+  private final GeneratedClasses generatedClasses;
+  private final long[] staticAddresses;
   private final Map<Class<? extends HotspotStruct>, HotspotTypes.TypeDescriptor> staticTypes;
-  private Map<FieldDescriptor, FieldInfo> fieldMap;
+  private final Map<FieldDescriptor, FieldInfo> fieldMap;
 
   public HotspotStructs(AddressSpace space, HotspotTypes types, HotspotConstants constants) {
     this.space = space;
@@ -89,26 +124,44 @@ public class HotspotStructs {
     this.fieldMap = generateFieldMap();
     this.structInterfaces = new HashSet<>(Arrays.asList(
         Abstract_VM_Version.class,
+        ArrayKlass.class,
         arrayOopDesc.class,
+        BlockOffsetArray.class,
+        BlockOffsetArrayContigSpace.class,
+        BlockOffsetArrayNonContigSpace.class,
+        BlockOffsetSharedArray.class,
+        BlockOffsetTable.class,
+        ClassLoaderData.class,
+        ClassLoaderDataGraph.class,
         CollectedHeap.class,
         CompactibleFreeListSpace.class,
         ConcurrentMarkSweepGeneration.class,
+        ConstantPool.class,
+        ConstantPoolCache.class,
+        ConstMethod.class,
         ContiguousSpace.class,
         DefNewGeneration.class,
         Flag.class,
         FreeChunk.class,
         G1CollectedHeap.class,
         G1HeapRegionTable.class,
+        G1MonitoringSupport.class,
         G1OffsetTableContigSpace.class,
         GenCollectedHeap.class,
         Generation.class,
         HeapRegion.class,
         HeapRegionManager.class,
         ImmutableSpace.class,
+        InstanceKlass.class,
         java_lang_Class.class,
         JavaThread.class,
         Klass.class,
+        MemRegion.class,
+        com.addepar.heapdump.inspect.struct.Method.class,
+        MethodData.class,
         MutableSpace.class,
+        ObjArrayKlass.class,
+        OffsetTableContigSpace.class,
         OneContigSpaceCardGeneration.class,
         oopDesc.class,
         ParallelScavengeHeap.class,
@@ -122,7 +175,30 @@ public class HotspotStructs {
         Universe.class
     ));
     this.staticTypes = generateStaticTypes();
-    this.constructors = generateImplementations();
+
+    // Static field addresses differ between processes, so they're kept out of the bytecode and looked up by index
+    LongArrayList staticAddressList = new LongArrayList();
+    this.generatedClasses = generateImplementations(staticAddressList);
+    this.staticAddresses = staticAddressList.toLongArray();
+  }
+
+  private HotspotStructs(AddressSpace space, HotspotTypes types, HotspotStructs other) {
+    this.space = space;
+    this.types = types;
+    this.constants = other.constants;
+    this.fieldMap = other.fieldMap;
+    this.structInterfaces = other.structInterfaces;
+    this.staticTypes = other.staticTypes;
+    this.generatedClasses = other.generatedClasses;
+    this.staticAddresses = other.staticAddresses;
+  }
+
+  /**
+   * Get a copy of these structs whose instances read through a different address space. The generated classes are
+   * shared.
+   */
+  public HotspotStructs withAddressSpace(AddressSpace space, HotspotTypes types) {
+    return new HotspotStructs(space, types, this);
   }
 
   public <T extends HotspotStruct> T staticStruct(Class<T> structInterface) {
@@ -130,16 +206,19 @@ public class HotspotStructs {
   }
 
   public <T extends HotspotStruct> T structAt(long address, Class<T> structInterface) {
-    Constructor<?> constructor = constructors.get(structInterface);
-    if (constructor == null) {
+    StructFactory factory = generatedClasses.factories.get(structInterface);
+    if (factory == null) {
       throw new IllegalStateException("Struct class " + structInterface + " has not been registered");
     }
-    try {
-      Object struct = constructor.newInstance(space, address);
-      return structInterface.cast(struct);
-    } catch (InstantiationException | IllegalAccessException | InvocationTargetException e) {
-      throw new RuntimeException(e);
-    }
+    return structInterface.cast(factory.newInstance(this, address));
+  }
+
+  public AddressSpace getAddressSpace() {
+    return space;
+  }
+
+  long getStaticAddress(int index) {
+    return staticAddresses[index];
   }
 
   /**
@@ -171,78 +250,121 @@ public class HotspotStructs {
    * Look up the offset an "unchecked" field, which has no type
    */
   public long offsetOf(String structName, String fieldName) {
-    FieldDescriptor descriptor = new FieldDescriptor(structName, fieldName, null);
+    return offsetOf(structName, fieldName, null);
+  }
+
+  /**
+   * Look up the offset of a field, given its type exactly as it appears in vmStructs
+   */
+  public long offsetOf(String structName, String fieldName, String typeString) {
+    FieldDescriptor descriptor = new FieldDescriptor(structName, fieldName, typeString);
     FieldInfo info = fieldMap.get(descriptor);
-    if (info.isStatic) {
+    if (info == null) {
+      throw new IllegalArgumentException("No field " + descriptor);
+    } else if (info.isStatic) {
       throw new IllegalStateException("Cannot get the offset of a static field");
     } else {
       return info.offset;
     }
   }
 
-  private Map<Class<? extends HotspotStruct>, Constructor<? extends HotspotStruct>> generateImplementations() {
-    Map<Class<? extends HotspotStruct>, Constructor<? extends HotspotStruct>> map = new HashMap<>();
-    AsmClassLoader loader = new AsmClassLoader(this, constants);
-    for (Class<? extends HotspotStruct> iface : structInterfaces) {
-      map.put(iface, generateImplementation(iface, loader));
+  /**
+   * Generate the bytecode for every struct implementation, then load it, unless identical bytecode has been loaded
+   * before
+   */
+  private GeneratedClasses generateImplementations(LongArrayList staticAddressList) {
+    // Generate in a fixed order, so that the same VM layout always produces the same bytecode
+    List<Class<? extends HotspotStruct>> sortedInterfaces = new ArrayList<>(structInterfaces);
+    sortedInterfaces.sort(Comparator.comparing(Class::getName));
+
+    Map<String, byte[]> classes = new LinkedHashMap<>();
+    Map<Class<? extends HotspotStruct>, String> factoryNames = new HashMap<>();
+    Hasher hasher = Hashing.sha256().newHasher();
+    for (Class<? extends HotspotStruct> iface : sortedInterfaces) {
+      String implName = iface.getName().replace('.', '/') + "Impl";
+      String factoryName = implName + "Factory";
+      classes.put(implName, generateImplementation(iface, implName, staticAddressList));
+      classes.put(factoryName, generateFactory(implName, factoryName));
+      factoryNames.put(iface, factoryName);
+    }
+    for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+      hasher.putUnencodedChars(entry.getKey());
+      hasher.putBytes(entry.getValue());
     }
-    return map;
-  }
 
-  private Constructor<? extends HotspotStruct> generateImplementation(Class<? extends HotspotStruct> iface,
-                                                                      AsmClassLoader loader) {
-    if (DynamicHotspotStruct.class.isAssignableFrom(iface) && !getStaticType(iface).isDynamic()) {
-      throw new IllegalStateException(iface.getSimpleName() + " is expected to have a vtable but one was not found");
+    try {
+      return GENERATED_CLASSES.get(hasher.hash(), () -> new GeneratedClasses(classes, factoryNames));
+    } catch (ExecutionException e) {
+      throw new RuntimeException(e.getCause());
     }
-
-    String ifaceName = iface.getName().replace('.', '/');
-    String implName = ifaceName + "Impl";
+  }
+  /**
+   * Generate a class that calls the Impl's constructor directly, so that creating a struct doesn't go through
+   * reflection
+   */
+  private static byte[] generateFactory(String implName, String factoryName) {
+    String factoryIface = StructFactory.class.getName().replace('.', '/');
 
     ClassWriter cw = new ClassWriter(0);
-    FieldVisitor fv;
     MethodVisitor mv;
 
-    // Header
-    cw.visit(52, ACC_PUBLIC + ACC_SUPER, implName, null, "java/lang/Object", new String[] { ifaceName });
-
-    // Local variables
-    fv = cw.visitField(ACC_PRIVATE, "addressSpace", "Lcom/addepar/heapdump/inspect/AddressSpace;", null, null);
-    fv.visitEnd();
-    fv = cw.visitField(ACC_PRIVATE, "address", "J", null, null);
-    fv.visitEnd();
+    cw.visit(52, ACC_PUBLIC + ACC_SUPER, factoryName, null, "java/lang/Object", new String[] { factoryIface });
 
-    // Constructor
-    mv = cw.visitMethod(ACC_PUBLIC, "<init>", "(Lcom/addepar/heapdump/inspect/AddressSpace;J)V", null, null);
+    mv = cw.visitMethod(ACC_PUBLIC, "<init>", "()V", null, null);
     mv.visitCode();
     mv.visitVarInsn(ALOAD, 0);
     mv.visitMethodInsn(INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
-    mv.visitVarInsn(ALOAD, 0);
-    mv.visitVarInsn(ALOAD, 1);
-    mv.visitFieldInsn(PUTFIELD, implName, "addressSpace", "Lcom/addepar/heapdump/inspect/AddressSpace;");
-    mv.visitVarInsn(ALOAD, 0);
-    mv.visitVarInsn(LLOAD, 2);
-    mv.visitFieldInsn(PUTFIELD, implName, "address", "J");
     mv.visitInsn(RETURN);
-    mv.visitMaxs(3, 4);
+    mv.visitMaxs(1, 1);
     mv.visitEnd();
 
-    // getAddress
-    mv = cw.visitMethod(ACC_PUBLIC, "getAddress", "()J", null, null);
+    // return new FooImpl(structs, address)
+    mv = cw.visitMethod(ACC_PUBLIC, "newInstance",
+        "(L" + HOTSPOT_STRUCTS + ";J)Lcom/addepar/heapdump/inspect/struct/HotspotStruct;", null, null);
     mv.visitCode();
-    mv.visitVarInsn(ALOAD, 0);
-    mv.visitFieldInsn(GETFIELD, implName, "address", "J");
-    mv.visitInsn(LRETURN);
-    mv.visitMaxs(2, 1);
+    mv.visitTypeInsn(NEW, implName);
+    mv.visitInsn(DUP);
+    mv.visitVarInsn(ALOAD, 1);
+    mv.visitVarInsn(LLOAD, 2);
+    mv.visitMethodInsn(INVOKESPECIAL, implName, "<init>", CONSTRUCTOR_DESCRIPTOR, false);
+    mv.visitInsn(ARETURN);
+    mv.visitMaxs(5, 4);
     mv.visitEnd();
 
-    // setAddress
-    mv = cw.visitMethod(ACC_PUBLIC, "setAddress", "(J)V", null, null);
+    cw.visitEnd();
+    return cw.toByteArray();
+  }
+
+  /**
+   * Generate the implementation of the given struct interface. Static fields are given an index into
+   * <code>staticAddressList</code> the first time they're seen.
+   */
+  private byte[] generateImplementation(Class<? extends HotspotStruct> iface, String implName,
+                                        LongArrayList staticAddressList) {
+    if (DynamicHotspotStruct.class.isAssignableFrom(iface) && !getStaticType(iface).isDynamic()) {
+      throw new IllegalStateException(iface.getSimpleName() + " is expected to have a vtable but one was not found");
+    }
+
+    String ifaceName = iface.getName().replace('.', '/');
+    int size = (int) getStaticType(iface).getSize();
+
+    ClassWriter cw = new ClassWriter(0);
+    MethodVisitor mv;
+
+    // Header. The structs, address, address space, and snapshot live in the superclass.
+    cw.visit(52, ACC_PUBLIC + ACC_SUPER, implName, null, GENERATED_STRUCT, new String[] { ifaceName });
+
+    // Constructor
+    mv = cw.visitMethod(ACC_PUBLIC, "<init>", CONSTRUCTOR_DESCRIPTOR, null, null);
     mv.visitCode();
     mv.visitVarInsn(ALOAD, 0);
-    mv.visitVarInsn(LLOAD, 1);
-    mv.visitFieldInsn(PUTFIELD, implName, "address", "J");
+    mv.visitVarInsn(ALOAD, 1);
+    mv.visitVarInsn(LLOAD, 2);
+    mv.visitLdcInsn(size);
+    mv.visitMethodInsn(INVOKESPECIAL, GENERATED_STRUCT, "<init>", "(L" + HOTSPOT_STRUCTS + ";JI)V", false);
     mv.visitInsn(RETURN);
-    mv.visitMaxs(3, 3);
+    mv.visitMaxs(5, 4);
+    mv.visitEnd();
 
     Class<? extends HotspotStruct> currentIface = iface;
     while (currentIface != HotspotStruct.class && currentIface != DynamicHotspotStruct.class) {
@@ -251,7 +373,9 @@ public class HotspotStructs {
             + " is not a subclass of " + currentIface);
       }
 
-      for (Method method : currentIface.getDeclaredMethods()) {
+      Method[] methods = currentIface.getDeclaredMethods();
+      Arrays.sort(methods, Comparator.comparing(Method::toString));
+      for (Method method : methods) {
         if (!Modifier.isAbstract(method.getModifiers())) {
           continue;
         }
@@ -264,35 +388,47 @@ public class HotspotStructs {
         if (fieldInfo == null) {
           throw new RuntimeException("Could not find field " + descriptor + " in JVM's gHotSpotVMStructs");
         }
+        if (fieldInfo.isStatic && fieldInfo.staticIndex < 0) {
+          fieldInfo.staticIndex = staticAddressList.size();
+          staticAddressList.add(fieldInfo.address);
+        }
         Class<?> returnType = method.getReturnType();
 
-        if (returnType == byte.class) {
+        if (method.getParameterCount() != 0) {
+          if (method.getParameterCount() != 1 || method.getParameterTypes()[0] != returnType
+              || !structInterfaces.contains(returnType)) {
+            throw new IllegalStateException("Field accessor " + method + " may only take a struct to reuse");
+          }
+          generateFlyweightWrapperMethod(cw, method, fieldInfo, returnType.getName().replace('.', '/'), implName,
+              size);
+        } else if (returnType == byte.class) {
           checkTypeWidth(fieldTypeName, 1);
-          generatePrimitiveMethod(cw, method, fieldInfo, "B", "getByte", implName, "B");
+          generatePrimitiveMethod(cw, method, fieldInfo, "B", "getByte", implName, "B", 1, size);
         } else if (returnType == boolean.class) {
           checkTypeWidth(fieldTypeName, 1);
-          generatePrimitiveMethod(cw, method, fieldInfo, "Z", "getBoolean", implName, "Z");
+          generatePrimitiveMethod(cw, method, fieldInfo, "Z", "getBoolean", implName, "Z", 1, size);
         } else if (returnType == char.class) {
           checkTypeWidth(fieldTypeName, 2);
-          generatePrimitiveMethod(cw, method, fieldInfo, "C", "getChar", implName, "C");
+          generatePrimitiveMethod(cw, method, fieldInfo, "C", "getChar", implName, "C", 2, size);
         } else if (returnType == int.class) {
           checkTypeWidth(fieldTypeName, 4);
-          generatePrimitiveMethod(cw, method, fieldInfo, "I", "getInt", implName, "I");
+          generatePrimitiveMethod(cw, method, fieldInfo, "I", "getInt", implName, "I", 4, size);
         } else if (returnType == long.class) {
           checkTypeWidth(fieldTypeName, 8);
           if (method.getAnnotation(AddressField.class) != null) {
-            generatePrimitiveMethod(cw, method, fieldInfo, "J", "getPointer", implName, "J");
+            generatePrimitiveMethod(cw, method, fieldInfo, "J", "getPointer", implName, "J", space.getPointerSize(),
+                size);
           } else {
-            generatePrimitiveMethod(cw, method, fieldInfo, "J", "getLong", implName, "J");
+            generatePrimitiveMethod(cw, method, fieldInfo, "J", "getLong", implName, "J", 8, size);
           }
         } else if (returnType == short.class) {
           checkTypeWidth(fieldTypeName, 2);
-          generatePrimitiveMethod(cw, method, fieldInfo, "S", "getShort", implName, "S");
+          generatePrimitiveMethod(cw, method, fieldInfo, "S", "getShort", implName, "S", 2, size);
         } else if (returnType == String.class) {
           checkTypeWidth(fieldTypeName, space.getPointerSize());
-          generateStringMethod(cw, method, fieldInfo,implName);
+          generateStringMethod(cw, method, fieldInfo, implName, size);
         } else if (structInterfaces.contains(returnType)) {
-          generateWrapperMethod(cw, method, fieldInfo, returnType.getName().replace('.', '/'), implName);
+          generateWrapperMethod(cw, method, fieldInfo, returnType.getName().replace('.', '/'), implName, size);
         } else {
           throw new IllegalStateException("Unrecognized return type " + returnType + " for method " + method);
         }
@@ -305,16 +441,7 @@ public class HotspotStructs {
     }
 
     cw.visitEnd();
-
-    byte[] classBytes = cw.toByteArray();
-    Class<? extends HotspotStruct> cl =
-        loader.defineClass(implName.replace('/', '.'), classBytes).asSubclass(HotspotStruct.class);
-
-    try {
-      return cl.getConstructor(AddressSpace.class, long.class);
-    } catch (NoSuchMethodException e) {
-      throw new RuntimeException(e);
-    }
+    return cw.toByteArray();
   }
 
   private void checkTypeWidth(String typeName, int size) {
@@ -345,21 +472,37 @@ public class HotspotStructs {
     }
   }
 
+  /**
+   * Non-static fields that fit inside the struct's declared size are read from the struct snapshot. Anything else is
+   * read straight from the address space.
+   */
+  private static boolean inSnapshot(FieldInfo fieldInfo, int width, int size) {
+    return !fieldInfo.isStatic && fieldInfo.offset >= 0 && fieldInfo.offset + width <= size;
+  }
+
   private void generatePrimitiveMethod(ClassWriter cw, Method method, FieldInfo fieldInfo, String fieldType,
-                                       String delegate, String impl, String returnFieldType) {
+                                       String delegate, String impl, String returnFieldType, int width, int size) {
     MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, method.getName(), "()" + returnFieldType, null, null);
     mv.visitCode();
-    mv.visitVarInsn(ALOAD, 0);
-    mv.visitFieldInsn(GETFIELD, impl, "addressSpace", "Lcom/addepar/heapdump/inspect/AddressSpace;");
-    if (fieldInfo.isStatic) {
-      mv.visitLdcInsn(fieldInfo.address);
+    if (inSnapshot(fieldInfo, width, size)) {
+      // e.g. getIntField(offset)
+      mv.visitVarInsn(ALOAD, 0);
+      mv.visitLdcInsn((int) fieldInfo.offset);
+      mv.visitMethodInsn(INVOKEVIRTUAL, impl, delegate + "Field", "(I)" + fieldType, false);
     } else {
-      mv.visitLdcInsn(fieldInfo.offset);
       mv.visitVarInsn(ALOAD, 0);
-      mv.visitFieldInsn(GETFIELD, impl, "address", "J");
-      mv.visitInsn(LADD);
+      mv.visitFieldInsn(GETFIELD, impl, "addressSpace", "Lcom/addepar/heapdump/inspect/AddressSpace;");
+      if (fieldInfo.isStatic) {
+        pushStaticAddress(mv, fieldInfo, impl);
+      } else {
+        mv.visitLdcInsn(fieldInfo.offset);
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitFieldInsn(GETFIELD, impl, "address", "J");
+        mv.visitInsn(LADD);
+      }
+      mv.visitMethodInsn(INVOKEVIRTUAL, "com/addepar/heapdump/inspect/AddressSpace", delegate, "(J)" + fieldType,
+          false);
     }
-    mv.visitMethodInsn(INVOKEVIRTUAL, "com/addepar/heapdump/inspect/AddressSpace", delegate, "(J)" + fieldType, false);
     if (!fieldType.equals(returnFieldType)) {
       if ("I".equals(fieldType) && "J".equals(returnFieldType)) {
         mv.visitInsn(I2L);
@@ -376,21 +519,27 @@ public class HotspotStructs {
     mv.visitEnd();
   }
 
-  private void generateStringMethod(ClassWriter cw, Method method, FieldInfo fieldInfo, String impl) {
+  private void generateStringMethod(ClassWriter cw, Method method, FieldInfo fieldInfo, String impl, int size) {
     MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, method.getName(), "()Ljava/lang/String;", null, null);
     mv.visitCode();
-    mv.visitVarInsn(ALOAD, 0);
-    mv.visitFieldInsn(GETFIELD, impl, "addressSpace", "Lcom/addepar/heapdump/inspect/AddressSpace;");
-    if (fieldInfo.isStatic) {
-      mv.visitLdcInsn(fieldInfo.address);
+    if (inSnapshot(fieldInfo, space.getPointerSize(), size)) {
+      mv.visitVarInsn(ALOAD, 0);
+      mv.visitLdcInsn((int) fieldInfo.offset);
+      mv.visitMethodInsn(INVOKEVIRTUAL, impl, "getAsciiStringField", "(I)Ljava/lang/String;", false);
     } else {
-      mv.visitLdcInsn(fieldInfo.offset);
       mv.visitVarInsn(ALOAD, 0);
-      mv.visitFieldInsn(GETFIELD, impl, "address", "J");
-      mv.visitInsn(LADD);
+      mv.visitFieldInsn(GETFIELD, impl, "addressSpace", "Lcom/addepar/heapdump/inspect/AddressSpace;");
+      if (fieldInfo.isStatic) {
+        pushStaticAddress(mv, fieldInfo, impl);
+      } else {
+        mv.visitLdcInsn(fieldInfo.offset);
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitFieldInsn(GETFIELD, impl, "address", "J");
+        mv.visitInsn(LADD);
+      }
+      mv.visitMethodInsn(INVOKEVIRTUAL, "com/addepar/heapdump/inspect/AddressSpace", "getAsciiString",
+          "(J)Ljava/lang/String;", false);
     }
-    mv.visitMethodInsn(INVOKEVIRTUAL, "com/addepar/heapdump/inspect/AddressSpace", "getAsciiString",
-        "(J)Ljava/lang/String;", false);
     mv.visitInsn(ARETURN);
     mv.visitMaxs(5, 1);
     mv.visitEnd();
@@ -399,25 +548,67 @@ public class HotspotStructs {
   /**
    * Generate a method that returns another struct
    */
-  private void generateWrapperMethod(ClassWriter cw, Method method, FieldInfo fieldInfo, String fieldType, String impl) {
+  private void generateWrapperMethod(ClassWriter cw, Method method, FieldInfo fieldInfo, String fieldType, String impl,
+                                     int size) {
     MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, method.getName(), "()L" + fieldType + ";", null, null);
     String fieldImpl = fieldType + "Impl";
 
-    FieldType annotation = method.getAnnotation(FieldType.class);
-    boolean embedded = !annotation.value().endsWith("*");
-
-    // non-embedded: return new KlassImpl(addressSpace, addressSpace.getPointer([address+]offset))
-    // embedded: return new KlassImpl(addressSpace, [address+]offset)
+    // return new KlassImpl(structs, <struct address>)
     mv.visitCode();
     mv.visitTypeInsn(NEW, fieldImpl);
     mv.visitInsn(DUP);
     mv.visitVarInsn(ALOAD, 0);
-    mv.visitFieldInsn(GETFIELD, impl, "addressSpace", "Lcom/addepar/heapdump/inspect/AddressSpace;");
+    mv.visitFieldInsn(GETFIELD, impl, "structs", "L" + HOTSPOT_STRUCTS + ";");
+    pushStructAddress(mv, method, fieldInfo, impl, size);
+    mv.visitMethodInsn(INVOKESPECIAL, fieldImpl, "<init>", CONSTRUCTOR_DESCRIPTOR, false);
+    mv.visitInsn(ARETURN);
+    mv.visitMaxs(8, 1);
+    mv.visitEnd();
+  }
+
+  /**
+   * Generate a method that points a caller-provided struct at the field, instead of allocating a new one
+   */
+  private void generateFlyweightWrapperMethod(ClassWriter cw, Method method, FieldInfo fieldInfo, String fieldType,
+                                              String impl, int size) {
+    MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, method.getName(), "(L" + fieldType + ";)L" + fieldType + ";",
+        null, null);
+
+    // reuse.setAddress(<struct address>); return reuse
+    mv.visitCode();
+    mv.visitVarInsn(ALOAD, 1);
+    pushStructAddress(mv, method, fieldInfo, impl, size);
+    mv.visitMethodInsn(INVOKEINTERFACE, fieldType, "setAddress", "(J)V", true);
+    mv.visitVarInsn(ALOAD, 1);
+    mv.visitInsn(ARETURN);
+    mv.visitMaxs(6, 2);
+    mv.visitEnd();
+  }
+
+  /**
+   * Push the address of the struct that a struct-valued field refers to. That's the pointer stored in the field, or
+   * the address of the field itself if the struct is embedded.
+   */
+  private void pushStructAddress(MethodVisitor mv, Method method, FieldInfo fieldInfo, String impl, int size) {
+    FieldType annotation = method.getAnnotation(FieldType.class);
+    boolean embedded = !annotation.value().endsWith("*");
+
+    if (!embedded && inSnapshot(fieldInfo, space.getPointerSize(), size)) {
+      // getPointerField(offset)
+      mv.visitVarInsn(ALOAD, 0);
+      mv.visitLdcInsn((int) fieldInfo.offset);
+      mv.visitMethodInsn(INVOKEVIRTUAL, impl, "getPointerField", "(I)J", false);
+      return;
+    }
+
+    // non-embedded: addressSpace.getPointer([address+]offset)
+    // embedded: [address+]offset
     if (!embedded) {
-      mv.visitInsn(DUP);
+      mv.visitVarInsn(ALOAD, 0);
+      mv.visitFieldInsn(GETFIELD, impl, "addressSpace", "Lcom/addepar/heapdump/inspect/AddressSpace;");
     }
     if (fieldInfo.isStatic) {
-      mv.visitLdcInsn(fieldInfo.address);
+      pushStaticAddress(mv, fieldInfo, impl);
     } else {
       mv.visitLdcInsn(fieldInfo.offset);
       mv.visitVarInsn(ALOAD, 0);
@@ -427,10 +618,15 @@ public class HotspotStructs {
     if (!embedded) {
       mv.visitMethodInsn(INVOKEVIRTUAL, "com/addepar/heapdump/inspect/AddressSpace", "getPointer", "(J)J", false);
     }
-    mv.visitMethodInsn(INVOKESPECIAL, fieldImpl, "<init>", "(Lcom/addepar/heapdump/inspect/AddressSpace;J)V", false);
-    mv.visitInsn(ARETURN);
-    mv.visitMaxs(8, 1);
-    mv.visitEnd();
+  }
+
+  /**
+   * Push the address of a static field: getStaticAddress(index)
+   */
+  private static void pushStaticAddress(MethodVisitor mv, FieldInfo fieldInfo, String impl) {
+    mv.visitVarInsn(ALOAD, 0);
+    mv.visitLdcInsn(fieldInfo.staticIndex);
+    mv.visitMethodInsn(INVOKEVIRTUAL, impl, "getStaticAddress", "(I)J", false);
   }
 
   private Map<Class<? extends HotspotStruct>, HotspotTypes.TypeDescriptor> generateStaticTypes() {
@@ -523,6 +719,8 @@ public class HotspotStructs {
     final boolean isStatic;
     final long offset;
     final long address;
+    // Where the generated code looks up the address of a static field, or -1 if it hasn't been used yet
+    int staticIndex = -1;
 
     FieldInfo(boolean isStatic, long offset, long address) {
       this.isStatic = isStatic;
@@ -531,25 +729,42 @@ public class HotspotStructs {
     }
   }
 
-  public static class AsmClassLoader extends ClassLoader {
-    private final HotspotStructs hotspotStructs;
-    private final HotspotConstants hotspotConstants;
+  /**
+   * Creates instances of a generated struct implementation. Implemented by generated classes.
+   */
+  public interface StructFactory {
+    HotspotStruct newInstance(HotspotStructs structs, long address);
+  }
 
-    public AsmClassLoader(HotspotStructs hotspotStructs, HotspotConstants hotspotConstants) {
-      this.hotspotStructs = hotspotStructs;
-      this.hotspotConstants = hotspotConstants;
-    }
+  /**
+   * A set of generated classes, defined together in their own class loader since they refer to each other by name
+   */
+  private static final class GeneratedClasses {
+    final Map<Class<? extends HotspotStruct>, StructFactory> factories;
+
+    GeneratedClasses(Map<String, byte[]> classes, Map<Class<? extends HotspotStruct>, String> factoryNames)
+        throws ReflectiveOperationException {
+      AsmClassLoader loader = new AsmClassLoader();
+      Map<String, Class<?>> defined = new HashMap<>();
+      for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+        String name = entry.getKey().replace('/', '.');
+        defined.put(entry.getKey(), loader.defineClass(name, entry.getValue()));
+      }
 
-    Class<?> defineClass(String name, byte[] classBytes) {
-      return super.defineClass(name, classBytes, 0, classBytes.length);
+      this.factories = new HashMap<>();
+      for (Map.Entry<Class<? extends HotspotStruct>, String> entry : factoryNames.entrySet()) {
+        factories.put(entry.getKey(), defined.get(entry.getValue()).asSubclass(StructFactory.class).newInstance());
+      }
     }
+  }
 
-    public HotspotStructs getHotspotStructs() {
-      return hotspotStructs;
+  private static final class AsmClassLoader extends ClassLoader {
+    AsmClassLoader() {
+      super(HotspotStructs.class.getClassLoader());
     }
 
-    public HotspotConstants getHotspotConstants() {
-      return hotspotConstants;
+    Class<?> defineClass(String name, byte[] classBytes) {
+      return super.defineClass(name, classBytes, 0, classBytes.length);
     }
   }
 }
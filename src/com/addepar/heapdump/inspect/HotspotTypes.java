@@ -1,9 +1,10 @@
 package com.addepar.heapdump.inspect;
 
-import com.addepar.heapdump.inspect.inferior.NoSuchSymbolException;
 import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -12,16 +13,34 @@ import java.util.Map;
 public class HotspotTypes {
 
   private final AddressSpace space;
-  private final Map<String, TypeDescriptor> typeMap = new HashMap<>();
-  private final Long2ObjectOpenHashMap<TypeDescriptor> vtableMap = new Long2ObjectOpenHashMap<>();
+  private final Map<String, TypeDescriptor> typeMap;
+  private final Long2ObjectOpenHashMap<TypeDescriptor> vtableMap;
+  private final TypeDescriptor[] typeArray;
 
   public HotspotTypes(AddressSpace space) {
     this.space = space;
+    this.typeMap = new HashMap<>();
+    this.vtableMap = new Long2ObjectOpenHashMap<>();
 
-    generateTypeMap();
+    this.typeArray = generateTypeMap();
+    numberTypes();
   }
 
-  private void generateTypeMap() {
+  private HotspotTypes(AddressSpace space, HotspotTypes other) {
+    this.space = space;
+    this.typeMap = other.typeMap;
+    this.vtableMap = other.vtableMap;
+    this.typeArray = other.typeArray;
+  }
+
+  /**
+   * Get a copy of these types that reads vtable pointers through a different address space
+   */
+  public HotspotTypes withAddressSpace(AddressSpace space) {
+    return new HotspotTypes(space, this);
+  }
+
+  private TypeDescriptor[] generateTypeMap() {
     long vmTypes = space.getPointer(space.lookupSymbol("gHotSpotVMTypes"));
     long typeNameOffset = space.getLong(space.lookupSymbol("gHotSpotVMTypeEntryTypeNameOffset"));
     long superclassNameOffset = space.getLong(space.lookupSymbol("gHotSpotVMTypeEntrySuperclassNameOffset"));
@@ -31,6 +50,10 @@ public class HotspotTypes {
     long sizeOffset = space.getLong(space.lookupSymbol("gHotSpotVMTypeEntrySizeOffset"));
     long stride = space.getLong(space.lookupSymbol("gHotSpotVMTypeEntryArrayStride"));
 
+    // One pass over the symbol table is much cheaper than a failed lookup for each of the types without a vtable
+    Map<String, Long> vtables = space.lookupAllVtables();
+
+    List<TypeDescriptor> types = new ArrayList<>();
     long current = vmTypes;
     while (true) {
       String typeName = space.getAsciiString(current + typeNameOffset);
@@ -44,34 +67,73 @@ public class HotspotTypes {
       boolean isUnsigned = space.getInt(current + isUnsignedOffset) != 0;
       long size = space.getLong(current + sizeOffset);
 
-      boolean isDynamic;
-      long vtableAddress = 0;
-      try {
-        vtableAddress = space.lookupVtable(typeName);
-        isDynamic = true;
-      } catch (NoSuchSymbolException e) {
-        // ignore; there are a lot of types without vtables
-        isDynamic = false;
-      }
+      Long vtableAddress = vtables.get(typeName);
+      boolean isDynamic = vtableAddress != null;
 
-      TypeDescriptor descriptor =
-          new TypeDescriptor(typeName, superclassName, isOopType, isIntegerType, isUnsigned, size, isDynamic);
+      TypeDescriptor descriptor = new TypeDescriptor(typeName, superclassName, isOopType, isIntegerType, isUnsigned,
+          size, isDynamic);
+      descriptor.index = types.size();
+      types.add(descriptor);
       typeMap.put(typeName, descriptor);
       if (isDynamic) {
-        vtableMap.put(vtableAddress, descriptor);
+        vtableMap.put(vtableAddress.longValue(), descriptor);
       }
       current += stride;
     }
 
-    for (TypeDescriptor type : typeMap.values()) {
+    for (TypeDescriptor type : types) {
       type.superclass = getType(type.superclassName);
     }
+    return types.toArray(new TypeDescriptor[types.size()]);
+  }
+
+  /**
+   * Number the types in depth-first order of the class hierarchy. Each type's subclasses then get a contiguous range of
+   * numbers, which makes subclass checks a pair of integer comparisons.
+   */
+  private void numberTypes() {
+    List<List<TypeDescriptor>> subclasses = new ArrayList<>(typeArray.length);
+    for (int i = 0; i < typeArray.length; i++) {
+      subclasses.add(new ArrayList<>());
+    }
+    for (TypeDescriptor type : typeArray) {
+      if (type.superclass != null) {
+        subclasses.get(type.superclass.index).add(type);
+      }
+    }
+
+    int next = 0;
+    for (TypeDescriptor type : typeArray) {
+      if (type.superclass == null) {
+        next = numberSubtree(type, subclasses, next);
+      }
+    }
+  }
+
+  private int numberSubtree(TypeDescriptor type, List<List<TypeDescriptor>> subclasses, int next) {
+    type.preorder = next++;
+    for (TypeDescriptor subclass : subclasses.get(type.index)) {
+      next = numberSubtree(subclass, subclasses, next);
+    }
+    type.lastDescendant = next - 1;
+    return next;
   }
 
   public TypeDescriptor getType(String typeName) {
     return typeMap.get(typeName);
   }
 
+  /**
+   * Look up a type by its index, which ranges from 0 to <code>getTypeCount() - 1</code>
+   */
+  public TypeDescriptor getType(int index) {
+    return typeArray[index];
+  }
+
+  public int getTypeCount() {
+    return typeArray.length;
+  }
+
   public TypeDescriptor getDynamicType(long address) {
     long vtable = space.getPointer(address);
     return vtableMap.get(vtable);
@@ -89,6 +151,9 @@ public class HotspotTypes {
     private final boolean isDynamic;
 
     private TypeDescriptor superclass;
+    private int index;
+    private int preorder;
+    private int lastDescendant;
 
     public TypeDescriptor(String typeName, String superclassName, boolean isOopType, boolean isIntegerType,
                           boolean isUnsigned, long size, boolean isDynamic) {
@@ -117,8 +182,15 @@ public class HotspotTypes {
       return isDynamic;
     }
 
+    /**
+     * The position of this type in <code>HotspotTypes</code>, for use as an array index
+     */
+    public int getIndex() {
+      return index;
+    }
+
     public boolean isSubclassOf(TypeDescriptor other) {
-      return this == other || (superclass != null && superclass.isSubclassOf(other));
+      return other.preorder <= preorder && preorder <= other.lastDescendant;
     }
 
     @Override
@@ -0,0 +1,893 @@
+package com.addepar.heapdump.inspect;
+
+import com.addepar.heapdump.inspect.inferior.AddressNotMappedException;
+import com.addepar.heapdump.inspect.inferior.CoreFileInferior;
+import com.addepar.heapdump.inspect.inferior.Inferior;
+import com.addepar.heapdump.inspect.inferior.SelfInferior;
+import com.addepar.heapdump.inspect.struct.InstanceKlass;
+import com.addepar.heapdump.inspect.struct.JavaThread;
+import com.addepar.heapdump.inspect.struct.Klass;
+import com.addepar.heapdump.inspect.struct.Symbol;
+import com.addepar.heapdump.inspect.struct.Threads;
+import com.addepar.heapdump.inspect.struct.java_lang_Class;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes a heap dump in the HPROF format ("JAVA PROFILE 1.0.2", the same one that jmap -dump writes) by walking the
+ * live regions of the heap, without going through the serviceability agent. Class metadata comes straight from the
+ * Klass structs, and object contents are copied out of the address space in bulk.
+ *
+ * Classes are declared the first time one of their instances (or their mirror) is seen, by closing the current heap
+ * dump segment and writing the class's name and LOAD_CLASS record in between segments. The only GC roots are the
+ * classes of the boot loader and the java.lang.Thread of each thread, so tools that drop unreachable objects will
+ * drop anything that is only reachable from stack frames or JNI handles.
+ *
+ * Objects are written in address order, since classes have to be declared as they're seen, so the heap isn't walked
+ * by a <code>HeapWalker</code>. Like one, though, when an object can't be parsed the walk picks up again at the next
+ * multiple of the chunk size, so only that chunk's objects are lost rather than the rest of the region.
+ *
+ * Dumping a live process (e.g. through <code>SelfInferior</code>) has the same caveats as
+ * <code>ExactHeapInspector</code>: a GC during the walk leaves an inconsistent dump. Not thread safe.
+ */
+public final class HprofWriter {
+  private static final String HPROF_HEADER = "JAVA PROFILE 1.0.2";
+
+  // Record tags
+  private static final int HPROF_UTF8 = 0x01;
+  private static final int HPROF_LOAD_CLASS = 0x02;
+  private static final int HPROF_TRACE = 0x05;
+  private static final int HPROF_HEAP_DUMP_SEGMENT = 0x1C;
+  private static final int HPROF_HEAP_DUMP_END = 0x2C;
+
+  // Heap dump sub-record tags
+  private static final int HPROF_GC_ROOT_STICKY_CLASS = 0x05;
+  private static final int HPROF_GC_ROOT_THREAD_OBJ = 0x08;
+  private static final int HPROF_GC_CLASS_DUMP = 0x20;
+  private static final int HPROF_GC_INSTANCE_DUMP = 0x21;
+  private static final int HPROF_GC_OBJ_ARRAY_DUMP = 0x22;
+  private static final int HPROF_GC_PRIM_ARRAY_DUMP = 0x23;
+
+  // Basic types. The primitive ones have the same values as Hotspot's BasicType.
+  private static final byte HPROF_NORMAL_OBJECT = 2;
+  private static final byte HPROF_BOOLEAN = 4;
+  private static final byte HPROF_CHAR = 5;
+  private static final byte HPROF_FLOAT = 6;
+  private static final byte HPROF_DOUBLE = 7;
+  private static final byte HPROF_BYTE = 8;
+  private static final byte HPROF_SHORT = 9;
+  private static final byte HPROF_INT = 10;
+  private static final byte HPROF_LONG = 11;
+
+  /**
+   * Every record refers to this empty stack trace, so that tools don't complain about missing traces
+   */
+  private static final int STACK_TRACE_SERIAL = 1;
+
+  /**
+   * Segments are closed once they get this big, since their length is only 32 bits
+   */
+  private static final long MAX_SEGMENT_SIZE = 1L << 30;
+
+  private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+  private final Hotspot hotspot;
+  private final AddressSpace space;
+  private final HotspotHeap heap;
+  private final KlassTable klassTable;
+  private final long chunkSize;
+  private final Klass klass;
+  private final Symbol symbol;
+  private final int idSize;
+
+  private final long mirrorKlassOffset;
+  private final long symbolBodyOffset;
+  private final FieldLayout fieldLayout;
+
+  // The state of the dump in progress
+  private Output out;
+  private long segmentStart;
+  private Long2ObjectOpenHashMap<ClassDump> classes;
+  private LongOpenHashSet writtenSymbols;
+  private ByteBuffer objectBuffer;
+  private ByteBuffer copyBuffer;
+  private OopFinder finder;
+  private long objects;
+
+  public HprofWriter(Hotspot hotspot) {
+    this.hotspot = hotspot;
+    this.space = hotspot.getAddressSpace();
+    this.heap = hotspot.getHeap();
+    this.klassTable = hotspot.getKlassTable();
+    this.chunkSize = HeapWalker.DEFAULT_CHUNK_SIZE;
+    this.fieldLayout = new FieldLayout(hotspot);
+    this.klass = hotspot.getStructs().staticStruct(Klass.class);
+    this.symbol = hotspot.getStructs().staticStruct(Symbol.class);
+    this.idSize = space.getPointerSize();
+
+    HotspotStructs structs = hotspot.getStructs();
+    this.mirrorKlassOffset = structs.staticStruct(java_lang_Class.class)._klass_offset();
+    this.symbolBodyOffset = structs.offsetOf("Symbol", "_body");
+  }
+
+  public Summary write(Path path) throws IOException {
+    long startTime = System.currentTimeMillis();
+
+    hotspot.reset();
+    LongIntervalSet liveRegions = heap.collectLiveRegions();
+    LongIntervalSet cmsSpaces = heap.collectCmsSpaces();
+    long cmsMinChunkSize = heap.cmsMinChunkSize();
+
+    classes = new Long2ObjectOpenHashMap<>();
+    writtenSymbols = new LongOpenHashSet();
+    objectBuffer = ByteBuffer.allocate(256).order(ByteOrder.nativeOrder());
+    copyBuffer = ByteBuffer.allocate(COPY_BUFFER_SIZE).order(ByteOrder.nativeOrder());
+    finder = new OopFinder(hotspot);
+    LongIntervalSet humongousObjects = heap.collectHumongousObjects();
+    for (int i = 0; i < humongousObjects.size(); i++) {
+      finder.addKnownObject(humongousObjects.getStart(i), humongousObjects.getEnd(i));
+    }
+    objects = 0;
+    segmentStart = -1;
+
+    long liveHeapSize = 0;
+    long unparsableBytes = 0;
+    long bytesWritten;
+    try (Output output = new Output(FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+        StandardOpenOption.TRUNCATE_EXISTING), idSize)) {
+      out = output;
+      writeHeader(startTime);
+
+      for (int region = 0; region < liveRegions.size(); region++) {
+        long bottom = liveRegions.getStart(region);
+        long top = liveRegions.getEnd(region);
+        liveHeapSize += top - bottom;
+        long minObjectSize = cmsSpaces.encloses(bottom, top) ? cmsMinChunkSize : hotspot.getMinObjAlignmentInBytes();
+        long failedAt = walkRegion(bottom, top, minObjectSize);
+        while (failedAt < top) {
+          long resumeAt = findObjectAfter(failedAt, bottom, top, minObjectSize);
+          unparsableBytes += resumeAt - failedAt;
+          failedAt = resumeAt < top ? walkRegion(resumeAt, top, minObjectSize) : top;
+        }
+      }
+
+      writeThreadRoots();
+      endSegment();
+
+      out.putByte(HPROF_HEAP_DUMP_END);
+      out.putInt(0);
+      out.putInt(0);
+      out.flush();
+      bytesWritten = out.position();
+    } finally {
+      out = null;
+      objectBuffer = null;
+      copyBuffer = null;
+      finder = null;
+    }
+
+    Summary summary = new Summary(startTime, liveHeapSize, unparsableBytes, objects, classes.size(), bytesWritten,
+        System.currentTimeMillis() - startTime);
+    classes = null;
+    writtenSymbols = null;
+    return summary;
+  }
+
+  /**
+   * Find the first object that starts at or after the first multiple of the chunk size past <code>failedAt</code>, the
+   * same way that <code>HeapWalker</code> starts a chunk. Returns the region's top if there isn't one.
+   */
+  private long findObjectAfter(long failedAt, long bottom, long top, long minObjectSize) {
+    for (long probe = (failedAt & -chunkSize) + chunkSize; probe < top; probe += chunkSize) {
+      try {
+        if (finder.probeForObject(probe, bottom)) {
+          long objectStart = finder.getProbedObject().getAddress();
+          if (objectStart == probe) {
+            return probe;
+          }
+          long next = objectStart
+              + Math.max(finder.getProbedObject().getObjectSize(hotspot, finder.getProbedKlass()), minObjectSize);
+          if (next < top) {
+            return next;
+          }
+        }
+      } catch (RuntimeException e) {
+        // try the next chunk
+      }
+    }
+    return top;
+  }
+
+  /**
+   * Write every object from <code>start</code> to the top of the region. Returns the region's top, or where parsing
+   * went wrong.
+   */
+  private long walkRegion(long start, long top, long minObjectSize) throws IOException {
+    long cur = start;
+    try {
+      while (cur < top) {
+        long klassAddress = hotspot.getKlassAddress(cur);
+        if (!klassTable.contains(klassAddress)) {
+          klass.setAddress(klassAddress);
+          if (!finder.isLikelyKlass(klass)) {
+            return cur;
+          }
+        }
+        KlassTable.KlassInfo info = klassTable.get(klassAddress);
+        long size = Math.max(info.getObjectSize(hotspot, cur), minObjectSize);
+        if (cur + size > top) {
+          return cur;
+        }
+        writeObject(cur, info);
+        objects++;
+        cur += size;
+      }
+    } catch (RuntimeException e) {
+      // Most likely an object that was still being initialized. Everything is read before a record is started, so
+      // the output is still consistent.
+      return cur;
+    }
+    return top;
+  }
+
+  private void writeObject(long address, KlassTable.KlassInfo info) throws IOException {
+    switch (info.getKind()) {
+      case INSTANCE:
+        writeInstance(address, info, declareClass(info.getAddress()));
+        break;
+      case MIRROR:
+        long mirroredKlass = space.getPointer(address + mirrorKlassOffset);
+        if (mirroredKlass != 0) {
+          // The CLASS_DUMP stands in for the java.lang.Class instance
+          declareClass(mirroredKlass);
+        } else {
+          // The mirror of a primitive type, which is just an ordinary java.lang.Class
+          writeInstance(address, info, declareClass(info.getAddress()));
+        }
+        break;
+      case OBJ_ARRAY:
+        writeObjectArray(address, info, declareClass(info.getAddress()));
+        break;
+      default:
+        writePrimitiveArray(address, info);
+        break;
+    }
+  }
+
+  private void writeInstance(long address, KlassTable.KlassInfo info, ClassDump classDump) throws IOException {
+    if (objectBuffer.capacity() < info.getInstanceSize()) {
+      objectBuffer = ByteBuffer.allocate(info.getInstanceSize()).order(ByteOrder.nativeOrder());
+    }
+    objectBuffer.clear().limit(info.getInstanceSize());
+    space.read(address, objectBuffer);
+    if (objectBuffer.hasRemaining()) {
+      throw new AddressNotMappedException(address + objectBuffer.position());
+    }
+
+    beginRecord();
+    out.putByte(HPROF_GC_INSTANCE_DUMP);
+    out.putId(address);
+    out.putInt(STACK_TRACE_SERIAL);
+    out.putId(classDump.mirror);
+    out.putInt(classDump.fieldBytes);
+    for (int i = 0; i < classDump.fieldTypes.length; i++) {
+      int offset = classDump.fieldOffsets[i];
+      switch (classDump.fieldTypes[i]) {
+        case HPROF_NORMAL_OBJECT:
+          out.putId(hotspot.useCompressedOops() ? hotspot.decompressOop(objectBuffer.getInt(offset))
+              : objectBuffer.getLong(offset));
+          break;
+        case HPROF_BOOLEAN:
+        case HPROF_BYTE:
+          out.putByte(objectBuffer.get(offset));
+          break;
+        case HPROF_CHAR:
+        case HPROF_SHORT:
+          out.putShort(objectBuffer.getShort(offset));
+          break;
+        case HPROF_INT:
+        case HPROF_FLOAT:
+          out.putInt(objectBuffer.getInt(offset));
+          break;
+        default:
+          out.putLong(objectBuffer.getLong(offset));
+          break;
+      }
+    }
+    endRecord();
+  }
+
+  private void writeObjectArray(long address, KlassTable.KlassInfo info, ClassDump classDump) throws IOException {
+    int length = space.getInt(address + hotspot.arrayLengthOffset());
+
+    beginRecord();
+    out.putByte(HPROF_GC_OBJ_ARRAY_DUMP);
+    out.putId(address);
+    out.putInt(STACK_TRACE_SERIAL);
+    out.putInt(length);
+    out.putId(classDump.mirror);
+
+    int oopSize = hotspot.getHeapOopSize();
+    long cur = address + info.getArrayHeaderSize();
+    long end = cur + (long) length * oopSize;
+    while (cur < end) {
+      fillCopyBuffer(cur, Math.min(end - cur, COPY_BUFFER_SIZE));
+      while (copyBuffer.hasRemaining()) {
+        out.putId(oopSize == 4 ? hotspot.decompressOop(copyBuffer.getInt()) : copyBuffer.getLong());
+      }
+      cur += copyBuffer.limit();
+    }
+    endRecord();
+  }
+
+  private void writePrimitiveArray(long address, KlassTable.KlassInfo info) throws IOException {
+    int length = space.getInt(address + hotspot.arrayLengthOffset());
+    HotspotConstants constants = hotspot.getConstants();
+    int elementType = (info.getLayoutHelper() >> constants.getLayoutHelperElementTypeShift())
+        & constants.getLayoutHelperElementTypeMask();
+    int elementSize = 1 << info.getLog2ElementSize();
+
+    beginRecord();
+    out.putByte(HPROF_GC_PRIM_ARRAY_DUMP);
+    out.putId(address);
+    out.putInt(STACK_TRACE_SERIAL);
+    out.putInt(length);
+    out.putByte(elementType);
+
+    long cur = address + info.getArrayHeaderSize();
+    long end = cur + ((long) length << info.getLog2ElementSize());
+    while (cur < end) {
+      fillCopyBuffer(cur, Math.min(end - cur, COPY_BUFFER_SIZE));
+      cur += copyBuffer.limit();
+      out.putElements(copyBuffer, elementSize);
+    }
+    endRecord();
+  }
+
+  /**
+   * Copy the given number of bytes into the copy buffer and flip it. Anything that can't be read is left as zeros,
+   * since the record it goes into has already been started.
+   */
+  private void fillCopyBuffer(long address, long length) {
+    copyBuffer.clear().limit((int) length);
+    space.read(address, copyBuffer);
+    while (copyBuffer.hasRemaining()) {
+      copyBuffer.put((byte) 0);
+    }
+    copyBuffer.flip();
+  }
+
+  /**
+   * Write the records for a class (and its superclasses) the first time it's seen. Everything is read from the VM
+   * before anything is written, so that a failed read doesn't leave a partial record behind.
+   */
+  private ClassDump declareClass(long klassAddress) throws IOException {
+    ClassDump classDump = classes.get(klassAddress);
+    if (classDump != null) {
+      return classDump;
+    }
+
+    KlassTable.KlassInfo info = klassTable.get(klassAddress);
+    Klass k = hotspot.getStructs().structAt(klassAddress, Klass.class);
+    long superAddress = javaSuper(k);
+    ClassDump superDump = superAddress != 0 ? declareClass(superAddress) : null;
+
+    long mirror = k._java_mirror();
+    long name = k._name().getAddress();
+    long classLoader = 0;
+    List<FieldDescriptor> staticFields = new ArrayList<>();
+    List<FieldDescriptor> instanceFields = new ArrayList<>();
+    if (!info.isArray()) {
+      InstanceKlass instanceKlass = hotspot.getStructs().structAt(klassAddress, InstanceKlass.class);
+      classLoader = instanceKlass._class_loader_data()._class_loader();
+      readFields(instanceKlass, staticFields, instanceFields);
+      for (FieldDescriptor field : staticFields) {
+        field.staticValue = readValue(mirror + field.offset, field.type);
+      }
+    }
+    byte[] nameBytes = symbolBytes(name);
+    List<byte[]> fieldNameBytes = new ArrayList<>();
+    for (FieldDescriptor field : staticFields) {
+      fieldNameBytes.add(writtenSymbols.contains(field.name) ? null : symbolBytes(field.name));
+    }
+    for (FieldDescriptor field : instanceFields) {
+      fieldNameBytes.add(writtenSymbols.contains(field.name) ? null : symbolBytes(field.name));
+    }
+
+    // The names and LOAD_CLASS go between heap dump segments
+    endSegment();
+    writeSymbol(name, nameBytes);
+    int index = 0;
+    for (FieldDescriptor field : staticFields) {
+      writeSymbol(field.name, fieldNameBytes.get(index++));
+    }
+    for (FieldDescriptor field : instanceFields) {
+      writeSymbol(field.name, fieldNameBytes.get(index++));
+    }
+    int classSerial = classes.size() + 1;
+    out.putByte(HPROF_LOAD_CLASS);
+    out.putInt(0);
+    out.putInt(4 + idSize + 4 + idSize);
+    out.putInt(classSerial);
+    out.putId(mirror);
+    out.putInt(STACK_TRACE_SERIAL);
+    out.putId(name);
+
+    // The instance data holds this class's fields, then its superclass's, and so on
+    int totalFields = instanceFields.size() + (superDump != null ? superDump.fieldTypes.length : 0);
+    byte[] fieldTypes = new byte[totalFields];
+    int[] fieldOffsets = new int[totalFields];
+    int fieldBytes = 0;
+    for (int i = 0; i < instanceFields.size(); i++) {
+      fieldTypes[i] = instanceFields.get(i).type;
+      fieldOffsets[i] = instanceFields.get(i).offset;
+      fieldBytes += valueSize(fieldTypes[i]);
+    }
+    if (superDump != null) {
+      System.arraycopy(superDump.fieldTypes, 0, fieldTypes, instanceFields.size(), superDump.fieldTypes.length);
+      System.arraycopy(superDump.fieldOffsets, 0, fieldOffsets, instanceFields.size(), superDump.fieldOffsets.length);
+      fieldBytes += superDump.fieldBytes;
+    }
+    classDump = new ClassDump(mirror, fieldTypes, fieldOffsets, fieldBytes);
+    classes.put(klassAddress, classDump);
+
+    beginRecord();
+    out.putByte(HPROF_GC_CLASS_DUMP);
+    out.putId(mirror);
+    out.putInt(STACK_TRACE_SERIAL);
+    out.putId(superDump != null ? superDump.mirror : 0);
+    out.putId(classLoader);
+    out.putId(0); // signers
+    out.putId(0); // protection domain
+    out.putId(0); // reserved
+    out.putId(0); // reserved
+    out.putInt(fieldBytes);
+    out.putShort(0); // constant pool
+    out.putShort(staticFields.size());
+    for (FieldDescriptor field : staticFields) {
+      out.putId(field.name);
+      out.putByte(field.type);
+      writeValue(field.staticValue, field.type);
+    }
+    out.putShort(instanceFields.size());
+    for (FieldDescriptor field : instanceFields) {
+      out.putId(field.name);
+      out.putByte(field.type);
+    }
+    if (classLoader == 0) {
+      out.putByte(HPROF_GC_ROOT_STICKY_CLASS);
+      out.putId(mirror);
+    }
+    endRecord();
+
+    return classDump;
+  }
+
+  /**
+   * The superclass as Java sees it. The Klass of an array of objects has the array of the element's superclass as its
+   * super, but to Java every array extends Object.
+   */
+  private long javaSuper(Klass k) {
+    Klass superKlass = k._super();
+    while (superKlass.getAddress() != 0 && superKlass._layout_helper() < 0) {
+      superKlass = superKlass._super();
+    }
+    return superKlass.getAddress();
+  }
+
+  /**
+   * Collect the fields declared in the class file
+   */
+  private void readFields(InstanceKlass instanceKlass, List<FieldDescriptor> staticFields,
+                          List<FieldDescriptor> instanceFields) {
+    fieldLayout.forEachField(instanceKlass.getAddress(), (name, signature, accessFlags, offset) -> {
+      FieldDescriptor field = new FieldDescriptor(name, typeOf(space.getByte(signature + symbolBodyOffset)), offset);
+      if ((accessFlags & FieldLayout.JVM_ACC_STATIC) != 0) {
+        staticFields.add(field);
+      } else {
+        instanceFields.add(field);
+      }
+    });
+  }
+
+  private static byte typeOf(byte signatureChar) {
+    switch (signatureChar) {
+      case 'Z':
+        return HPROF_BOOLEAN;
+      case 'C':
+        return HPROF_CHAR;
+      case 'F':
+        return HPROF_FLOAT;
+      case 'D':
+        return HPROF_DOUBLE;
+      case 'B':
+        return HPROF_BYTE;
+      case 'S':
+        return HPROF_SHORT;
+      case 'I':
+        return HPROF_INT;
+      case 'J':
+        return HPROF_LONG;
+      default:
+        return HPROF_NORMAL_OBJECT;
+    }
+  }
+
+  private int valueSize(byte type) {
+    switch (type) {
+      case HPROF_NORMAL_OBJECT:
+        return idSize;
+      case HPROF_BOOLEAN:
+      case HPROF_BYTE:
+        return 1;
+      case HPROF_CHAR:
+      case HPROF_SHORT:
+        return 2;
+      case HPROF_INT:
+      case HPROF_FLOAT:
+        return 4;
+      default:
+        return 8;
+    }
+  }
+
+  private long readValue(long address, byte type) {
+    switch (type) {
+      case HPROF_NORMAL_OBJECT:
+        return hotspot.getOopAt(address);
+      case HPROF_BOOLEAN:
+      case HPROF_BYTE:
+        return space.getByte(address);
+      case HPROF_CHAR:
+      case HPROF_SHORT:
+        return space.getShort(address);
+      case HPROF_INT:
+      case HPROF_FLOAT:
+        return space.getInt(address);
+      default:
+        return space.getLong(address);
+    }
+  }
+
+  private void writeValue(long value, byte type) throws IOException {
+    switch (valueSize(type)) {
+      case 1:
+        out.putByte((int) value);
+        break;
+      case 2:
+        out.putShort((int) value);
+        break;
+      case 4:
+        out.putInt((int) value);
+        break;
+      default:
+        out.putLong(value);
+        break;
+    }
+  }
+
+  private byte[] symbolBytes(long symbolAddress) {
+    symbol.setAddress(symbolAddress);
+    byte[] bytes = new byte[Short.toUnsignedInt(symbol._length())];
+    ByteBuffer buffer = ByteBuffer.wrap(bytes);
+    space.read(symbolAddress + symbolBodyOffset, buffer);
+    if (buffer.hasRemaining()) {
+      throw new AddressNotMappedException(symbolAddress + symbolBodyOffset + buffer.position());
+    }
+    return bytes;
+  }
+
+  /**
+   * Write a UTF8 record for a Symbol, using its address as the ID, unless that was already done
+   */
+  private void writeSymbol(long symbolAddress, byte[] bytes) throws IOException {
+    if (!writtenSymbols.add(symbolAddress)) {
+      return;
+    }
+    out.putByte(HPROF_UTF8);
+    out.putInt(0);
+    out.putInt(idSize + bytes.length);
+    out.putId(symbolAddress);
+    out.putBytes(bytes);
+  }
+
+  private void writeHeader(long timestamp) throws IOException {
+    out.putBytes(HPROF_HEADER.getBytes(StandardCharsets.US_ASCII));
+    out.putByte(0);
+    out.putInt(idSize);
+    out.putLong(timestamp);
+
+    // An empty stack trace for all the records to point at
+    out.putByte(HPROF_TRACE);
+    out.putInt(0);
+    out.putInt(12);
+    out.putInt(STACK_TRACE_SERIAL);
+    out.putInt(0); // thread serial
+    out.putInt(0); // number of frames
+  }
+
+  private void writeThreadRoots() throws IOException {
+    JavaThread thread = hotspot.getStructs().staticStruct(JavaThread.class);
+    int threadSerial = 1;
+    for (hotspot.getStructs().staticStruct(Threads.class)._thread_list(thread);
+         thread.getAddress() != 0;
+         thread._next(thread)) {
+      long threadObj = thread._threadObj();
+      if (threadObj != 0) {
+        beginRecord();
+        out.putByte(HPROF_GC_ROOT_THREAD_OBJ);
+        out.putId(threadObj);
+        out.putInt(threadSerial++);
+        out.putInt(STACK_TRACE_SERIAL);
+        endRecord();
+      }
+    }
+  }
+
+  /**
+   * Start a heap dump segment, unless one is already open
+   */
+  private void beginRecord() throws IOException {
+    if (segmentStart < 0) {
+      out.putByte(HPROF_HEAP_DUMP_SEGMENT);
+      out.putInt(0);
+      segmentStart = out.position();
+      out.putInt(0); // filled in by endSegment
+    }
+  }
+
+  private void endRecord() throws IOException {
+    if (out.position() - segmentStart > MAX_SEGMENT_SIZE) {
+      endSegment();
+    }
+  }
+
+  private void endSegment() throws IOException {
+    if (segmentStart >= 0) {
+      out.patchInt(segmentStart, (int) (out.position() - segmentStart - 4));
+      segmentStart = -1;
+    }
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length < 1 || args.length > 2) {
+      System.err.println("Usage: HprofWriter <output file> [core file]");
+      System.exit(1);
+    }
+
+    Inferior inferior = args.length == 2 ? new CoreFileInferior(Paths.get(args[1])) : new SelfInferior();
+    Summary summary = new HprofWriter(new Hotspot(inferior)).write(Paths.get(args[0]));
+    inferior.detach();
+
+    System.out.println("Live heap:        " + summary.getLiveHeapSize());
+    System.out.println("Unparsable bytes: " + summary.getUnparsableBytes());
+    System.out.println("Objects:          " + summary.getObjects());
+    System.out.println("Classes:          " + summary.getClasses());
+    System.out.println("Bytes written:    " + summary.getBytesWritten());
+    System.out.println("Runtime:          " + summary.getRuntimeMillis() + " ms");
+  }
+
+  /**
+   * What a dump wrote. Immutable.
+   */
+  public static final class Summary {
+    private final long timestampMillis;
+    private final long liveHeapSize;
+    private final long unparsableBytes;
+    private final long objects;
+    private final int classes;
+    private final long bytesWritten;
+    private final long runtimeMillis;
+
+    Summary(long timestampMillis, long liveHeapSize, long unparsableBytes, long objects, int classes,
+            long bytesWritten, long runtimeMillis) {
+      this.timestampMillis = timestampMillis;
+      this.liveHeapSize = liveHeapSize;
+      this.unparsableBytes = unparsableBytes;
+      this.objects = objects;
+      this.classes = classes;
+      this.bytesWritten = bytesWritten;
+      this.runtimeMillis = runtimeMillis;
+    }
+
+    /**
+     * The wall clock time at which the dump started, which is also the timestamp in the file's header
+     */
+    public long getTimestampMillis() {
+      return timestampMillis;
+    }
+
+    public long getLiveHeapSize() {
+      return liveHeapSize;
+    }
+
+    /**
+     * Bytes of the live heap that could not be parsed into objects, and so are missing from the dump
+     */
+    public long getUnparsableBytes() {
+      return unparsableBytes;
+    }
+
+    /**
+     * The number of heap objects walked, including the mirrors that were written as classes
+     */
+    public long getObjects() {
+      return objects;
+    }
+
+    public int getClasses() {
+      return classes;
+    }
+
+    public long getBytesWritten() {
+      return bytesWritten;
+    }
+
+    public long getRuntimeMillis() {
+      return runtimeMillis;
+    }
+  }
+
+  /**
+   * What's needed to write the instances of a class
+   */
+  private static final class ClassDump {
+    final long mirror;
+    final byte[] fieldTypes;
+    final int[] fieldOffsets;
+    final int fieldBytes;
+
+    ClassDump(long mirror, byte[] fieldTypes, int[] fieldOffsets, int fieldBytes) {
+      this.mirror = mirror;
+      this.fieldTypes = fieldTypes;
+      this.fieldOffsets = fieldOffsets;
+      this.fieldBytes = fieldBytes;
+    }
+  }
+
+  private static final class FieldDescriptor {
+    final long name;
+    final byte type;
+    final int offset;
+    long staticValue;
+
+    FieldDescriptor(long name, byte type, int offset) {
+      this.name = name;
+      this.type = type;
+      this.offset = offset;
+    }
+  }
+
+  /**
+   * A buffered, big-endian writer that can go back and fill in a length
+   */
+  private static final class Output implements Closeable {
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(1 << 20); // big-endian, like HPROF
+    private final int idSize;
+    private long flushed;
+
+    Output(FileChannel channel, int idSize) {
+      this.channel = channel;
+      this.idSize = idSize;
+    }
+
+    long position() {
+      return flushed + buffer.position();
+    }
+
+    void putByte(int value) throws IOException {
+      ensure(1);
+      buffer.put((byte) value);
+    }
+
+    void putShort(int value) throws IOException {
+      ensure(2);
+      buffer.putShort((short) value);
+    }
+
+    void putInt(int value) throws IOException {
+      ensure(4);
+      buffer.putInt(value);
+    }
+
+    void putLong(long value) throws IOException {
+      ensure(8);
+      buffer.putLong(value);
+    }
+
+    void putId(long value) throws IOException {
+      if (idSize == 8) {
+        putLong(value);
+      } else {
+        putInt((int) value);
+      }
+    }
+
+    void putBytes(byte[] bytes) throws IOException {
+      for (int offset = 0; offset < bytes.length;) {
+        ensure(1);
+        int length = Math.min(bytes.length - offset, buffer.remaining());
+        buffer.put(bytes, offset, length);
+        offset += length;
+      }
+    }
+
+    /**
+     * Copy the remaining contents of <code>src</code> as big-endian elements of the given width. The byte order of
+     * <code>src</code> is that of the inferior.
+     */
+    void putElements(ByteBuffer src, int width) throws IOException {
+      while (src.hasRemaining()) {
+        ensure(width);
+        int length = Math.min(src.remaining(), buffer.remaining() / width * width);
+        ByteBuffer part = src.duplicate().order(src.order());
+        part.limit(part.position() + length);
+        switch (width) {
+          case 1:
+            buffer.put(part);
+            break;
+          case 2:
+            buffer.asShortBuffer().put(part.asShortBuffer());
+            buffer.position(buffer.position() + length);
+            break;
+          case 4:
+            buffer.asIntBuffer().put(part.asIntBuffer());
+            buffer.position(buffer.position() + length);
+            break;
+          default:
+            buffer.asLongBuffer().put(part.asLongBuffer());
+            buffer.position(buffer.position() + length);
+            break;
+        }
+        src.position(src.position() + length);
+      }
+    }
+
+    /**
+     * Overwrite an int that was already written
+     */
+    void patchInt(long position, int value) throws IOException {
+      if (position >= flushed) {
+        buffer.putInt((int) (position - flushed), value);
+      } else {
+        ByteBuffer patch = ByteBuffer.allocate(4).putInt(0, value);
+        while (patch.hasRemaining()) {
+          channel.write(patch, position + patch.position());
+        }
+      }
+    }
+
+    void flush() throws IOException {
+      buffer.flip();
+      while (buffer.hasRemaining()) {
+        flushed += channel.write(buffer);
+      }
+      buffer.clear();
+    }
+
+    private void ensure(int bytes) throws IOException {
+      if (buffer.remaining() < bytes) {
+        flush();
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      flush();
+      channel.close();
+    }
+  }
+}
@@ -0,0 +1,214 @@
+package com.addepar.heapdump.inspect;
+
+import com.addepar.heapdump.inspect.struct.InstanceKlass;
+import com.addepar.heapdump.inspect.struct.Klass;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+
+/**
+ * A cache of the Klass metadata that's needed to parse heap objects, keyed by the address of the Klass. Entries are
+ * filled in the first time a Klass is seen and thrown away when the <code>Hotspot</code> is reset, since a Klass can be
+ * unloaded and its memory reused.
+ *
+ * Only pass addresses that are known to point at a real Klass. This class is not thread safe.
+ */
+public class KlassTable {
+
+  public enum Kind {
+    /** An ordinary instance, whose size is in the layout helper */
+    INSTANCE,
+    /** An instance of java.lang.Class, which holds the static fields of its class and so varies in size */
+    MIRROR,
+    OBJ_ARRAY,
+    TYPE_ARRAY
+  }
+
+  private static final int[] NO_OOP_MAPS = new int[0];
+
+  private final Hotspot hotspot;
+  private final Klass klass;
+  private final InstanceKlass instanceKlass;
+  private final HotspotTypes.TypeDescriptor instanceMirrorKlassType;
+  private final Long2ObjectOpenHashMap<KlassInfo> table;
+
+  public KlassTable(Hotspot hotspot) {
+    this.hotspot = hotspot;
+    this.klass = hotspot.getStructs().staticStruct(Klass.class);
+    this.instanceKlass = hotspot.getStructs().staticStruct(InstanceKlass.class);
+    this.instanceMirrorKlassType = hotspot.getTypes().getType("InstanceMirrorKlass");
+    this.table = new Long2ObjectOpenHashMap<>();
+  }
+
+  public KlassInfo get(long klassAddress) {
+    KlassInfo info = table.get(klassAddress);
+    if (info == null) {
+      info = load(klassAddress);
+      table.put(klassAddress, info);
+    }
+    return info;
+  }
+
+  /**
+   * Whether the Klass has been seen since the last reset
+   */
+  public boolean contains(long klassAddress) {
+    return table.containsKey(klassAddress);
+  }
+
+  public int size() {
+    return table.size();
+  }
+
+  public void clear() {
+    table.clear();
+  }
+
+  private KlassInfo load(long klassAddress) {
+    HotspotConstants constants = hotspot.getConstants();
+    klass.setAddress(klassAddress);
+    int layoutHelper = klass._layout_helper();
+    String name = klass.getName(hotspot);
+
+    if (layoutHelper > 0) {
+      // Only InstanceKlass (and its subclasses) have a positive layout helper
+      int slowPathBit = constants.getLayoutHelperInstanceSlowPathBit();
+      boolean mirror = (layoutHelper & slowPathBit) != 0
+          && hotspot.getTypes().getDynamicType(klassAddress) == instanceMirrorKlassType;
+
+      instanceKlass.setAddress(klassAddress);
+      long oopMap = instanceKlass.startOfNonstaticOopMaps(hotspot);
+      int oopMapCount = instanceKlass.nonstaticOopMapCount(hotspot);
+      int[] oopMaps = oopMapCount == 0 ? NO_OOP_MAPS : new int[oopMapCount * 2];
+      for (int i = 0; i < oopMapCount; i++) {
+        oopMaps[2 * i] = hotspot.getAddressSpace().getInt(oopMap);
+        oopMaps[2 * i + 1] = hotspot.getAddressSpace().getInt(oopMap + 4);
+        oopMap += 8;
+      }
+
+      return new KlassInfo(klassAddress, name, layoutHelper, mirror ? Kind.MIRROR : Kind.INSTANCE,
+          layoutHelper & ~slowPathBit, 0, 0, oopMaps);
+    } else if (layoutHelper < 0) {
+      // It's an array. The layout helper contains the header size and element size.
+      Kind kind = (layoutHelper >> constants.getLayoutHelperArrayTagShift()) == constants.getLayoutHelperArrayTagObjValue()
+          ? Kind.OBJ_ARRAY : Kind.TYPE_ARRAY;
+      int headerSize = (layoutHelper >> constants.getLayoutHelperHeaderSizeShift())
+          & constants.getLayoutHelperHeaderSizeMask();
+      int log2ElementSize = (layoutHelper >> constants.getLayoutHelperLog2ElementSizeShift())
+          & constants.getLayoutHelperLog2ElementSizeMask();
+      return new KlassInfo(klassAddress, name, layoutHelper, kind, 0, headerSize, log2ElementSize, NO_OOP_MAPS);
+    } else {
+      // The hotspot source code seems to imply this could happen, but I honestly don't understand how it's possible,
+      // given the current Oop hierarchy.
+      throw new RuntimeException("Zero size object??? klassAddress=0x" + Long.toHexString(klassAddress)
+          + " with possible type " + hotspot.getTypes().getDynamicType(klassAddress));
+    }
+  }
+
+  /**
+   * Everything we need to know about a Klass to parse its instances. Immutable.
+   */
+  public static final class KlassInfo {
+    private final long address;
+    private final String name;
+    private final int layoutHelper;
+    private final Kind kind;
+    private final int instanceSize;
+    private final int arrayHeaderSize;
+    private final int log2ElementSize;
+    private final int[] oopMaps;
+
+    KlassInfo(long address, String name, int layoutHelper, Kind kind, int instanceSize, int arrayHeaderSize,
+              int log2ElementSize, int[] oopMaps) {
+      this.address = address;
+      this.name = name;
+      this.layoutHelper = layoutHelper;
+      this.kind = kind;
+      this.instanceSize = instanceSize;
+      this.arrayHeaderSize = arrayHeaderSize;
+      this.log2ElementSize = log2ElementSize;
+      this.oopMaps = oopMaps;
+    }
+
+    public long getAddress() {
+      return address;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public int getLayoutHelper() {
+      return layoutHelper;
+    }
+
+    public Kind getKind() {
+      return kind;
+    }
+
+    /**
+     * The size in bytes of an instance. For a mirror this is the size of a java.lang.Class without any static fields,
+     * which is also where the static fields start. Only meaningful for instances and mirrors.
+     */
+    public int getInstanceSize() {
+      return instanceSize;
+    }
+
+    public boolean isArray() {
+      return kind == Kind.OBJ_ARRAY || kind == Kind.TYPE_ARRAY;
+    }
+
+    /**
+     * The number of bytes between the start of an array and its first element. Only meaningful for arrays.
+     */
+    public int getArrayHeaderSize() {
+      return arrayHeaderSize;
+    }
+
+    /**
+     * Only meaningful for arrays
+     */
+    public int getLog2ElementSize() {
+      return log2ElementSize;
+    }
+
+    /**
+     * The number of nonstatic oop maps. Only instances (and mirrors) have them.
+     */
+    public int getOopMapCount() {
+      return oopMaps.length / 2;
+    }
+
+    /**
+     * The offset of the first reference field covered by the given oop map
+     */
+    public int getOopMapOffset(int index) {
+      return oopMaps[2 * index];
+    }
+
+    /**
+     * The number of consecutive reference fields covered by the given oop map
+     */
+    public int getOopMapCount(int index) {
+      return oopMaps[2 * index + 1];
+    }
+
+    /**
+     * Returns the size in bytes of the given instance of this Klass. See oopDesc::size_given_klass.
+     */
+    public long getObjectSize(Hotspot hotspot, long oopAddress) {
+      switch (kind) {
+        case INSTANCE:
+          return instanceSize;
+        case MIRROR:
+          // A Class contains the static fields of its class, so each one is a different size. The Class contains an
+          // oop_size field that indicates how big it is.
+          int sizeInWords = hotspot.getAddressSpace().getInt(oopAddress + hotspot.getClassOopSizeOffset());
+          return sizeInWords * hotspot.getConstants().getHeapWordSize();
+        default:
+          // The number of elements is stored at the beginning of the array object
+          int numElements = hotspot.getAddressSpace().getInt(oopAddress + hotspot.arrayLengthOffset());
+          return hotspot.alignUp(arrayHeaderSize + ((long) numElements << log2ElementSize),
+              hotspot.getMinObjAlignmentInBytes());
+      }
+    }
+  }
+}
@@ -0,0 +1,236 @@
+package com.addepar.heapdump.inspect;
+
+import it.unimi.dsi.fastutil.longs.LongArrays;
+
+import java.util.Arrays;
+
+/**
+ * A set of half-open <code>[start, end)</code> intervals of addresses, kept sorted and disjoint in two primitive
+ * arrays. This does the job of a <code>RangeSet&lt;Long&gt;</code> without boxing every endpoint, which matters for
+ * fragmented CMS heaps with millions of free chunks. Unlike a <code>RangeSet</code>, intervals that only touch are
+ * kept apart, so that each one can stay a single region or object.
+ *
+ * Build a big set in one go with <code>fromUnsorted</code>. <code>add</code> keeps the set sorted as it goes, which is
+ * cheap when intervals arrive in address order, and fine for a few thousand that don't.
+ *
+ * This class is not thread safe.
+ */
+public final class LongIntervalSet {
+  private static final int INITIAL_CAPACITY = 16;
+
+  private long[] starts;
+  private long[] ends;
+  private int size;
+
+  /** The total length of the intervals before each one, built on demand for <code>addressAtOffset</code> */
+  private long[] offsets;
+
+  public LongIntervalSet() {
+    this.starts = new long[INITIAL_CAPACITY];
+    this.ends = new long[INITIAL_CAPACITY];
+  }
+
+  private LongIntervalSet(long[] starts, long[] ends, int size) {
+    this.starts = starts;
+    this.ends = ends;
+    this.size = size;
+  }
+
+  /**
+   * Build a set out of intervals in any order. Overlapping intervals are merged and empty ones are dropped. The arrays
+   * are sorted in place and then owned by the new set.
+   */
+  public static LongIntervalSet fromUnsorted(long[] starts, long[] ends, int count) {
+    LongArrays.radixSort(starts, ends, 0, count);
+    int size = 0;
+    for (int i = 0; i < count; i++) {
+      if (starts[i] >= ends[i]) {
+        continue;
+      }
+      if (size > 0 && starts[i] < ends[size - 1]) {
+        ends[size - 1] = Math.max(ends[size - 1], ends[i]);
+      } else {
+        starts[size] = starts[i];
+        ends[size] = ends[i];
+        size++;
+      }
+    }
+    return new LongIntervalSet(starts, ends, size);
+  }
+
+  /**
+   * Add an interval, merging it with any that it overlaps
+   */
+  public void add(long start, long end) {
+    if (start >= end) {
+      return;
+    }
+    offsets = null;
+    if (size == 0 || start >= ends[size - 1]) {
+      // The common case of adding in address order
+      ensureCapacity(size + 1);
+      starts[size] = start;
+      ends[size] = end;
+      size++;
+      return;
+    }
+
+    // Intervals first..last-1 overlap the new one
+    int first = floorIndex(start);
+    if (first < 0 || ends[first] <= start) {
+      first++;
+    }
+    int last = floorIndex(end - 1) + 1;
+    if (first == last) {
+      ensureCapacity(size + 1);
+      System.arraycopy(starts, first, starts, first + 1, size - first);
+      System.arraycopy(ends, first, ends, first + 1, size - first);
+      starts[first] = start;
+      ends[first] = end;
+      size++;
+    } else {
+      starts[first] = Math.min(start, starts[first]);
+      ends[first] = Math.max(end, ends[last - 1]);
+      System.arraycopy(starts, last, starts, first + 1, size - last);
+      System.arraycopy(ends, last, ends, first + 1, size - last);
+      size -= last - first - 1;
+    }
+  }
+
+  /**
+   * Remove every interval of <code>other</code> from this set, in one pass over both
+   */
+  public void removeAll(LongIntervalSet other) {
+    if (size == 0 || other.size == 0) {
+      return;
+    }
+    offsets = null;
+    long[] newStarts = new long[size + other.size];
+    long[] newEnds = new long[size + other.size];
+    int newSize = 0;
+    int j = 0;
+    for (int i = 0; i < size; i++) {
+      long start = starts[i];
+      long end = ends[i];
+      while (j < other.size && other.ends[j] <= start) {
+        j++;
+      }
+      // Cut out each removed interval that overlaps this one. The last of them may overlap the next one too.
+      int k = j;
+      while (k < other.size && other.starts[k] < end) {
+        if (other.starts[k] > start) {
+          newStarts[newSize] = start;
+          newEnds[newSize] = other.starts[k];
+          newSize++;
+        }
+        start = Math.max(start, other.ends[k]);
+        k++;
+      }
+      if (start < end) {
+        newStarts[newSize] = start;
+        newEnds[newSize] = end;
+        newSize++;
+      }
+    }
+    starts = newStarts;
+    ends = newEnds;
+    size = newSize;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  public long getStart(int index) {
+    return starts[index];
+  }
+
+  public long getEnd(int index) {
+    return ends[index];
+  }
+
+  /**
+   * The index of the last interval that starts at or before the address, or -1 if there isn't one
+   */
+  public int floorIndex(long address) {
+    int index = Arrays.binarySearch(starts, 0, size, address);
+    return index >= 0 ? index : -index - 2;
+  }
+
+  /**
+   * The index of the interval containing the address, or -1 if it isn't in the set
+   */
+  public int indexOf(long address) {
+    int index = floorIndex(address);
+    return index >= 0 && address < ends[index] ? index : -1;
+  }
+
+  public boolean contains(long address) {
+    return indexOf(address) >= 0;
+  }
+
+  /**
+   * Whether <code>[start, end)</code> is entirely inside one interval of the set
+   */
+  public boolean encloses(long start, long end) {
+    int index = floorIndex(start);
+    return index >= 0 && end <= ends[index];
+  }
+
+  /**
+   * The sum of the lengths of all the intervals
+   */
+  public long totalLength() {
+    return size == 0 ? 0 : offsets()[size - 1] + ends[size - 1] - starts[size - 1];
+  }
+
+  /**
+   * The address that is <code>offset</code> bytes into the set, as if the intervals were laid end to end. Useful for
+   * picking uniformly random addresses. The offset must be less than <code>totalLength</code>.
+   */
+  public long addressAtOffset(long offset) {
+    long[] offsets = offsets();
+    int index = Arrays.binarySearch(offsets, 0, size, offset);
+    if (index < 0) {
+      index = -index - 2;
+    }
+    return starts[index] + (offset - offsets[index]);
+  }
+
+  private long[] offsets() {
+    if (offsets == null) {
+      long[] newOffsets = new long[size];
+      long total = 0;
+      for (int i = 0; i < size; i++) {
+        newOffsets[i] = total;
+        total += ends[i] - starts[i];
+      }
+      offsets = newOffsets;
+    }
+    return offsets;
+  }
+
+  private void ensureCapacity(int capacity) {
+    if (capacity > starts.length) {
+      int newCapacity = Math.max(capacity, starts.length * 2);
+      starts = Arrays.copyOf(starts, newCapacity);
+      ends = Arrays.copyOf(ends, newCapacity);
+    }
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder("[");
+    for (int i = 0; i < size; i++) {
+      if (i > 0) {
+        sb.append(", ");
+      }
+      sb.append("0x").append(Long.toHexString(starts[i])).append("-0x").append(Long.toHexString(ends[i]));
+    }
+    return sb.append(']').toString();
+  }
+}
@@ -0,0 +1,117 @@
+package com.addepar.heapdump.inspect;
+
+/**
+ * Decodes the mark word at the start of every object header. See markOop.hpp for the bit layout. The methods take the
+ * raw mark word, as returned by <code>oopDesc._mark()</code>.
+ */
+public final class MarkWord {
+
+  public enum LockState {
+    /** Neutral header, holding the age and possibly the identity hash */
+    UNLOCKED,
+    /** Biased towards a thread (or biasable). The age is still present. */
+    BIASED,
+    /** Thin-locked. The header is displaced onto the owner's stack, so the age is unavailable. */
+    LOCKED,
+    /** Inflated into an ObjectMonitor. The header is displaced into the monitor. */
+    MONITOR,
+    /** Marked by the garbage collector, e.g. a forwarding pointer */
+    MARKED
+  }
+
+  private final long lockMaskInPlace;
+  private final long biasedLockMaskInPlace;
+  private final long biasedLockPattern;
+  private final long unlockedValue;
+  private final long lockedValue;
+  private final long monitorValue;
+  private final long ageShift;
+  private final long ageMask;
+  private final int maxAge;
+  private final long hashShift;
+  private final long hashMask;
+  private final long cmsShift;
+  private final long cmsMask;
+
+  public MarkWord(HotspotConstants constants) {
+    lockMaskInPlace = constants.getMarkOopLockMaskInPlace();
+    biasedLockMaskInPlace = constants.getMarkOopBiasedLockMaskInPlace();
+    biasedLockPattern = constants.getMarkOopBiasedLockPattern();
+    unlockedValue = constants.getMarkOopUnlockedValue();
+    lockedValue = constants.getMarkOopLockedValue();
+    monitorValue = constants.getMarkOopMonitorValue();
+    ageShift = constants.getMarkOopAgeShift();
+    ageMask = constants.getMarkOopAgeMask();
+    maxAge = (int) constants.getMarkOopMaxAge();
+    hashShift = constants.getMarkOopHashShift();
+    hashMask = constants.getMarkOopHashMask();
+    cmsShift = constants.getMarkOopCmsShift();
+    cmsMask = constants.getMarkOopCmsMask();
+  }
+
+  public LockState getLockState(long mark) {
+    if ((mark & biasedLockMaskInPlace) == biasedLockPattern) {
+      return LockState.BIASED;
+    }
+    long lockBits = mark & lockMaskInPlace;
+    if (lockBits == unlockedValue) {
+      return LockState.UNLOCKED;
+    } else if (lockBits == lockedValue) {
+      return LockState.LOCKED;
+    } else if (lockBits == monitorValue) {
+      return LockState.MONITOR;
+    } else {
+      return LockState.MARKED;
+    }
+  }
+
+  /**
+   * Neutral means unlocked and not biased, which is the state of most objects when biased locking is off
+   */
+  public boolean isNeutral(long mark) {
+    return (mark & biasedLockMaskInPlace) == unlockedValue;
+  }
+
+  public boolean isBiased(long mark) {
+    return (mark & biasedLockMaskInPlace) == biasedLockPattern;
+  }
+
+  /**
+   * Whether the age bits can be trusted. They can't when the header has been displaced by locking or GC marking.
+   */
+  public boolean hasAge(long mark) {
+    LockState state = getLockState(mark);
+    return state == LockState.UNLOCKED || state == LockState.BIASED;
+  }
+
+  /**
+   * The number of young collections the object has survived, capped at <code>getMaxAge</code>. Only meaningful if
+   * <code>hasAge</code> is true.
+   */
+  public int getAge(long mark) {
+    return (int) ((mark >>> ageShift) & ageMask);
+  }
+
+  public int getMaxAge() {
+    return maxAge;
+  }
+
+  /**
+   * Whether the identity hash code has been computed and stored in the header
+   */
+  public boolean hasHash(long mark) {
+    return isNeutral(mark) && getHash(mark) != 0;
+  }
+
+  public long getHash(long mark) {
+    return (mark >>> hashShift) & hashMask;
+  }
+
+  /**
+   * With compressed oops, CMS marks a free chunk by setting a bit in the mark word of a neutral header. See
+   * markOopDesc::is_cms_free_chunk.
+   */
+  public boolean isCmsFreeChunk(long mark) {
+    return isNeutral(mark) && ((mark >>> cmsShift) & cmsMask) != 0;
+  }
+}
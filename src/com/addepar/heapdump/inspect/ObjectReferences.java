@@ -0,0 +1,97 @@
+package com.addepar.heapdump.inspect;
+
+import com.addepar.heapdump.inspect.struct.Klass;
+import com.addepar.heapdump.inspect.struct.oopDesc;
+
+/**
+ * Decodes the outgoing references of a heap object, using the nonstatic oop maps for instances, the element data for
+ * object arrays, and the static reference fields that a java.lang.Class holds for its class. Nothing is allocated per
+ * object, so this can be used on every object in the heap.
+ *
+ * This class is not thread safe.
+ */
+public class ObjectReferences {
+
+  /**
+   * Interface for receiving references found by <code>forEachReference</code>
+   */
+  @FunctionalInterface
+  public interface ReferenceVisitor {
+    /**
+     * @param referent the (decompressed) address of the referenced object, never 0
+     * @param multiplicity the number of references this one stands for. This is 1 except when a large object array was
+     *                     only partially scanned.
+     */
+    void visitReference(long referent, long multiplicity);
+  }
+
+  private final Hotspot hotspot;
+  private final int maxArrayElements;
+
+  /**
+   * @param maxArrayElements the maximum number of elements to read from a single object array. Larger arrays are
+   *                         scanned with an even stride, and each reference found is reported with a multiplicity.
+   */
+  public ObjectReferences(Hotspot hotspot, int maxArrayElements) {
+    this.hotspot = hotspot;
+    this.maxArrayElements = maxArrayElements;
+  }
+
+  public void forEachReference(oopDesc oop, Klass klass, ReferenceVisitor visitor) {
+    forEachReference(oop.getAddress(), hotspot.getKlassTable().get(klass.getAddress()), visitor);
+  }
+
+  /**
+   * Visit the references of the object at the given address, reading its Klass from the object header
+   */
+  public void forEachReference(long oopAddress, ReferenceVisitor visitor) {
+    forEachReference(oopAddress, hotspot.getKlassTable().get(hotspot.getKlassAddress(oopAddress)), visitor);
+  }
+
+  public void forEachReference(long oopAddress, KlassTable.KlassInfo info, ReferenceVisitor visitor) {
+    switch (info.getKind()) {
+      case MIRROR:
+        // The static reference fields come first, right after the fields of java.lang.Class itself.
+        // See InstanceMirrorKlass::oop_oop_iterate.
+        int staticOopCount = hotspot.getAddressSpace().getInt(oopAddress + hotspot.getStaticOopFieldCountOffset());
+        visitRange(oopAddress + info.getInstanceSize(), staticOopCount, 1, visitor);
+        visitNonstaticFields(oopAddress, info, visitor);
+        break;
+      case INSTANCE:
+        visitNonstaticFields(oopAddress, info, visitor);
+        break;
+      case OBJ_ARRAY:
+        int length = hotspot.getAddressSpace().getInt(oopAddress + hotspot.arrayLengthOffset());
+        long base = oopAddress + info.getArrayHeaderSize();
+        if (length <= maxArrayElements) {
+          visitRange(base, length, 1, visitor);
+        } else {
+          int stride = (length + maxArrayElements - 1) / maxArrayElements;
+          for (int i = 0; i < length; i += stride) {
+            visitRange(base + (long) i * hotspot.getHeapOopSize(), 1, Math.min(stride, length - i), visitor);
+          }
+        }
+        break;
+      default:
+        // type arrays have no references
+        break;
+    }
+  }
+
+  private void visitNonstaticFields(long oopAddress, KlassTable.KlassInfo info, ReferenceVisitor visitor) {
+    for (int i = 0; i < info.getOopMapCount(); i++) {
+      visitRange(oopAddress + info.getOopMapOffset(i), info.getOopMapCount(i), 1, visitor);
+    }
+  }
+
+  private void visitRange(long address, int count, long multiplicity, ReferenceVisitor visitor) {
+    int oopSize = hotspot.getHeapOopSize();
+    for (int i = 0; i < count; i++) {
+      long referent = hotspot.getOopAt(address);
+      if (referent != 0) {
+        visitor.visitReference(referent, multiplicity);
+      }
+      address += oopSize;
+    }
+  }
+}
@@ -0,0 +1,81 @@
+package com.addepar.heapdump.inspect;
+
+import com.addepar.heapdump.inspect.struct.MemRegion;
+import com.addepar.heapdump.inspect.struct.MutableSpace;
+import com.addepar.heapdump.inspect.struct.PSOldGen;
+
+/**
+ * The table that the parallel collector keeps of where objects start in its old generation. It has a byte for every
+ * 512 byte block, which is the word offset of an object that starts in the block, or -1 if none do. See
+ * objectStartArray.hpp.
+ *
+ * PSOldGen::_start_array isn't in vmStructs, so it's found from the fields around it that are. The fields that are
+ * read are checked against each other and against the generation before the table is used.
+ */
+public final class ObjectStartArray {
+  private static final int BLOCK_SHIFT = 9;
+  private static final byte CLEAN_BLOCK = -1;
+
+  // Offsets back from PSOldGen::_object_space, which comes right after _start_array in JDK 8
+  private static final int OFFSET_BASE_BEFORE_OBJECT_SPACE = 8;
+  private static final int RAW_BASE_BEFORE_OBJECT_SPACE = 16;
+  private static final int COVERED_REGION_BEFORE_OBJECT_SPACE = 48;
+  private static final int RESERVED_REGION_BEFORE_OBJECT_SPACE = 64;
+
+  private final Hotspot hotspot;
+  private final long offsetBase;
+  private final long coveredStart;
+  private final int heapWordSize;
+
+  private ObjectStartArray(Hotspot hotspot, long offsetBase, long coveredStart) {
+    this.hotspot = hotspot;
+    this.offsetBase = offsetBase;
+    this.coveredStart = coveredStart;
+    this.heapWordSize = hotspot.getConstants().getHeapWordSize();
+  }
+
+  /**
+   * Find the start array of the old generation, or return null if what's there doesn't look like one
+   */
+  public static ObjectStartArray find(Hotspot hotspot, PSOldGen oldGen) {
+    HotspotStructs structs = hotspot.getStructs();
+    AddressSpace space = hotspot.getAddressSpace();
+    long objectSpaceField = oldGen.getAddress() + structs.offsetOf("PSOldGen", "_object_space", "MutableSpace*");
+
+    long offsetBase = space.getPointer(objectSpaceField - OFFSET_BASE_BEFORE_OBJECT_SPACE);
+    long rawBase = space.getPointer(objectSpaceField - RAW_BASE_BEFORE_OBJECT_SPACE);
+    MemRegion covered = structs.structAt(objectSpaceField - COVERED_REGION_BEFORE_OBJECT_SPACE, MemRegion.class);
+    MemRegion reserved = structs.structAt(objectSpaceField - RESERVED_REGION_BEFORE_OBJECT_SPACE, MemRegion.class);
+    MutableSpace objectSpace = oldGen._object_space();
+    MemRegion generationReserved = oldGen._reserved();
+
+    if (rawBase == 0
+        || offsetBase + (reserved._start() >>> BLOCK_SHIFT) != rawBase
+        || reserved._start() != generationReserved._start()
+        || reserved._word_size() != generationReserved._word_size()
+        || covered._start() != objectSpace._bottom()) {
+      return null;
+    }
+    return new ObjectStartArray(hotspot, offsetBase, covered._start());
+  }
+
+  /**
+   * The start of an object at or before the given address, or <code>ObjectStartLocator.UNKNOWN</code> if there isn't
+   * one in the table. The object containing the address is found by walking forward from there. This is the first half
+   * of ObjectStartArray::object_start.
+   */
+  public long blockStartAtOrBefore(long address) {
+    AddressSpace space = hotspot.getAddressSpace();
+    long lowestBlock = coveredStart >>> BLOCK_SHIFT;
+    for (long block = address >>> BLOCK_SHIFT; block >= lowestBlock; block--) {
+      byte entry = space.getByte(offsetBase + block);
+      if (entry != CLEAN_BLOCK) {
+        long start = (block << BLOCK_SHIFT) + (long) entry * heapWordSize;
+        if (start <= address) {
+          return start;
+        }
+      }
+    }
+    return ObjectStartLocator.UNKNOWN;
+  }
+}
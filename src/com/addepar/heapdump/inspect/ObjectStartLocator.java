@@ -0,0 +1,19 @@
+package com.addepar.heapdump.inspect;
+
+/**
+ * Finds the start of the object that contains an address, using the table that the collector keeps for the space the
+ * address is in, so that the cost doesn't depend on how big the object is. See
+ * <code>HotspotHeap.collectObjectStartLocator</code>.
+ *
+ * Implementations are not thread safe.
+ */
+public interface ObjectStartLocator {
+  long UNKNOWN = -1;
+
+  /**
+   * The start of the object containing the address, or UNKNOWN if the address isn't in a space that has a table, or is
+   * in a CMS free chunk. The tables of a live process can be out of date, so the caller should check that there really
+   * is an object at the result.
+   */
+  long findObjectStart(long address);
+}
@@ -3,9 +3,6 @@ package com.addepar.heapdump.inspect;
 import com.addepar.heapdump.inspect.inferior.AddressNotMappedException;
 import com.addepar.heapdump.inspect.struct.Klass;
 import com.addepar.heapdump.inspect.struct.oopDesc;
-import com.google.common.collect.Range;
-import com.google.common.collect.RangeSet;
-import com.google.common.collect.TreeRangeSet;
 
 /**
  * A helper that can be used to find the nearest object header to a given heap location.
@@ -18,28 +15,44 @@ public class OopFinder {
   private final Hotspot hotspot;
   private final oopDesc oop;
   private final Klass klass;
-  private final RangeSet<Long> largeObjects;
+  private final LongIntervalSet largeObjects;
+  private final ObjectStartLocator startLocator;
   private final long heapWordSize;
 
   public OopFinder(Hotspot hotspot) {
     this.hotspot = hotspot;
     this.oop = hotspot.getStructs().staticStruct(oopDesc.class);
     this.klass = hotspot.getStructs().staticStruct(Klass.class);
-    this.largeObjects = TreeRangeSet.create();
+    this.largeObjects = new LongIntervalSet();
+    this.startLocator = hotspot.getHeap().collectObjectStartLocator();
     this.heapWordSize = hotspot.getConstants().getHeapWordSize();
   }
 
   /**
-   * Walk backwards to find the start of the object at probeAddress, but don't walk past the bottom
-   * of the live region.
+   * Tell the finder where an object is, e.g. a humongous object in G1, so that probes inside it don't have to search
+   * backwards for its header
+   */
+  public void addKnownObject(long start, long end) {
+    largeObjects.add(start, end);
+  }
+
+  /**
+   * Find the start of the object at probeAddress. If the collector keeps a table of object starts for the space, that's
+   * used; otherwise (or if the table is out of date) walk backwards, but don't walk past the bottom of the live region.
    */
   public boolean probeForObject(long probeAddress, long bottom) {
-    Range<Long> largeObject = largeObjects.rangeContaining(probeAddress);
-    if (largeObject != null) {
-      oop.setAddress(largeObject.lowerEndpoint());
+    int largeObject = largeObjects.indexOf(probeAddress);
+    if (largeObject >= 0) {
+      oop.setAddress(largeObjects.getStart(largeObject));
       oop.getKlass(hotspot, klass);
       return true;
     }
+    long start = locateObject(probeAddress, bottom);
+    if (start != ObjectStartLocator.UNKNOWN) {
+      // The table is right about where the block starts, so if the object doesn't reach the probe then the probe is in
+      // the padding of a CMS block, and there's no other object to find
+      return Long.compareUnsigned(start + oop.getObjectSize(hotspot, klass), probeAddress) > 0;
+    }
     long cur = probeAddress & ~(heapWordSize - 1);
     while (Long.compareUnsigned(cur, bottom) >= 0) {
       oop.setAddress(cur);
@@ -48,7 +61,7 @@ public class OopFinder {
         long objectSize = oop.getObjectSize(hotspot, klass);
         if (Long.compareUnsigned(cur + objectSize, probeAddress) > 0) {
           if (probeAddress - cur > MIN_LARGE_OBJECT_SIZE) {
-            largeObjects.add(Range.closedOpen(cur, cur + objectSize));
+            largeObjects.add(cur, cur + objectSize);
           }
           return true; // original address was within the nearest object
         }
@@ -59,6 +72,24 @@ public class OopFinder {
     return false; // not found
   }
 
+  /**
+   * Use the collector's table to find the block containing probeAddress, leaving <code>oop</code> and
+   * <code>klass</code> set to it. Returns UNKNOWN if there's no table, or it's out of date.
+   */
+  private long locateObject(long probeAddress, long bottom) {
+    try {
+      long start = startLocator.findObjectStart(probeAddress);
+      if (start == ObjectStartLocator.UNKNOWN || Long.compareUnsigned(start, bottom) < 0) {
+        return ObjectStartLocator.UNKNOWN;
+      }
+      oop.setAddress(start);
+      oop.getKlass(hotspot, klass);
+      return isLikelyObject() ? start : ObjectStartLocator.UNKNOWN;
+    } catch (RuntimeException e) {
+      return ObjectStartLocator.UNKNOWN; // the table pointed at garbage, so fall back to the backward scan
+    }
+  }
+
   /*
    * Get the object that was found in the last probe (if successful). The returned <code>oopDesc</code> may be
    * reused/modified in the next call to <code>probeForObject</code>, so the caller should not retain references to it.
@@ -79,19 +110,23 @@ public class OopFinder {
    * Check if the current value of <code>oop</code> looks like a probable object
    */
   private boolean isLikelyObject() {
+    // TODO: more validation
+    return isLikelyKlass(klass);
+  }
+
+  /**
+   * Check if the given <code>Klass</code>, which was read out of an object header, points at something that really is
+   * a Klass
+   */
+  public boolean isLikelyKlass(Klass candidate) {
     try {
       // Perform a dynamic type check (up until now there isn't a guarantee that the pointer is valid)
-      if (klass.getAddress() == 0
-          || !hotspot.getAddressSpace().isMapped(klass.getAddress())
-          || !klass.isInstanceOf(Klass.class)) {
-        return false;
-      }
+      return candidate.getAddress() != 0
+          && hotspot.getAddressSpace().isMapped(candidate.getAddress())
+          && hotspot.getStructs().isInstanceOf(candidate, Klass.class);
     } catch (AddressNotMappedException e) {
       return false;
     }
-
-    // TODO: more validation
-    return true;
   }
 
 //
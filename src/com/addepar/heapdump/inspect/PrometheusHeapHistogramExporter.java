@@ -0,0 +1,139 @@
+package com.addepar.heapdump.inspect;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Supplier;
+
+/**
+ * Serves heap histograms, typically the latest result of a <code>BackgroundHeapSampler</code>, over HTTP in the
+ * Prometheus text exposition format. The server only listens on the loopback interface.
+ */
+public class PrometheusHeapHistogramExporter implements Closeable {
+  private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+  private final Supplier<HeapHistogram> source;
+  private final long minHits;
+  private final HttpServer server;
+
+  /**
+   * @param source called on every scrape; may return null if there is no result yet
+   * @param port the local port to listen on, or 0 to pick one
+   * @param minHits classes with fewer hits than this are left out, to keep the number of time series in check
+   */
+  public PrometheusHeapHistogramExporter(Supplier<HeapHistogram> source, int port, long minHits) throws IOException {
+    this.source = source;
+    this.minHits = minHits;
+    this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+    server.createContext("/metrics", this::handle);
+  }
+
+  public void start() {
+    server.start();
+  }
+
+  public int getPort() {
+    return server.getAddress().getPort();
+  }
+
+  @Override
+  public void close() {
+    server.stop(0);
+  }
+
+  private void handle(HttpExchange exchange) throws IOException {
+    byte[] body = format(source.get()).getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+    exchange.sendResponseHeaders(200, body.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(body);
+    }
+  }
+
+  String format(HeapHistogram histogram) {
+    StringBuilder builder = new StringBuilder();
+    if (histogram == null) {
+      return builder.toString();
+    }
+
+    gauge(builder, "heap_sampler_timestamp_seconds", "When the most recent sampling pass started",
+        histogram.getTimestampMillis() / 1000.0);
+    gauge(builder, "heap_sampler_live_heap_bytes", "Size of the live regions that were sampled",
+        histogram.getLiveHeapSize());
+    gauge(builder, "heap_sampler_samples", "Number of samples taken", histogram.getSamples());
+    gauge(builder, "heap_sampler_hits", "Number of samples that landed on an object", histogram.getTotalHits());
+    gauge(builder, "heap_sampler_runtime_milliseconds", "Duration of the sampling pass", histogram.getRuntimeMillis());
+    gauge(builder, "heap_sampler_gc_runs", "Garbage collections observed during the sampling pass",
+        histogram.getGcRuns());
+
+    header(builder, "heap_sampler_class_hits", "Samples that landed on an instance of the class");
+    for (HeapHistogram.ClassEstimate estimate : histogram.getClasses()) {
+      if (estimate.getHits() >= minHits) {
+        sample(builder, "heap_sampler_class_hits", estimate, estimate.getHits());
+      }
+    }
+    header(builder, "heap_sampler_class_estimated_bytes", "Estimated total size of the instances of the class");
+    for (HeapHistogram.ClassEstimate estimate : histogram.getClasses()) {
+      if (estimate.getHits() >= minHits) {
+        sample(builder, "heap_sampler_class_estimated_bytes", estimate, estimate.getEstimatedSize());
+      }
+    }
+    header(builder, "heap_sampler_class_estimated_bytes_lower", "Lower end of the 99% confidence interval");
+    for (HeapHistogram.ClassEstimate estimate : histogram.getClasses()) {
+      if (estimate.getHits() >= minHits) {
+        sample(builder, "heap_sampler_class_estimated_bytes_lower", estimate, estimate.getEstimatedSizeLowerBound());
+      }
+    }
+    header(builder, "heap_sampler_class_estimated_bytes_upper", "Upper end of the 99% confidence interval");
+    for (HeapHistogram.ClassEstimate estimate : histogram.getClasses()) {
+      if (estimate.getHits() >= minHits) {
+        sample(builder, "heap_sampler_class_estimated_bytes_upper", estimate, estimate.getEstimatedSizeUpperBound());
+      }
+    }
+    header(builder, "heap_sampler_class_estimated_instances", "Estimated number of instances of the class");
+    for (HeapHistogram.ClassEstimate estimate : histogram.getClasses()) {
+      if (estimate.getHits() >= minHits) {
+        sample(builder, "heap_sampler_class_estimated_instances", estimate, estimate.getEstimatedNumber());
+      }
+    }
+    header(builder, "heap_sampler_class_mean_age", "Mean number of young collections survived by sampled instances");
+    for (HeapHistogram.ClassEstimate estimate : histogram.getClasses()) {
+      if (estimate.getHits() >= minHits && !Double.isNaN(estimate.getMeanAge())) {
+        sample(builder, "heap_sampler_class_mean_age", estimate, estimate.getMeanAge());
+      }
+    }
+    return builder.toString();
+  }
+
+  private static void gauge(StringBuilder builder, String name, String help, double value) {
+    header(builder, name, help);
+    builder.append(name).append(' ').append(value).append('\n');
+  }
+
+  private static void header(StringBuilder builder, String name, String help) {
+    builder.append("# HELP ").append(name).append(' ').append(help).append('\n');
+    builder.append("# TYPE ").append(name).append(" gauge\n");
+  }
+
+  private static void sample(StringBuilder builder, String name, HeapHistogram.ClassEstimate estimate, double value) {
+    builder.append(name).append("{class=\"");
+    String klassName = estimate.getKlassName();
+    for (int i = 0; i < klassName.length(); i++) {
+      char ch = klassName.charAt(i);
+      if (ch == '\\' || ch == '"') {
+        builder.append('\\').append(ch);
+      } else if (ch == '\n') {
+        builder.append("\\n");
+      } else {
+        builder.append(ch);
+      }
+    }
+    builder.append("\"} ").append(value).append('\n');
+  }
+}
@@ -1,11 +1,12 @@
 package com.addepar.heapdump.inspect;
 
+import com.addepar.heapdump.inspect.inferior.AddressNotMappedException;
 import com.addepar.heapdump.inspect.inferior.Inferior;
 import com.addepar.heapdump.inspect.inferior.SelfInferior;
 import com.addepar.heapdump.inspect.struct.Klass;
 import com.addepar.heapdump.inspect.struct.oopDesc;
-import com.google.common.collect.Range;
-import com.google.common.collect.RangeSet;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
 
 import java.io.IOException;
 import java.io.PrintWriter;
@@ -41,14 +42,76 @@ public final class StatisticalHeapInspector {
    */
   private static final int MIN_TOTAL_HITS = 1849;
 
-  private final PrintWriter out;
+  /**
+   * Object arrays with more elements than this are scanned with a stride when looking for outgoing references, so that
+   * one huge array can't blow the time budget
+   */
+  private static final int MAX_ARRAY_ELEMENTS = 1000;
+
+  /**
+   * We don't show incoming references that were observed less often than this
+   */
+  private static final int MIN_SIGNIFICANT_REFERENCES = 10;
+
+  /**
+   * The number of referring classes to show for each class
+   */
+  private static final int MAX_REFERRERS = 5;
+
+  /**
+   * The z-score for a two-sided 99% confidence interval
+   */
+  private static final double Z_99 = 2.576;
+
+  /**
+   * The size of the strata of an incremental run
+   */
+  private static final long STRATUM_SIZE = 4L << 20;
+
+  /**
+   * The number of sampled pages, besides the first page, that go into the checksum of a stratum
+   */
+  private static final int FINGERPRINT_PAGES = 3;
+
+  private static final long FINGERPRINT_PAGE_SIZE = 0x1000;
+
+  /**
+   * Incremental runs start over when the live heap changes size by more than this fraction, because the samples that
+   * were kept were taken at the wrong density
+   */
+  private static final double MAX_DENSITY_DRIFT = 0.25;
+
+  /**
+   * Samples are taken in batches, and a batch that overlaps with a collection is thrown away
+   */
+  private static final int SAMPLE_BATCH_SIZE = 50;
+
+  /**
+   * The number of batches that a pass may throw away before it settles for the samples it has
+   */
+  private static final int MAX_BATCH_RETRIES = 20;
+
+  /**
+   * The longest time to wait for a collection to finish before retrying a batch
+   */
+  private static final long MAX_GC_WAIT_MILLIS = 2000;
+
   private final Hotspot hotspot;
   private final HotspotHeap heap;
+  private final oopDesc referent;
+  private final Klass referentKlass;
+
+  /**
+   * The strata of the last incremental run, keyed by their start address, and the density they were sampled at
+   */
+  private Long2ObjectOpenHashMap<Stratum> strata = new Long2ObjectOpenHashMap<>();
+  private double bytesPerSample;
 
-  private StatisticalHeapInspector(PrintWriter out, Hotspot hotspot) {
-    this.out = out;
+  public StatisticalHeapInspector(Hotspot hotspot) {
     this.hotspot = hotspot;
     this.heap = hotspot.getHeap();
+    this.referent = hotspot.getStructs().staticStruct(oopDesc.class);
+    this.referentKlass = hotspot.getStructs().staticStruct(Klass.class);
   }
 
   private long getGcRunCount() {
@@ -59,89 +122,439 @@ public final class StatisticalHeapInspector {
     return gcRuns;
   }
 
-  private void run() {
+  public HeapHistogram run() {
+    return run(SAMPLES, Long.MAX_VALUE);
+  }
+
+  /**
+   * Take up to <code>samples</code> samples, but stop early once <code>maxMillis</code> have passed. This is what
+   * bounds the cost of a pass when running continuously.
+   */
+  public HeapHistogram run(int samples, long maxMillis) {
     long startTime = System.currentTimeMillis();
 
     hotspot.reset();
     long startGcRuns = getGcRunCount();
     Graph graph = new Graph();
-    RangeSet<Long> liveRegions = heap.collectLiveRegions();
-    OopFinder finder = new OopFinder(hotspot);
+    LongIntervalSet liveRegions = heap.collectLiveRegions();
+    OopFinder finder = newOopFinder();
+    ObjectReferences references = new ObjectReferences(hotspot, MAX_ARRAY_ELEMENTS);
+
+    long totalSize = liveRegions.totalLength();
+
+    int totalHits = 0;
+    int samplesTaken = 0;
+    int discardedSamples = 0;
+    int retries = 0;
+    List<Sample> batch = new ArrayList<>(SAMPLE_BATCH_SIZE);
+    while (samplesTaken < samples && totalSize > 0 && System.currentTimeMillis() - startTime <= maxMillis) {
+      batch.clear();
+      int batchSize = Math.min(SAMPLE_BATCH_SIZE, samples - samplesTaken);
+      int batchSamples = 0;
+      long epoch = heap.readGcEpoch();
+      RuntimeException failure = null;
+      try {
+        for (; batchSamples < batchSize; batchSamples++) {
+          if (System.currentTimeMillis() - startTime > maxMillis) {
+            break;
+          }
+          long probeAddress = liveRegions.addressAtOffset(ThreadLocalRandom.current().nextLong(totalSize));
+          long bottom = liveRegions.getStart(liveRegions.floorIndex(probeAddress));
+          Sample sample = takeSample(probeAddress, bottom, finder, references);
+          if (sample != null) {
+            batch.add(sample);
+          }
+        }
+      } catch (RuntimeException e) {
+        failure = e;
+      }
 
-    long totalSize = 0L;
+      if (epoch == HotspotHeap.GC_IN_PROGRESS || heap.readGcEpoch() != epoch) {
+        // The batch overlapped with a collection, so it may have seen objects half moved. Everything we know about
+        // the layout of the heap is stale too.
+        discardedSamples += batchSamples;
+        if (++retries > MAX_BATCH_RETRIES) {
+          break;
+        }
+        awaitEndOfGc(startTime, maxMillis);
+        hotspot.reset();
+        liveRegions = heap.collectLiveRegions();
+        finder = newOopFinder();
+        totalSize = liveRegions.totalLength();
+        continue;
+      }
+      if (failure != null) {
+        throw failure;
+      }
 
-    for (Range<Long> liveRegion : liveRegions.asRanges()) {
-      long bottom = liveRegion.lowerEndpoint();
-      long top = liveRegion.upperEndpoint();
-      totalSize += top - bottom;
+      for (Sample sample : batch) {
+        addToGraph(graph, sample);
+      }
+      totalHits += batch.size();
+      samplesTaken += batchSamples;
     }
 
-    int totalHits = 0;
-    for (int i = 0; i < SAMPLES; i++) {
+    long endTime = System.currentTimeMillis();
+    long endGcRuns = getGcRunCount();
+
+    return toHistogram(graph, startTime, totalSize, samplesTaken, totalHits, 0, discardedSamples,
+        endTime - startTime, endGcRuns - startGcRuns);
+  }
+
+  /**
+   * Like <code>run</code>, but remember the samples from each stratum of the heap, and reuse them on the next call if
+   * the stratum hasn't changed. Between major collections most of the old generation stays put, so most of the cost
+   * of a pass goes into the parts of the heap that are actually changing.
+   *
+   * A stratum is a piece of a live region, aligned to <code>STRATUM_SIZE</code> so that it stays the same when the
+   * region grows above it. Its fingerprint is its bounds, the bottom of its region, and a checksum of the pages that
+   * its samples landed on. Every stratum is sampled at the same density, fixed by the first pass, so that reused and
+   * fresh samples can be mixed in one histogram. If the live heap changes size by too much, everything is sampled
+   * again at a new density.
+   *
+   * If a collection runs while a stratum is being sampled, the pass starts over. If the time or the retries run out,
+   * the strata that weren't sampled are left out of the live heap size of the result.
+   */
+  public HeapHistogram runIncremental(int samples, long maxMillis) {
+    long startTime = System.currentTimeMillis();
+    long startGcRuns = getGcRunCount();
+    int discardedSamples = 0;
+    int retries = 0;
+
+    pass:
+    while (true) {
+      hotspot.reset();
+      Graph graph = new Graph();
+      LongIntervalSet liveRegions = heap.collectLiveRegions();
+      OopFinder finder = newOopFinder();
+      ObjectReferences references = new ObjectReferences(hotspot, MAX_ARRAY_ELEMENTS);
+
+      long totalSize = liveRegions.totalLength();
+      if (totalSize == 0) {
+        strata.clear();
+        return toHistogram(graph, startTime, 0, 0, 0, 0, discardedSamples, System.currentTimeMillis() - startTime,
+            getGcRunCount() - startGcRuns);
+      }
+      double targetBytesPerSample = (double) totalSize / (double) samples;
+      if (bytesPerSample == 0 || Math.abs(targetBytesPerSample / bytesPerSample - 1.0) > MAX_DENSITY_DRIFT) {
+        strata.clear();
+        bytesPerSample = targetBytesPerSample;
+      }
+
+      Long2ObjectOpenHashMap<Stratum> newStrata = new Long2ObjectOpenHashMap<>();
+      long sampledSize = 0;
+      int totalHits = 0;
+      int samplesTaken = 0;
+      int reusedSamples = 0;
+      boolean outOfTime = false;
+      for (int region = 0; region < liveRegions.size(); region++) {
+        long bottom = liveRegions.getStart(region);
+        long top = liveRegions.getEnd(region);
+        for (long start = bottom; start < top; start = (start & -STRATUM_SIZE) + STRATUM_SIZE) {
+          long end = Math.min((start & -STRATUM_SIZE) + STRATUM_SIZE, top);
 
-      long randomOffset = ThreadLocalRandom.current().nextLong(totalSize);
+          Stratum stratum = strata.get(start);
+          if (stratum == null || stratum.regionBottom != bottom || stratum.end != end
+              || stratum.checksum != checksum(start, end, stratum.samples)) {
+            outOfTime = outOfTime || System.currentTimeMillis() - startTime > maxMillis;
+            if (outOfTime) {
+              continue;
+            }
 
-      for (Range<Long> liveRegion : liveRegions.asRanges()) {
-        long bottom = liveRegion.lowerEndpoint();
-        long top = liveRegion.upperEndpoint();
-        long size = top - bottom;
-        if (size > randomOffset) {
-          if (finder.probeForObject(bottom + randomOffset, bottom)) {
-            addToGraph(graph, finder.getProbedObject(), finder.getProbedKlass());
+            long epoch = heap.readGcEpoch();
+            RuntimeException failure = null;
+            try {
+              stratum = sampleStratum(bottom, start, end, finder, references);
+            } catch (RuntimeException e) {
+              failure = e;
+            }
+            if (epoch == HotspotHeap.GC_IN_PROGRESS || heap.readGcEpoch() != epoch) {
+              discardedSamples += failure == null ? stratum.samples.size() + stratum.misses : 0;
+              if (++retries <= MAX_BATCH_RETRIES) {
+                // The layout of the heap may have changed, so start over. Strata that were sampled before the
+                // collection are kept in case they came through it unchanged.
+                strata.putAll(newStrata);
+                awaitEndOfGc(startTime, maxMillis);
+                continue pass;
+              }
+              continue;
+            }
+            if (failure != null) {
+              throw failure;
+            }
+            samplesTaken += stratum.samples.size() + stratum.misses;
+          } else {
+            samplesTaken += stratum.samples.size() + stratum.misses;
+            reusedSamples += stratum.samples.size() + stratum.misses;
+          }
+
+          for (Sample sample : stratum.samples) {
+            addToGraph(graph, sample);
             totalHits++;
           }
-          break;
-        } else {
-          randomOffset -= size;
+          newStrata.put(start, stratum);
+          sampledSize += end - start;
         }
       }
+      strata = newStrata;
+
+      long endTime = System.currentTimeMillis();
+      long endGcRuns = getGcRunCount();
+
+      return toHistogram(graph, startTime, sampledSize, samplesTaken, totalHits, reusedSamples, discardedSamples,
+          endTime - startTime, endGcRuns - startGcRuns);
+    }
+  }
+
+  /**
+   * Wait for a collection that's in progress to finish, so that a retry doesn't run straight into it. Gives up when
+   * the time budget of the pass runs out, or after <code>MAX_GC_WAIT_MILLIS</code> in case the VM is stuck (or is a
+   * core file) in the middle of a collection.
+   */
+  private void awaitEndOfGc(long startTime, long maxMillis) {
+    long waitStart = System.currentTimeMillis();
+    while (heap.readGcEpoch() == HotspotHeap.GC_IN_PROGRESS
+        && System.currentTimeMillis() - startTime <= maxMillis
+        && System.currentTimeMillis() - waitStart <= MAX_GC_WAIT_MILLIS) {
+      try {
+        Thread.sleep(1);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+    }
+  }
+
+  /**
+   * Sample <code>[start, end)</code> at the current density. The number of samples is rounded up or down at random,
+   * so that small strata get their fair share on average.
+   */
+  private Stratum sampleStratum(long bottom, long start, long end, OopFinder finder, ObjectReferences references) {
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    double expectedSamples = (double) (end - start) / bytesPerSample;
+    int count = (int) expectedSamples;
+    if (random.nextDouble() < expectedSamples - count) {
+      count++;
     }
 
-    long endTime = System.currentTimeMillis();
-    long endGcRuns = getGcRunCount();
+    List<Sample> samples = count == 0 ? Collections.emptyList() : new ArrayList<>(count);
+    int misses = 0;
+    for (int i = 0; i < count; i++) {
+      Sample sample = takeSample(start + random.nextLong(end - start), bottom, finder, references);
+      if (sample != null) {
+        samples.add(sample);
+      } else {
+        misses++;
+      }
+    }
+    return new Stratum(bottom, end, checksum(start, end, samples), misses, samples);
+  }
+
+  /**
+   * A cheap checksum of the first page of the stratum and the pages that the first few samples landed on. Only the
+   * bytes inside the stratum are included.
+   */
+  private long checksum(long start, long end, List<Sample> samples) {
+    AddressSpace space = hotspot.getAddressSpace();
+    long checksum = 0;
+    try {
+      for (int i = -1; i < Math.min(samples.size(), FINGERPRINT_PAGES); i++) {
+        long address = i < 0 ? start : samples.get(i).address;
+        long pageStart = Math.max(address & -FINGERPRINT_PAGE_SIZE, start);
+        long pageEnd = Math.min((address & -FINGERPRINT_PAGE_SIZE) + FINGERPRINT_PAGE_SIZE, end);
+        for (long cur = pageStart; cur + 8 <= pageEnd; cur += 8) {
+          checksum = checksum * 31 + space.getLong(cur);
+        }
+      }
+    } catch (AddressNotMappedException e) {
+      return 0;
+    }
+    return checksum;
+  }
 
-    write(graph, totalSize, totalHits, endTime - startTime, endGcRuns - startGcRuns);
+  private OopFinder newOopFinder() {
+    OopFinder finder = new OopFinder(hotspot);
+    LongIntervalSet humongousObjects = heap.collectHumongousObjects();
+    for (int i = 0; i < humongousObjects.size(); i++) {
+      finder.addKnownObject(humongousObjects.getStart(i), humongousObjects.getEnd(i));
+    }
+    return finder;
   }
 
-  private void addToGraph(Graph graph, oopDesc object, Klass klass) {
-    Node node = graph.nodes.get(klass.getAddress());
+  /**
+   * Probe for the object at the address and record what it looks like, or return null if there's no object there
+   */
+  private Sample takeSample(long probeAddress, long bottom, OopFinder finder, ObjectReferences references) {
+    if (!finder.probeForObject(probeAddress, bottom)) {
+      return null;
+    }
+    oopDesc object = finder.getProbedObject();
+    Klass klass = finder.getProbedKlass();
+    Sample sample = new Sample(object.getAddress(), klass.getAddress(), object.getObjectSize(hotspot, klass),
+        object._mark());
+    addEdges(sample, finder, references);
+    return sample;
+  }
+
+  private void addToGraph(Graph graph, Sample sample) {
+    Node node = graph.nodes.get(sample.klassAddress);
     if (node == null) {
       node = new Node();
-      node.klassName = klass.getName(hotspot);
-      graph.nodes.put(klass.getAddress(), node);
+      node.ages = new long[hotspot.getMarkWord().getMaxAge() + 1];
+      node.klassAddress = sample.klassAddress;
+      node.klassName = hotspot.getKlassTable().get(sample.klassAddress).getName();
+      graph.nodes.put(sample.klassAddress, node);
     }
     node.hits++;
-    node.size += object.getObjectSize(hotspot, klass);
+    node.size += sample.size;
+
+    MarkWord markWord = hotspot.getMarkWord();
+    long mark = sample.mark;
+    switch (markWord.getLockState(mark)) {
+      case BIASED:
+        node.biasedHits++;
+        node.ages[markWord.getAge(mark)]++;
+        break;
+      case UNLOCKED:
+        if (markWord.hasHash(mark)) {
+          node.hashedHits++;
+        }
+        node.ages[markWord.getAge(mark)]++;
+        break;
+      case LOCKED:
+      case MONITOR:
+        node.lockedHits++;
+        break;
+      default:
+        // marked by the GC, so the header is meaningless
+        break;
+    }
+
+    for (int i = 0; i < sample.edges.size(); i += 2) {
+      long destKlass = sample.edges.getLong(i);
+      Edge edge = node.outgoingEdges.get(destKlass);
+      if (edge == null) {
+        edge = new Edge();
+        edge.destKlass = destKlass;
+        node.outgoingEdges.put(destKlass, edge);
+      }
+      edge.hits++;
+      edge.references += sample.edges.getLong(i + 1);
+    }
+  }
+
+  /**
+   * Record the classes of everything that the most recently probed object points at
+   */
+  private void addEdges(Sample sample, OopFinder finder, ObjectReferences references) {
+    try {
+      references.forEachReference(finder.getProbedObject(), finder.getProbedKlass(), (address, multiplicity) -> {
+        // If the probe landed on something that only looked like an object, the "references" are random words
+        if ((address & (hotspot.getMinObjAlignmentInBytes() - 1)) != 0) {
+          return;
+        }
+        referent.setAddress(address);
+        try {
+          referent.getKlass(hotspot, referentKlass);
+        } catch (AddressNotMappedException e) {
+          return;
+        }
+        if (!finder.isLikelyKlass(referentKlass)) {
+          return;
+        }
+        sample.edges.add(referentKlass.getAddress());
+        sample.edges.add(multiplicity);
+      });
+    } catch (AddressNotMappedException e) {
+      // The object was probably being moved by the GC while we read it. The hit still counts, but its references
+      // are unreliable.
+    }
+  }
+
+  private HeapHistogram toHistogram(Graph graph, long timestamp, long totalHeapSize, int samples, int totalHits,
+                                    int reusedSamples, int discardedSamples, long millis, long gcRuns) {
+    List<Node> sortedNodes = new ArrayList<>(graph.nodes.values());
+    Collections.sort(sortedNodes, Comparator.comparing((Node node) -> node.hits).reversed());
+
+    List<HeapHistogram.ClassEstimate> classes = new ArrayList<>();
+    for (Node node : sortedNodes) {
+      double estimatedPercent = (double) node.hits / (double) totalHits * 100.0;
+      double sizeOfObject = (double) node.size / (double) node.hits;
+      double estimatedSize = ((double) node.hits * (double) totalHeapSize) / (double) totalHits;
+      double estimatedNumber = estimatedSize / sizeOfObject;
+
+      // Each hit is a Bernoulli trial, so use the normal approximation to the binomial for the confidence interval
+      double fraction = (double) node.hits / (double) totalHits;
+      double margin = Z_99 * Math.sqrt(fraction * (1.0 - fraction) / (double) totalHits);
+      double lowerBound = Math.max(0.0, fraction - margin) * (double) totalHeapSize;
+      double upperBound = Math.min(1.0, fraction + margin) * (double) totalHeapSize;
+
+      List<HeapHistogram.Referrer> referrers = node.hits > MIN_SIGNIFICANT_SAMPLES
+          ? findReferrers(graph, node, totalHeapSize, totalHits)
+          : Collections.emptyList();
+      classes.add(new HeapHistogram.ClassEstimate(node.klassAddress, node.klassName, node.hits, estimatedPercent,
+          estimatedSize, estimatedNumber, sizeOfObject, lowerBound, upperBound, node.ages, node.hashedHits,
+          node.biasedHits, node.lockedHits, referrers));
+    }
+    return new HeapHistogram(timestamp, totalHeapSize, samples, totalHits, reusedSamples, discardedSamples, millis,
+        gcRuns, classes);
   }
 
-  private void write(Graph graph, long totalHeapSize, int totalHits, long millis, long gcRuns) {
+  /**
+   * Find the classes that point at the given one. A sampled object stands in for (estimated number / hits) objects of
+   * its class, so the references it holds are scaled up by the same amount.
+   */
+  private List<HeapHistogram.Referrer> findReferrers(Graph graph, Node node, long totalHeapSize, int totalHits) {
+    Map<Node, Double> referrers = new HashMap<>();
+    double totalIncoming = 0.0;
+    for (Node source : graph.nodes.values()) {
+      Edge edge = source.outgoingEdges.get(node.klassAddress);
+      if (edge != null) {
+        double estimatedReferences = ((double) edge.references * (double) totalHeapSize * (double) source.hits)
+            / ((double) totalHits * (double) source.size);
+        totalIncoming += estimatedReferences;
+        if (edge.hits >= MIN_SIGNIFICANT_REFERENCES) {
+          referrers.put(source, estimatedReferences);
+        }
+      }
+    }
+
+    List<Map.Entry<Node, Double>> sortedReferrers = new ArrayList<>(referrers.entrySet());
+    Collections.sort(sortedReferrers, Map.Entry.<Node, Double>comparingByValue().reversed());
+    List<HeapHistogram.Referrer> result = new ArrayList<>();
+    for (Map.Entry<Node, Double> referrer : sortedReferrers.subList(0, Math.min(MAX_REFERRERS, sortedReferrers.size()))) {
+      result.add(new HeapHistogram.Referrer(referrer.getKey().klassName, referrer.getValue(),
+          referrer.getValue() / totalIncoming * 100.0));
+    }
+    return result;
+  }
+
+  public static void write(PrintWriter out, HeapHistogram histogram) {
     out.println();
     out.println();
-    out.println("Live heap:     " + totalHeapSize);
-    out.println("Total samples: " + SAMPLES);
-    out.println("Total hits:    " + totalHits);
-    out.println("Runtime:       " + millis + " ms");
-    out.println("GC Runs:       " + gcRuns);
+    out.println("Live heap:     " + histogram.getLiveHeapSize());
+    out.println("Total samples: " + histogram.getSamples());
+    out.println("Total hits:    " + histogram.getTotalHits());
+    out.println("Reused:        " + histogram.getReusedSamples());
+    out.println("Discarded:     " + histogram.getDiscardedSamples());
+    out.println("Runtime:       " + histogram.getRuntimeMillis() + " ms");
+    out.println("GC Runs:       " + histogram.getGcRuns());
     out.println();
     out.println("Hits | % of heap | Estimated Total Size | Estimated Number | Avg Instance Size | Class");
     out.println("--------------------------------------------------------------------------------------");
-    List<Node> sortedNodes = new ArrayList<>(graph.nodes.values());
-    Collections.sort(sortedNodes, Comparator.comparing((Node node) -> node.hits).reversed());
-    for (Node node : sortedNodes) {
+    for (HeapHistogram.ClassEstimate estimate : histogram.getClasses()) {
       // ignore low fidelity stuff
-      if (node.hits <= MIN_SIGNIFICANT_SAMPLES) {
+      if (estimate.getHits() <= MIN_SIGNIFICANT_SAMPLES) {
         break;
       }
-      String className = node.klassName;
-      double estimatedPercent = (double) node.hits / (double) totalHits * 100.0;
-      double sizeOfObject = (double) node.size / (double) node.hits;
-      double estimatedSize = ((double) node.hits * (double) totalHeapSize) / (double) totalHits;
-      double estimatedNumber = estimatedSize / sizeOfObject;
       out.format("%4d | %8.1f%% | %20.0f | %16.0f | %17.0f | %s\n",
-          node.hits, estimatedPercent, estimatedSize, estimatedNumber, sizeOfObject, className);
+          estimate.getHits(), estimate.getPercentOfHeap(), estimate.getEstimatedSize(), estimate.getEstimatedNumber(),
+          estimate.getAverageInstanceSize(), estimate.getKlassName());
     }
+    writeReferrers(out, histogram);
+    writeAges(out, histogram);
     out.println();
-    if (totalHits > MIN_TOTAL_HITS) {
+    if (histogram.getTotalHits() > MIN_TOTAL_HITS) {
       out.println("'% of heap' measurements are within +/- 3%, at the 99% confidence level");
     } else {
       out.println("THERE WAS SIGNIFICANT DATA LOSS, NUMBERS MAY BE INACCURATE");
@@ -149,21 +562,138 @@ public final class StatisticalHeapInspector {
     out.flush();
   }
 
+  /**
+   * For each class in the histogram, show which classes point at it
+   */
+  private static void writeReferrers(PrintWriter out, HeapHistogram histogram) {
+    out.println();
+    out.println("Estimated References | % of incoming | Referring class");
+    out.println("--------------------------------------------------------------------------------------");
+    for (HeapHistogram.ClassEstimate estimate : histogram.getClasses()) {
+      if (estimate.getHits() <= MIN_SIGNIFICANT_SAMPLES) {
+        break;
+      }
+      out.println(estimate.getKlassName());
+      if (estimate.getReferrers().isEmpty()) {
+        out.println("                     |               | (no significant referrers)");
+      }
+      for (HeapHistogram.Referrer referrer : estimate.getReferrers()) {
+        out.format("%20.0f | %12.1f%% | %s\n",
+            referrer.getEstimatedReferences(), referrer.getPercentOfIncoming(), referrer.getKlassName());
+      }
+    }
+  }
+
+  /**
+   * Show the age distribution of each class in the histogram, oldest first. Classes with a high mean age survive many
+   * young collections, and are the ones that get promoted (prematurely or not).
+   */
+  private static void writeAges(PrintWriter out, HeapHistogram histogram) {
+    List<HeapHistogram.ClassEstimate> significant = new ArrayList<>();
+    for (HeapHistogram.ClassEstimate estimate : histogram.getClasses()) {
+      if (estimate.getHits() <= MIN_SIGNIFICANT_SAMPLES) {
+        break;
+      }
+      significant.add(estimate);
+    }
+    Collections.sort(significant, Comparator.comparing((HeapHistogram.ClassEstimate estimate) ->
+        Double.isNaN(estimate.getMeanAge()) ? -1.0 : estimate.getMeanAge()).reversed());
+
+    out.println();
+    out.println("Mean Age | % Age 0 | % Max Age | % Hashed | % Locked | Class");
+    out.println("--------------------------------------------------------------------------------------");
+    for (HeapHistogram.ClassEstimate estimate : significant) {
+      long[] ages = estimate.getAgeHistogram();
+      double hits = (double) estimate.getHits();
+      out.format("%8.1f | %6.1f%% | %8.1f%% | %7.1f%% | %7.1f%% | %s\n",
+          estimate.getMeanAge(), ages[0] / hits * 100.0, ages[ages.length - 1] / hits * 100.0,
+          estimate.getHashedHits() / hits * 100.0, estimate.getLockedHits() / hits * 100.0, estimate.getKlassName());
+    }
+  }
+
+  public static void write(PrintWriter out, HotspotHeap.G1Occupancy occupancy) {
+    out.println();
+    out.println("G1 regions of " + occupancy.getRegionSize() + " bytes:");
+    for (HotspotHeap.G1RegionType type : HotspotHeap.G1RegionType.values()) {
+      out.printf("  %-19s %d%n", type, occupancy.getRegionCount(type));
+    }
+    out.println("Eden used:      " + occupancy.getEdenUsed());
+    out.println("Survivor used:  " + occupancy.getSurvivorUsed());
+    out.println("Old used:       " + occupancy.getOldUsed());
+    out.println("Humongous used: " + occupancy.getHumongousUsed());
+    out.flush();
+  }
+
   public static void main(String args[]) throws IOException {
     @SuppressWarnings("UseOfSystemOutOrSystemErr")
     PrintWriter out = new PrintWriter(System.out);
 
     Inferior inferior = new SelfInferior();
     Hotspot hotspot = new Hotspot(inferior);
-    StatisticalHeapInspector dumper = new StatisticalHeapInspector(out, hotspot);
-    dumper.run();
+    StatisticalHeapInspector dumper = new StatisticalHeapInspector(hotspot);
+    write(out, dumper.run());
+    HotspotHeap.G1Occupancy occupancy = hotspot.getHeap().collectG1Occupancy();
+    if (occupancy != null) {
+      write(out, occupancy);
+    }
     inferior.detach();
   }
 
+  /**
+   * What one probe found
+   */
+  private static final class Sample {
+    final long address;
+    final long klassAddress;
+    final long size;
+    final long mark;
+    /** Pairs of referent class and number of references */
+    final LongArrayList edges = new LongArrayList();
+
+    Sample(long address, long klassAddress, long size, long mark) {
+      this.address = address;
+      this.klassAddress = klassAddress;
+      this.size = size;
+      this.mark = mark;
+    }
+  }
+
+  /**
+   * The samples taken from a piece of the heap in an incremental run, and what that piece looked like at the time
+   */
+  private static final class Stratum {
+    final long regionBottom;
+    final long end;
+    final long checksum;
+    final int misses;
+    final List<Sample> samples;
+
+    Stratum(long regionBottom, long end, long checksum, int misses, List<Sample> samples) {
+      this.regionBottom = regionBottom;
+      this.end = end;
+      this.checksum = checksum;
+      this.misses = misses;
+      this.samples = samples;
+    }
+  }
+
   private class Node {
+    long klassAddress;
     String klassName;
     long hits;
     long size;
+    long[] ages;
+    long hashedHits;
+    long biasedHits;
+    long lockedHits;
+    Map<Long, Edge> outgoingEdges = new HashMap<>();
+  }
+
+  // Represents the references from one class to another, as seen in the sampled objects
+  private class Edge {
+    long destKlass;
+    long hits;
+    long references;
   }
 
   private class Graph {
@@ -0,0 +1,288 @@
+package com.addepar.heapdump.inspect.inferior;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An inferior backed by an ELF core file, e.g. from gcore or a crash. Nothing changes, so <code>reset</code> does
+ * nothing.
+ *
+ * The kernel usually leaves read-only file mappings (like the text of libjvm.so) out of the core, so those parts of the
+ * address space are read from the mapped files listed in the NT_FILE note instead. Those files have to still be at the
+ * same paths, unchanged.
+ */
+public final class CoreFileInferior implements Inferior {
+  private static final int NT_FILE = 0x46494c45;
+
+  private final FileChannel coreChannel;
+  private final int pointerSize;
+  private final Mapping[] mappings; // sorted by start address
+  private final long[] mappingStarts;
+  private final Map<String, FileChannel> mappedFiles = new HashMap<>();
+  private final Map<String, Long> symbols = new HashMap<>();
+  private Map<String, Long> vtables; // derived from symbols, computed on demand
+
+  public CoreFileInferior(Path coreFile) throws IOException {
+    List<ElfFile.Segment> segments;
+    List<FileMapping> fileMappings = new ArrayList<>();
+    try (ElfFile core = new ElfFile(coreFile)) {
+      pointerSize = core.is64Bit() ? 8 : 4;
+      segments = core.getSegments();
+      for (ElfFile.Segment segment : segments) {
+        if (segment.getType() == ElfFile.PT_NOTE) {
+          parseNotes(core.readSegment(segment), fileMappings);
+        }
+      }
+    }
+    coreChannel = FileChannel.open(coreFile);
+
+    List<Mapping> loaded = new ArrayList<>();
+    for (ElfFile.Segment segment : segments) {
+      // Segments without any permissions are guard pages and reservations, which can't be read in the live process
+      if (segment.getType() != ElfFile.PT_LOAD || segment.getMemorySize() == 0 || segment.getFlags() == 0) {
+        continue;
+      }
+      FileChannel backingFile = null;
+      long backingOffset = 0;
+      for (FileMapping fileMapping : fileMappings) {
+        if (segment.getVirtualAddress() >= fileMapping.start && segment.getVirtualAddress() < fileMapping.end) {
+          backingFile = openMappedFile(fileMapping.path);
+          backingOffset = fileMapping.fileOffset + (segment.getVirtualAddress() - fileMapping.start);
+          break;
+        }
+      }
+      loaded.add(new Mapping(segment.getVirtualAddress(), segment.getVirtualAddress() + segment.getMemorySize(),
+          segment.getOffset(), segment.getFileSize(), backingFile, backingOffset));
+    }
+    loaded.sort(Comparator.comparingLong(mapping -> mapping.start));
+    mappings = loaded.toArray(new Mapping[loaded.size()]);
+    mappingStarts = new long[mappings.length];
+    for (int i = 0; i < mappings.length; i++) {
+      mappingStarts[i] = mappings[i].start;
+    }
+
+    // The first mapping of each file is the one at file offset 0, which gives its load address
+    Map<String, Long> loadAddresses = new HashMap<>();
+    for (FileMapping fileMapping : fileMappings) {
+      loadAddresses.putIfAbsent(fileMapping.path, fileMapping.start - fileMapping.fileOffset);
+    }
+    for (Map.Entry<String, Long> entry : loadAddresses.entrySet()) {
+      try (ElfFile file = new ElfFile(Paths.get(entry.getKey()))) {
+        for (Map.Entry<String, Long> symbol : file.getSymbolValues().entrySet()) {
+          if (symbol.getValue() != 0) {
+            symbols.put(symbol.getKey(), symbol.getValue() + entry.getValue());
+          }
+        }
+      } catch (IOException e) {
+        // skip files that aren't there anymore, or aren't ELF files at all
+      }
+    }
+  }
+
+  /**
+   * Collect the file mappings out of the NT_FILE note. Each note is a header of three 4-byte words (name size,
+   * descriptor size, and type) followed by the name and descriptor, both padded to 4 bytes.
+   */
+  private void parseNotes(ByteBuffer notes, List<FileMapping> fileMappings) {
+    while (notes.remaining() >= 12) {
+      int nameSize = notes.getInt();
+      int descSize = notes.getInt();
+      int type = notes.getInt();
+      notes.position(notes.position() + align4(nameSize));
+      int descStart = notes.position();
+      if (type == NT_FILE) {
+        // count, page size, then (start, end, offset in pages) for each file, then the NUL-terminated paths
+        long count = getAddr(notes);
+        long pageSize = getAddr(notes);
+        long[] ranges = new long[Math.toIntExact(count * 3)];
+        for (int i = 0; i < ranges.length; i++) {
+          ranges[i] = getAddr(notes);
+        }
+        for (int i = 0; i < count; i++) {
+          int pathStart = notes.position();
+          while (notes.get() != 0) {
+            // the position is moving forward
+          }
+          byte[] path = Arrays.copyOfRange(notes.array(), notes.arrayOffset() + pathStart,
+              notes.arrayOffset() + notes.position() - 1);
+          fileMappings.add(new FileMapping(ranges[3 * i], ranges[3 * i + 1], ranges[3 * i + 2] * pageSize,
+              new String(path, StandardCharsets.UTF_8)));
+        }
+      }
+      notes.position(descStart + align4(descSize));
+    }
+  }
+
+  private static int align4(int size) {
+    return (size + 3) & ~3;
+  }
+
+  private long getAddr(ByteBuffer buf) {
+    return pointerSize == 8 ? buf.getLong() : Integer.toUnsignedLong(buf.getInt());
+  }
+
+  private FileChannel openMappedFile(String path) {
+    if (!mappedFiles.containsKey(path)) {
+      FileChannel channel;
+      try {
+        channel = FileChannel.open(Paths.get(path));
+      } catch (IOException e) {
+        // e.g. deleted files, or mappings of device files. Reads of those parts of the core will come back short.
+        channel = null;
+      }
+      mappedFiles.put(path, channel);
+    }
+    return mappedFiles.get(path);
+  }
+
+  private Mapping findMapping(long address) {
+    int index = Arrays.binarySearch(mappingStarts, address);
+    if (index < 0) {
+      index = -index - 2; // the mapping that starts before the address
+    }
+    if (index < 0 || address >= mappings[index].end) {
+      return null;
+    }
+    return mappings[index];
+  }
+
+  @Override
+  public void read(long address, ByteBuffer buffer) {
+    int originalLimit = buffer.limit();
+    try {
+      while (buffer.hasRemaining()) {
+        Mapping mapping = findMapping(address);
+        if (mapping == null) {
+          return;
+        }
+
+        long offsetInMapping = address - mapping.start;
+        FileChannel channel;
+        long position;
+        long available;
+        if (offsetInMapping < mapping.coreSize) {
+          channel = coreChannel;
+          position = mapping.coreOffset + offsetInMapping;
+          available = mapping.coreSize - offsetInMapping;
+        } else if (mapping.backingFile != null) {
+          channel = mapping.backingFile;
+          position = mapping.backingOffset + offsetInMapping;
+          available = mapping.end - address;
+        } else {
+          // Anonymous memory that the kernel didn't dump
+          return;
+        }
+
+        buffer.limit((int) Math.min(originalLimit, buffer.position() + available));
+        while (buffer.hasRemaining()) {
+          int bytes = channel.read(buffer, position);
+          if (bytes <= 0) {
+            return;
+          }
+          position += bytes;
+          address += bytes;
+        }
+        buffer.limit(originalLimit);
+      }
+    } catch (IOException e) {
+      // Returning a short buffer means that there was a problem reading
+    } finally {
+      buffer.limit(originalLimit);
+    }
+  }
+
+  @Override
+  public boolean isMapped(long address) {
+    return findMapping(address) != null;
+  }
+
+  @Override
+  public void reset() {
+    // A core file never changes
+  }
+
+  @Override
+  public int getPointerSize() {
+    return pointerSize;
+  }
+
+  @Override
+  public long lookupSymbol(String symbolName) {
+    Long ret = symbols.get(symbolName);
+    if (ret == null) {
+      throw new NoSuchSymbolException(symbolName);
+    }
+    return ret;
+  }
+
+  @Override
+  public long lookupVtable(String typeName) {
+    return VtableSymbols.vtableAddress(lookupSymbol(VtableSymbols.symbolName(typeName)), pointerSize);
+  }
+
+  @Override
+  public Map<String, Long> lookupAllVtables() {
+    if (vtables == null) {
+      vtables = VtableSymbols.findAll(symbols, pointerSize);
+    }
+    return vtables;
+  }
+
+  @Override
+  public void detach() throws IOException {
+    coreChannel.close();
+    for (FileChannel channel : mappedFiles.values()) {
+      if (channel != null) {
+        channel.close();
+      }
+    }
+  }
+
+  /**
+   * A loadable segment of the core file
+   */
+  private static final class Mapping {
+    final long start;
+    final long end;
+    final long coreOffset;
+    final long coreSize;
+    final FileChannel backingFile;
+    final long backingOffset;
+
+    Mapping(long start, long end, long coreOffset, long coreSize, FileChannel backingFile, long backingOffset) {
+      this.start = start;
+      this.end = end;
+      this.coreOffset = coreOffset;
+      this.coreSize = coreSize;
+      this.backingFile = backingFile;
+      this.backingOffset = backingOffset;
+    }
+  }
+
+  /**
+   * An entry of the NT_FILE note
+   */
+  private static final class FileMapping {
+    final long start;
+    final long end;
+    final long fileOffset;
+    final String path;
+
+    FileMapping(long start, long end, long fileOffset, String path) {
+      this.start = start;
+      this.end = end;
+      this.fileOffset = fileOffset;
+      this.path = path;
+    }
+  }
+}
@@ -6,7 +6,10 @@ import java.nio.ByteOrder;
 import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -18,10 +21,12 @@ public class ElfFile implements AutoCloseable {
   private boolean is64Bit;
   private ByteOrder byteOrder;
   private Map<String, Long> symbolValues;
+  private List<Segment> segments;
 
   public ElfFile(Path path) throws IOException {
     fileChannel = FileChannel.open(path);
     symbolValues = new HashMap<>();
+    segments = new ArrayList<>();
     parse();
   }
 
@@ -29,6 +34,38 @@ public class ElfFile implements AutoCloseable {
     return symbolValues;
   }
 
+  /**
+   * The program headers, in the order they appear in the file. Core files only have these, not sections.
+   */
+  public List<Segment> getSegments() {
+    return Collections.unmodifiableList(segments);
+  }
+
+  public boolean is64Bit() {
+    return is64Bit;
+  }
+
+  public ByteOrder getByteOrder() {
+    return byteOrder;
+  }
+
+  /**
+   * Read the part of a segment that is present in the file, in the byte order of the file
+   */
+  public ByteBuffer readSegment(Segment segment) throws IOException {
+    if (segment.fileSize > Integer.MAX_VALUE || segment.fileSize < 0) {
+      throw new IOException("ELF segment size too big");
+    }
+    ByteBuffer contents = ByteBuffer.allocate((int) segment.fileSize).order(byteOrder);
+    while (contents.hasRemaining()) {
+      if (fileChannel.read(contents, segment.offset + contents.position()) < 0) {
+        throw new IOException("Could not read ELF segment");
+      }
+    }
+    contents.flip();
+    return contents;
+  }
+
   @Override
   public void close() throws IOException {
     fileChannel.close();
@@ -89,9 +126,42 @@ public class ElfFile implements AutoCloseable {
     int sectionHeaderEntryCount = getShort(buf);
     int stringTableIndex = getShort(buf);
 
+    parseProgramHeaders(programHeaderOffset, programHeaderEntrySize, programHeaderEntryCount);
     parseSections(sectionHeaderOffset, sectionHeaderEntrySize, sectionHeaderEntryCount);
   }
 
+  private void parseProgramHeaders(long programHeaderOffset, int entrySize, int entryCount) throws IOException {
+    if (programHeaderOffset < 0) {
+      throw new IOException("Program header offset is too large or is negative");
+    }
+
+    int tableSize = Math.multiplyExact(entrySize, entryCount);
+    ByteBuffer buf = ByteBuffer.allocate(tableSize).order(byteOrder);
+    if (fileChannel.read(buf, programHeaderOffset) < tableSize) {
+      throw new IOException("Could not read entire ELF program header table");
+    }
+    buf.flip();
+
+    for (int i = 0; i < entryCount; i++) {
+      buf.position(i * entrySize);
+
+      // The flags moved to make the 64-bit version naturally aligned
+      int type = buf.getInt();
+      long flags = is64Bit ? getWord(buf) : 0;
+      long offset = getAddr(buf);
+      long vaddr = getAddr(buf);
+      long paddr = getAddr(buf);
+      long fileSize = getAddr(buf);
+      long memorySize = getAddr(buf);
+      if (!is64Bit) {
+        flags = getWord(buf);
+      }
+      long align = getAddr(buf);
+
+      segments.add(new Segment(type, (int) flags, offset, vaddr, fileSize, memorySize));
+    }
+  }
+
   private void parseSections(long sectionHeaderOffset, int entrySize, int entryCount)
       throws IOException {
     if (sectionHeaderOffset < 0) {
@@ -238,6 +308,14 @@ public class ElfFile implements AutoCloseable {
 
   private static final int MIN_SIZE_OF_ELF_HEADER = 68;
 
+  /* Program header stuff */
+  public static final int PT_LOAD = 1;
+  public static final int PT_NOTE = 4;
+
+  public static final int PF_X = 1;
+  public static final int PF_W = 2;
+  public static final int PF_R = 4;
+
   /* Section table stuff */
   private static final int SHT_SYMTAB = 2;
   private static final int SHT_STRTAB = 3;
@@ -248,6 +326,61 @@ public class ElfFile implements AutoCloseable {
   private static final int STT_OBJECT = 1;
   private static final int STT_FUNC = 2;
 
+  public static final class Segment {
+    private final int type;
+    private final int flags;
+    private final long offset;
+    private final long virtualAddress;
+    private final long fileSize;
+    private final long memorySize;
+
+    private Segment(int type, int flags, long offset, long virtualAddress, long fileSize, long memorySize) {
+      this.type = type;
+      this.flags = flags;
+      this.offset = offset;
+      this.virtualAddress = virtualAddress;
+      this.fileSize = fileSize;
+      this.memorySize = memorySize;
+    }
+
+    /**
+     * One of the PT_* constants
+     */
+    public int getType() {
+      return type;
+    }
+
+    /**
+     * A combination of PF_R, PF_W and PF_X
+     */
+    public int getFlags() {
+      return flags;
+    }
+
+    /**
+     * Where the segment's contents start in the file
+     */
+    public long getOffset() {
+      return offset;
+    }
+
+    public long getVirtualAddress() {
+      return virtualAddress;
+    }
+
+    /**
+     * The number of bytes of the segment that are present in the file. In a core file this is 0 for memory that the
+     * kernel didn't dump, like read-only file mappings.
+     */
+    public long getFileSize() {
+      return fileSize;
+    }
+
+    public long getMemorySize() {
+      return memorySize;
+    }
+  }
+
   private static final class ElfSection {
     private final int type;
     private final int link;
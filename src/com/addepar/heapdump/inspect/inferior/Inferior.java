@@ -2,6 +2,7 @@ package com.addepar.heapdump.inspect.inferior;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.Map;
 
 public interface Inferior {
   void read(long address, ByteBuffer buffer);
@@ -19,5 +20,11 @@ public interface Inferior {
 
   long lookupVtable(String typeName);
 
+  /**
+   * Find the vtables of every (non-nested) C++ class at once. Returns a map from class name to the same address that
+   * <code>lookupVtable</code> would return.
+   */
+  Map<String, Long> lookupAllVtables();
+
   void detach() throws IOException;
 }
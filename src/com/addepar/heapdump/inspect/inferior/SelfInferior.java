@@ -20,6 +20,7 @@ public final class SelfInferior implements Inferior {
   private FileChannel selfMem;
   Set<String> visitedFiles = new HashSet<>();
   private Map<String, Long> symbols = new HashMap<>();
+  private Map<String, Long> vtables; // derived from symbols, computed on demand
   private long[] mappedRanges; // even indexes are starts, odd indexes are ends
   private final int pointerSize; // either 4 or 8, indicating 32-bit or 64-bit respectively
 
@@ -83,7 +84,15 @@ public final class SelfInferior implements Inferior {
 
   @Override
   public long lookupVtable(String typeName) {
-     return lookupSymbol("_ZTV" + typeName.length() + typeName) + 2 * pointerSize;
+    return VtableSymbols.vtableAddress(lookupSymbol(VtableSymbols.symbolName(typeName)), pointerSize);
+  }
+
+  @Override
+  public Map<String, Long> lookupAllVtables() {
+    if (vtables == null) {
+      vtables = VtableSymbols.findAll(symbols, pointerSize);
+    }
+    return vtables;
   }
 
   @Override
@@ -114,6 +123,7 @@ public final class SelfInferior implements Inferior {
 
         if (path != null && !path.startsWith("[") && !visitedFiles.contains(path)) {
           visitedFiles.add(path);
+          vtables = null;
           try (ElfFile file = new ElfFile(Paths.get(path))) {
             for (Map.Entry<String, Long> entry : file.getSymbolValues().entrySet()) {
               if (entry.getValue() != 0) {
@@ -0,0 +1,50 @@
+package com.addepar.heapdump.inspect.inferior;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Finds C++ vtables by their mangled symbol names. The vtable symbol for class Foo is _ZTV3Foo, and the address that
+ * objects point at is two words past it, after the offset-to-top and the typeinfo pointer.
+ */
+final class VtableSymbols {
+
+  private VtableSymbols() {
+  }
+
+  static String symbolName(String typeName) {
+    return "_ZTV" + typeName.length() + typeName;
+  }
+
+  /**
+   * Convert the address of a vtable symbol into the address that objects of that type point at
+   */
+  static long vtableAddress(long symbolValue, int pointerSize) {
+    return symbolValue + 2 * pointerSize;
+  }
+
+  /**
+   * Find the vtable of every (non-nested) class in a symbol table
+   */
+  static Map<String, Long> findAll(Map<String, Long> symbols, int pointerSize) {
+    Map<String, Long> result = new HashMap<>();
+    for (Map.Entry<String, Long> entry : symbols.entrySet()) {
+      String symbol = entry.getKey();
+      if (!symbol.startsWith("_ZTV")) {
+        continue;
+      }
+      int pos = 4;
+      int length = 0;
+      while (pos < symbol.length() && Character.isDigit(symbol.charAt(pos))) {
+        length = length * 10 + (symbol.charAt(pos) - '0');
+        pos++;
+      }
+      // skips nested names (_ZTVN...E) and templates, which vmStructs doesn't have
+      if (pos > 4 && pos + length == symbol.length()) {
+        result.put(symbol.substring(pos), vtableAddress(entry.getValue(), pointerSize));
+      }
+    }
+    return Collections.unmodifiableMap(result);
+  }
+}
@@ -0,0 +1,15 @@
+package com.addepar.heapdump.inspect.struct;
+
+import com.addepar.heapdump.inspect.FieldType;
+
+public interface ArrayKlass extends Klass {
+
+  /**
+   * The array class with one more dimension, if it has been created
+   */
+  @FieldType("Klass*")
+  Klass _higher_dimension();
+
+  @FieldType("int")
+  int _vtable_len();
+}
@@ -0,0 +1,45 @@
+package com.addepar.heapdump.inspect.struct;
+
+import com.addepar.heapdump.inspect.FieldType;
+import com.addepar.heapdump.inspect.Hotspot;
+import com.addepar.heapdump.inspect.HotspotConstants;
+
+public interface BlockOffsetArray extends BlockOffsetTable {
+
+  /**
+   * Entries of at least N_words are a logarithmic skip back of Base^(entry - N_words) cards, with Base = 2^LogBase
+   */
+  int LOG_BASE = 4;
+
+  @FieldType("BlockOffsetSharedArray*")
+  BlockOffsetSharedArray _array();
+
+  /**
+   * Use the table to find the start of a block at or before the given address, without looking at the blocks
+   * themselves. The block containing the address is found by walking forward from there. See
+   * BlockOffsetArrayNonContigSpace::block_start_unsafe.
+   */
+  default long blockStartAtOrBefore(long address, Hotspot hotspot) {
+    HotspotConstants constants = hotspot.getConstants();
+    int logCardSize = constants.getIntConstant("BlockOffsetSharedArray::LogN");
+    int cardWords = constants.getIntConstant("BlockOffsetArray::N_words");
+
+    BlockOffsetSharedArray array = _array();
+    long offsetArray = array._offset_array();
+    long reservedStart = array._reserved()._start();
+
+    long index = (address - reservedStart) >>> logCardSize;
+    long cardStart = reservedStart + (index << logCardSize);
+    int entry = Byte.toUnsignedInt(hotspot.getAddressSpace().getByte(offsetArray + index));
+    while (entry >= cardWords) {
+      long cardsBack = 1L << (LOG_BASE * (entry - cardWords));
+      if (cardsBack > index) {
+        throw new IllegalStateException("Block offset table entry at card " + index + " points before the space");
+      }
+      index -= cardsBack;
+      cardStart -= cardsBack << logCardSize;
+      entry = Byte.toUnsignedInt(hotspot.getAddressSpace().getByte(offsetArray + index));
+    }
+    return cardStart - (long) entry * constants.getHeapWordSize();
+  }
+}
@@ -0,0 +1,15 @@
+package com.addepar.heapdump.inspect.struct;
+
+import com.addepar.heapdump.inspect.FieldType;
+
+/**
+ * The block offset table of a contiguous space, which only covers objects. Cards up to the threshold are up to date.
+ */
+public interface BlockOffsetArrayContigSpace extends BlockOffsetArray {
+
+  @FieldType("HeapWord*")
+  long _next_offset_threshold();
+
+  @FieldType("size_t")
+  long _next_offset_index();
+}
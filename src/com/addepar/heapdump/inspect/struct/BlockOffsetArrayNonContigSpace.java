@@ -0,0 +1,12 @@
+package com.addepar.heapdump.inspect.struct;
+
+import com.addepar.heapdump.inspect.FieldType;
+
+/**
+ * The block offset table of a CMS space, which covers free chunks as well as objects
+ */
+public interface BlockOffsetArrayNonContigSpace extends BlockOffsetArray {
+
+  @FieldType("HeapWord*")
+  long _unallocated_block();
+}
@@ -0,0 +1,17 @@
+package com.addepar.heapdump.inspect.struct;
+
+import com.addepar.heapdump.inspect.AddressField;
+import com.addepar.heapdump.inspect.FieldType;
+
+/**
+ * One byte per card of the space, describing where the block that covers the start of the card begins
+ */
+public interface BlockOffsetSharedArray extends HotspotStruct {
+
+  @FieldType("u_char*")
+  @AddressField
+  long _offset_array();
+
+  @FieldType("MemRegion")
+  MemRegion _reserved();
+}
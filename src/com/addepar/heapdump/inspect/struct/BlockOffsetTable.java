@@ -0,0 +1,12 @@
+package com.addepar.heapdump.inspect.struct;
+
+import com.addepar.heapdump.inspect.FieldType;
+
+public interface BlockOffsetTable extends HotspotStruct {
+
+  @FieldType("HeapWord*")
+  long _bottom();
+
+  @FieldType("HeapWord*")
+  long _end();
+}
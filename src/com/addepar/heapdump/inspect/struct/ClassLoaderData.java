@@ -0,0 +1,23 @@
+package com.addepar.heapdump.inspect.struct;
+
+import com.addepar.heapdump.inspect.AddressField;
+import com.addepar.heapdump.inspect.FieldType;
+
+public interface ClassLoaderData extends HotspotStruct {
+
+  /**
+   * The java.lang.ClassLoader, or 0 for the boot loader
+   */
+  @FieldType("oop")
+  @AddressField
+  long _class_loader();
+
+  @FieldType("ClassLoaderData*")
+  ClassLoaderData _next();
+
+  /**
+   * Same as <code>_next()</code>, but points <code>reuse</code> at the next one instead of allocating
+   */
+  @FieldType("ClassLoaderData*")
+  ClassLoaderData _next(ClassLoaderData reuse);
+}
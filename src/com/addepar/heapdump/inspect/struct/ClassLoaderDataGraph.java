@@ -0,0 +1,12 @@
+package com.addepar.heapdump.inspect.struct;
+
+import com.addepar.heapdump.inspect.FieldType;
+
+public interface ClassLoaderDataGraph extends HotspotStruct {
+
+  /**
+   * The most recently created ClassLoaderData. The boot loader's is at the end of the list.
+   */
+  @FieldType("ClassLoaderData*")
+  ClassLoaderData _head();
+}
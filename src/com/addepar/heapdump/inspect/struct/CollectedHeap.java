@@ -5,4 +5,10 @@ import com.addepar.heapdump.inspect.FieldType;
 public interface CollectedHeap extends DynamicHotspotStruct {
   @FieldType("bool")
   boolean _is_gc_active();
+
+  /**
+   * Incremented at the start of every collection, inside the safepoint
+   */
+  @FieldType("unsigned int")
+  int _total_collections();
 }
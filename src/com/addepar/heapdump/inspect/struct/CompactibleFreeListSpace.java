@@ -1,4 +1,9 @@
 package com.addepar.heapdump.inspect.struct;
 
+import com.addepar.heapdump.inspect.FieldType;
+
 public interface CompactibleFreeListSpace extends Space {
+
+  @FieldType("BlockOffsetArrayNonContigSpace")
+  BlockOffsetArrayNonContigSpace _bt();
 }
@@ -0,0 +1,12 @@
+package com.addepar.heapdump.inspect.struct;
+
+import com.addepar.heapdump.inspect.FieldType;
+
+public interface ConstMethod extends HotspotStruct {
+
+  /**
+   * The size in words, including the bytecodes and the tables that follow it
+   */
+  @FieldType("int")
+  int _constMethod_size();
+}
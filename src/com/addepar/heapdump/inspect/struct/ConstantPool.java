@@ -0,0 +1,20 @@
+package com.addepar.heapdump.inspect.struct;
+
+import com.addepar.heapdump.inspect.AddressField;
+import com.addepar.heapdump.inspect.FieldType;
+
+public interface ConstantPool extends HotspotStruct {
+
+  /**
+   * The number of entries, each one word long, which follow the header
+   */
+  @FieldType("int")
+  int _length();
+
+  @FieldType("Array<u1>*")
+  @AddressField
+  long _tags();
+
+  @FieldType("ConstantPoolCache*")
+  ConstantPoolCache _cache();
+}
@@ -0,0 +1,12 @@
+package com.addepar.heapdump.inspect.struct;
+
+import com.addepar.heapdump.inspect.FieldType;
+
+public interface ConstantPoolCache extends HotspotStruct {
+
+  /**
+   * The number of ConstantPoolCacheEntry records, which follow the header
+   */
+  @FieldType("int")
+  int _length();
+}
@@ -9,4 +9,7 @@ public interface DefNewGeneration extends Generation {
 
   @FieldType("ContiguousSpace*")
   ContiguousSpace _from_space();
+
+  @FieldType("ContiguousSpace*")
+  ContiguousSpace _to_space();
 }
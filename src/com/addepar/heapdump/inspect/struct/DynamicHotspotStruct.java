@@ -1,7 +1,5 @@
 package com.addepar.heapdump.inspect.struct;
 
-import com.addepar.heapdump.inspect.HotspotStructs;
-
 /**
  * Hotspot types that are expected to have a vtable should extend from this interface. It adds support for dynamic
  * type checks and dynamic casts.
@@ -9,12 +7,10 @@ import com.addepar.heapdump.inspect.HotspotStructs;
 public interface DynamicHotspotStruct extends HotspotStruct {
 
   default <T extends DynamicHotspotStruct> T dynamicCast(Class<T> subclass) {
-    HotspotStructs.AsmClassLoader asmClassLoader = (HotspotStructs.AsmClassLoader) getClass().getClassLoader();
-    return asmClassLoader.getHotspotStructs().dynamicCast(this, subclass);
+    return getStructs().dynamicCast(this, subclass);
   }
 
   default boolean isInstanceOf(Class<? extends DynamicHotspotStruct> subclass) {
-    HotspotStructs.AsmClassLoader asmClassLoader = (HotspotStructs.AsmClassLoader) getClass().getClassLoader();
-    return asmClassLoader.getHotspotStructs().isInstanceOf(this, subclass);
+    return getStructs().isInstanceOf(this, subclass);
   }
 }
@@ -25,7 +25,7 @@ public interface FreeChunk extends HotspotStruct {
   default boolean isFreeChunk(Hotspot hotspot) {
     if (hotspot.useCompressedOops()) {
       long markOop = hotspot.getAddressSpace().getPointer(getAddress());
-      return (markOop & hotspot.getConstants().getMarkOopCmsMask()) != 0;
+      return hotspot.getMarkWord().isCmsFreeChunk(markOop);
     } else {
       return (_prev() & 0x1) == 0x1;
     }
@@ -6,4 +6,7 @@ public interface G1CollectedHeap extends CollectedHeap {
 
   @FieldType("HeapRegionManager")
   HeapRegionManager _hrm();
+
+  @FieldType("G1MonitoringSupport*")
+  G1MonitoringSupport _g1mm();
 }
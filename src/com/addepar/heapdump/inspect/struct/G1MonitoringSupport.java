@@ -0,0 +1,28 @@
+package com.addepar.heapdump.inspect.struct;
+
+import com.addepar.heapdump.inspect.FieldType;
+
+/**
+ * The sizes that G1 reports through its memory pools. They're only recalculated after a GC, and when a new eden region
+ * is started, so they lag behind the regions themselves. The old sizes include humongous objects.
+ */
+public interface G1MonitoringSupport extends HotspotStruct {
+
+  @FieldType("size_t")
+  long _eden_used();
+
+  @FieldType("size_t")
+  long _eden_committed();
+
+  @FieldType("size_t")
+  long _survivor_used();
+
+  @FieldType("size_t")
+  long _survivor_committed();
+
+  @FieldType("size_t")
+  long _old_used();
+
+  @FieldType("size_t")
+  long _old_committed();
+}
@@ -1,10 +1,12 @@
 package com.addepar.heapdump.inspect.struct;
 
-import com.google.common.collect.Range;
+import com.addepar.heapdump.inspect.FieldType;
 
+/**
+ * A G1 region. JDK 8 doesn't export the region's type, so humongous regions have to be recognized by their contents.
+ */
 public interface HeapRegion extends G1OffsetTableContigSpace {
 
-  default Range<Long> getLiveRange() {
-    return Range.closedOpen(_bottom(), _top());
-  }
+  @FieldType("size_t")
+  long GrainBytes();
 }
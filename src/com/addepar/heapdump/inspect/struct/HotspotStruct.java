@@ -1,10 +1,17 @@
 package com.addepar.heapdump.inspect.struct;
 
+import com.addepar.heapdump.inspect.HotspotStructs;
+
 /**
  * Base for all struct types
  */
 public interface HotspotStruct {
 
+  /**
+   * The structs that this struct was created from, which also own the address space it reads from
+   */
+  HotspotStructs getStructs();
+
   long getAddress();
 
   void setAddress(long address);
@@ -0,0 +1,63 @@
+package com.addepar.heapdump.inspect.struct;
+
+import com.addepar.heapdump.inspect.AddressField;
+import com.addepar.heapdump.inspect.FieldType;
+import com.addepar.heapdump.inspect.Hotspot;
+
+public interface InstanceKlass extends Klass {
+
+  @FieldType("int")
+  int _vtable_len();
+
+  @FieldType("int")
+  int _itable_len();
+
+  @FieldType("int")
+  int _nonstatic_oop_map_size();
+
+  /**
+   * An Array&lt;u2&gt; of FieldInfo records, each <code>FieldInfo::field_slots</code> shorts long. The first
+   * <code>_java_fields_count</code> of them are the fields declared in the class file.
+   */
+  @FieldType("Array<u2>*")
+  @AddressField
+  long _fields();
+
+  @FieldType("u2")
+  short _java_fields_count();
+
+  @FieldType("ConstantPool*")
+  @AddressField
+  long _constants();
+
+  @FieldType("ClassLoaderData*")
+  ClassLoaderData _class_loader_data();
+
+  @FieldType("Array<Method*>*")
+  @AddressField
+  long _methods();
+
+  /**
+   * The one-dimensional array class of this class, if it has been created
+   */
+  @FieldType("Klass*")
+  Klass _array_klasses();
+
+  /**
+   * The nonstatic oop maps live after the embedded vtable and itable. See InstanceKlass::start_of_nonstatic_oop_maps.
+   * Each map is an OopMapBlock, which is an int offset followed by an unsigned int count.
+   */
+  default long startOfNonstaticOopMaps(Hotspot hotspot) {
+    int wordSize = hotspot.getAddressSpace().getPointerSize();
+    int wordsPerLong = Math.max(1, 8 / wordSize);
+    long headerWords = hotspot.alignUp(hotspot.getTypes().getType("InstanceKlass").getSize() / wordSize, wordsPerLong);
+    long vtableWords = hotspot.alignUp(_vtable_len(), wordsPerLong);
+    long itableWords = hotspot.alignUp(_itable_len(), wordsPerLong);
+    return getAddress() + (headerWords + vtableWords + itableWords) * wordSize;
+  }
+
+  default int nonstaticOopMapCount(Hotspot hotspot) {
+    // _nonstatic_oop_map_size is measured in words, and an OopMapBlock is always 8 bytes
+    return _nonstatic_oop_map_size() * hotspot.getAddressSpace().getPointerSize() / 8;
+  }
+}
@@ -1,9 +1,23 @@
 package com.addepar.heapdump.inspect.struct;
 
+import com.addepar.heapdump.inspect.AddressField;
 import com.addepar.heapdump.inspect.FieldType;
 
 public interface JavaThread extends Thread {
 
   @FieldType("JavaThread*")
   JavaThread _next();
+
+  /**
+   * Same as <code>_next()</code>, but points <code>reuse</code> at the next thread instead of allocating
+   */
+  @FieldType("JavaThread*")
+  JavaThread _next(JavaThread reuse);
+
+  /**
+   * The java.lang.Thread for this thread, or 0 if it hasn't been created yet
+   */
+  @FieldType("oop")
+  @AddressField
+  long _threadObj();
 }
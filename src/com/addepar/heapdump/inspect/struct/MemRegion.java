@@ -0,0 +1,12 @@
+package com.addepar.heapdump.inspect.struct;
+
+import com.addepar.heapdump.inspect.FieldType;
+
+public interface MemRegion extends HotspotStruct {
+
+  @FieldType("HeapWord*")
+  long _start();
+
+  @FieldType("size_t")
+  long _word_size();
+}
@@ -0,0 +1,23 @@
+package com.addepar.heapdump.inspect.struct;
+
+import com.addepar.heapdump.inspect.AddressField;
+import com.addepar.heapdump.inspect.FieldType;
+
+public interface Method extends HotspotStruct {
+
+  @FieldType("ConstMethod*")
+  ConstMethod _constMethod();
+
+  /**
+   * The size of the Method in words
+   */
+  @FieldType("u2")
+  short _method_size();
+
+  /**
+   * The profile, which is only created once the method is warm
+   */
+  @FieldType("MethodData*")
+  @AddressField
+  long _method_data();
+}
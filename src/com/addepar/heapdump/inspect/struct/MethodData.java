@@ -0,0 +1,12 @@
+package com.addepar.heapdump.inspect.struct;
+
+import com.addepar.heapdump.inspect.FieldType;
+
+public interface MethodData extends HotspotStruct {
+
+  /**
+   * The size in bytes
+   */
+  @FieldType("int")
+  int _size();
+}
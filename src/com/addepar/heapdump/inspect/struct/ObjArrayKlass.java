@@ -0,0 +1,12 @@
+package com.addepar.heapdump.inspect.struct;
+
+import com.addepar.heapdump.inspect.FieldType;
+
+public interface ObjArrayKlass extends ArrayKlass {
+
+  /**
+   * The class of the elements once all the dimensions are removed, which is an InstanceKlass or a TypeArrayKlass
+   */
+  @FieldType("Klass*")
+  Klass _bottom_klass();
+}
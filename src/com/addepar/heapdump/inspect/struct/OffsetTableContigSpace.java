@@ -0,0 +1,12 @@
+package com.addepar.heapdump.inspect.struct;
+
+import com.addepar.heapdump.inspect.FieldType;
+
+/**
+ * A contiguous space with a block offset table, which is what the tenured generation of the serial collector uses
+ */
+public interface OffsetTableContigSpace extends ContiguousSpace {
+
+  @FieldType("BlockOffsetArray")
+  BlockOffsetArrayContigSpace _offsets();
+}
@@ -4,6 +4,9 @@ import com.addepar.heapdump.inspect.FieldType;
 
 public interface PSOldGen extends DynamicHotspotStruct {
 
+  @FieldType("MemRegion")
+  MemRegion _reserved();
+
   @FieldType("MutableSpace*")
   MutableSpace _object_space();
 }
@@ -10,4 +10,7 @@ public interface PSYoungGen extends DynamicHotspotStruct {
   @FieldType("MutableSpace*")
   MutableSpace _from_space();
 
+  @FieldType("MutableSpace*")
+  MutableSpace _to_space();
+
 }
@@ -2,7 +2,9 @@ package com.addepar.heapdump.inspect.struct;
 
 import com.addepar.heapdump.inspect.FieldType;
 import com.addepar.heapdump.inspect.Hotspot;
+import com.addepar.heapdump.inspect.inferior.AddressNotMappedException;
 
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 
 public interface Symbol extends HotspotStruct {
@@ -14,8 +16,10 @@ public interface Symbol extends HotspotStruct {
     int length = Short.toUnsignedInt(_length());
     long base = getAddress() + hotspot.getStructs().offsetOf("Symbol", "_body");
     byte[] result = new byte[length];
-    for (int i = 0; i < length; i++) {
-      result[i] = hotspot.getAddressSpace().getByte(base + i);
+    ByteBuffer buffer = ByteBuffer.wrap(result);
+    hotspot.getAddressSpace().read(base, buffer);
+    if (buffer.hasRemaining()) {
+      throw new AddressNotMappedException(base + buffer.position());
     }
     return new String(result, StandardCharsets.UTF_8);
   }
@@ -6,4 +6,16 @@ public interface Thread extends HotspotStruct {
 
   @FieldType("ThreadLocalAllocBuffer")
   ThreadLocalAllocBuffer _tlab();
+
+  /**
+   * Same as <code>_tlab()</code>, but points <code>reuse</code> at the TLAB instead of allocating
+   */
+  @FieldType("ThreadLocalAllocBuffer")
+  ThreadLocalAllocBuffer _tlab(ThreadLocalAllocBuffer reuse);
+
+  /**
+   * Bytes allocated by the thread, not counting the current TLAB. See Thread::cooked_allocated_bytes.
+   */
+  @FieldType("jlong")
+  long _allocated_bytes();
 }
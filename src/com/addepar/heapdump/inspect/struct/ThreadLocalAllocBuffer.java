@@ -2,6 +2,10 @@ package com.addepar.heapdump.inspect.struct;
 
 import com.addepar.heapdump.inspect.FieldType;
 
+/**
+ * A thread's TLAB. The sizes are in words. The statistics (refills, waste and slow allocations) are folded into the
+ * global TLAB statistics and start over from zero at every GC.
+ */
 public interface ThreadLocalAllocBuffer extends HotspotStruct {
 
   @FieldType("HeapWord*")
@@ -12,4 +16,34 @@ public interface ThreadLocalAllocBuffer extends HotspotStruct {
 
   @FieldType("HeapWord*")
   long _end();
+
+  @FieldType("size_t")
+  long _desired_size();
+
+  @FieldType("unsigned")
+  int _number_of_refills();
+
+  /**
+   * Space left unused in TLABs that were retired by a GC
+   */
+  @FieldType("unsigned")
+  int _gc_waste();
+
+  /**
+   * Space left unused in TLABs that were thrown away to make room for a new one
+   */
+  @FieldType("unsigned")
+  int _slow_refill_waste();
+
+  /**
+   * Space left unused in TLABs that compiled code threw away to make room for a new one
+   */
+  @FieldType("unsigned")
+  int _fast_refill_waste();
+
+  /**
+   * Allocations that went straight to the shared heap because they didn't fit in the TLAB
+   */
+  @FieldType("unsigned")
+  int _slow_allocations();
 }
@@ -6,4 +6,10 @@ public interface Threads extends HotspotStruct {
 
   @FieldType("JavaThread*")
   JavaThread _thread_list();
+
+  /**
+   * Same as <code>_thread_list()</code>, but points <code>reuse</code> at the first thread instead of allocating
+   */
+  @FieldType("JavaThread*")
+  JavaThread _thread_list(JavaThread reuse);
 }
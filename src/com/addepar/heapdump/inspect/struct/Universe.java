@@ -11,4 +11,10 @@ public interface Universe extends HotspotStruct {
 
   @FieldType("int")
   int _narrow_klass__shift();
+
+  @FieldType("address")
+  long _narrow_oop__base();
+
+  @FieldType("int")
+  int _narrow_oop__shift();
 }
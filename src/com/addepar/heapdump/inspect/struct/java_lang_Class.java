@@ -5,4 +5,13 @@ import com.addepar.heapdump.inspect.FieldType;
 public interface java_lang_Class extends HotspotStruct {
   @FieldType("int")
   int _oop_size_offset();
+
+  @FieldType("int")
+  int _static_oop_field_count_offset();
+
+  /**
+   * The offset of the Klass* in a java.lang.Class. It is 0 for the mirrors of primitive types.
+   */
+  @FieldType("int")
+  int _klass_offset();
 }
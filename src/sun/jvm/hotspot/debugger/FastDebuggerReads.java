@@ -0,0 +1,23 @@
+package sun.jvm.hotspot.debugger;
+
+/**
+ * Bulk reads that go through the page cache of a DebuggerBase. SA only exposes the cached bulk read to its own
+ * debuggers, so this lives in the same package. Reading around the cache would mix two different snapshots of a
+ * running process.
+ */
+public class FastDebuggerReads {
+
+  private FastDebuggerReads() {
+  }
+
+  public static byte[] readBytes(Debugger dbg, long address, long numBytes) throws UnmappedAddressException {
+    if (dbg instanceof DebuggerBase) {
+      return ((DebuggerBase) dbg).readBytes(address, numBytes);
+    }
+    ReadResult result = dbg.readBytesFromProcess(address, numBytes);
+    if (result.getData() == null) {
+      throw new UnmappedAddressException(result.getFailureAddress());
+    }
+    return result.getData();
+  }
+}